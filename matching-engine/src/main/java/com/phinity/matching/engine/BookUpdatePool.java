@@ -0,0 +1,87 @@
+package com.phinity.matching.engine;
+
+import com.phinity.matching.engine.core.BookUpdate;
+import com.phinity.matching.engine.core.OrderBook;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Book update buffers that the matching stage lends to the last slot of a batch and the publish stage gives back
+ * once it has published them. Both go through the slots in sequence order, so buffers come back in the order they
+ * were lent and a ring of them with two counters is enough; a slot only records where its buffers start. Batches
+ * reuse the same buffers instead of every slot of the ring growing its own; if the publish stage lags by more
+ * than the pool, the matching stage allocates.
+ */
+final class BookUpdatePool {
+    private final BookUpdate[] buffers;
+    private final OrderBook[] books;
+    private final int mask;
+    // Written by the matching stage only
+    private long lent;
+    // Written by the publish stage only
+    private final AtomicLong returned = new AtomicLong();
+
+    /**
+     * @param size number of buffers, a power of two
+     */
+    BookUpdatePool(int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Pool size must be a power of two: " + size);
+        }
+        this.buffers = new BookUpdate[size];
+        this.books = new OrderBook[size];
+        this.mask = size - 1;
+        // Filled up front like the ring itself, so no batch allocates one
+        for (int i = 0; i < size; i++) {
+            buffers[i] = new BookUpdate();
+        }
+    }
+
+    /**
+     * @return position of the next buffer lent
+     */
+    long position() {
+        return lent;
+    }
+
+    /**
+     * @return the next buffer to fill, cleared, or null if they are all waiting to be published
+     */
+    BookUpdate next() {
+        if (lent - returned.get() == buffers.length) {
+            return null;
+        }
+        BookUpdate buffer = buffers[(int) (lent & mask)];
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Lends the buffer returned by {@link #next()}, now holding an update of the book.
+     */
+    void lend(OrderBook book) {
+        books[(int) (lent++ & mask)] = book;
+    }
+
+    BookUpdate getBookUpdate(long position) {
+        return buffers[(int) (position & mask)];
+    }
+
+    OrderBook getBook(long position) {
+        return books[(int) (position & mask)];
+    }
+
+    /**
+     * Gives back the oldest {@code count} buffers lent.
+     */
+    void giveBack(int count) {
+        if (count == 0) {
+            return;
+        }
+        long position = returned.get();
+        for (int i = 0; i < count; i++) {
+            books[(int) (position + i & mask)] = null;
+        }
+        returned.lazySet(position + count);
+    }
+}
@@ -0,0 +1,27 @@
+package com.phinity.matching.engine;
+
+/**
+ * Commands carried by {@link OrderEvent}. Every mutation of a Disruptor hosted book is one of these,
+ * applied by the matching stage in ring sequence order.
+ */
+public enum CommandType {
+    NEW,
+    CANCEL,
+    MODIFY,
+    /** Cancels every resting order of a user, or of the whole book when no user is given. */
+    MASS_CANCEL,
+    /** Captures a consistent copy of the book between two commands. */
+    SNAPSHOT,
+    /** Journal record of a book that joined the engine, carrying its encoded snapshot. */
+    RESTORE_BOOK,
+    /** Journal record of a book that left the engine. */
+    REMOVE_BOOK,
+    /** Captures every hosted book at the same journal sequence; not journaled itself. */
+    CHECKPOINT,
+    /** Starts replicating to a follower from a copy of every hosted book; not journaled itself. */
+    ATTACH_FOLLOWER,
+    /** Copies a step of the snapshots in progress; published by the matching thread itself, not journaled. */
+    CAPTURE_STEP,
+    /** Closes the bars of a book that ended without a command since; not journaled. */
+    CLOSE_CANDLES
+}
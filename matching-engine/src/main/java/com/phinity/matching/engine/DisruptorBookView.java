@@ -0,0 +1,200 @@
+package com.phinity.matching.engine;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.common.dto.models.OrderBookUpdateEvent;
+import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.BookFeed;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.core.BookUpdate;
+import com.phinity.matching.engine.core.Candle;
+import com.phinity.matching.engine.core.CandleInterval;
+import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.SnapshotCapture;
+import com.phinity.matching.engine.core.Ticker;
+import com.phinity.matching.engine.core.Trade;
+import com.phinity.matching.engine.core.TradeBuffer;
+import com.phinity.matching.engine.service.EventPublisher;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only view of a book hosted by an {@link OptimizedDisruptorEngine} for threads other than its handler.
+ * Orders are read from a snapshot queued behind the engine's commands; the ticker and candles, which the book
+ * publishes for lock-free readers, are read directly. Commands have to go through the engine.
+ */
+final class DisruptorBookView implements OrderBook {
+    private final OptimizedDisruptorEngine engine;
+    private final OrderBook book;
+
+    DisruptorBookView(OptimizedDisruptorEngine engine, OrderBook book) {
+        this.engine = engine;
+        this.book = book;
+    }
+
+    @Override
+    public String getSymbol() {
+        return book.getSymbol();
+    }
+
+    @Override
+    public PairScale getScale() {
+        return book.getScale();
+    }
+
+    @Override
+    public Ticker getTicker() {
+        return book.getTicker();
+    }
+
+    @Override
+    public List<Candle> getCandles(CandleInterval interval, int limit) {
+        return book.getCandles(interval, limit);
+    }
+
+    @Override
+    public boolean hasDueCandles(long timeMillis) {
+        return book.hasDueCandles(timeMillis);
+    }
+
+    @Override
+    public OrderBookSnapshot snapshot() {
+        OrderBookSnapshot snapshot = engine.snapshot(book.getSymbol()).join();
+        if (snapshot == null) {
+            throw new IllegalStateException(book.getSymbol() + " is no longer hosted by its engine");
+        }
+        return snapshot;
+    }
+
+    @Override
+    public long getSequence() {
+        return snapshot().getSequence();
+    }
+
+    @Override
+    public List<PendingOrders> getBids() {
+        return snapshot().getBids();
+    }
+
+    @Override
+    public List<PendingOrders> getAsks() {
+        return snapshot().getAsks();
+    }
+
+    @Override
+    public List<OrderBookUpdateEvent.OrderLevel> getAggregatedDepth(Side side, int depth) {
+        OrderBookSnapshot snapshot = snapshot();
+        List<PendingOrders> orders = side == Side.BUY ? snapshot.getBids() : snapshot.getAsks();
+        List<OrderBookUpdateEvent.OrderLevel> depthLevels = new ArrayList<>(Math.min(depth, 64));
+        int i = 0;
+        // The snapshot lists each side best level first, in queue order within a level
+        while (i < orders.size() && depthLevels.size() < depth) {
+            BigDecimal price = orders.get(i).getPrice();
+            BigDecimal quantity = BigDecimal.ZERO;
+            int count = 0;
+            for (; i < orders.size() && orders.get(i).getPrice().compareTo(price) == 0; i++) {
+                quantity = quantity.add(orders.get(i).getRemainingQuantity());
+                count++;
+            }
+            depthLevels.add(new OrderBookUpdateEvent.OrderLevel(price, quantity, count));
+        }
+        return depthLevels;
+    }
+
+    @Override
+    public void setEventPublisher(EventPublisher eventPublisher) {
+        throw readOnly();
+    }
+
+    @Override
+    public void configurePublication(BookUpdateMode mode, BookFeed feed, long snapshotIntervalMillis) {
+        throw readOnly();
+    }
+
+    @Override
+    public void configureOrderIdWindow(long windowMillis, int maxOrderIds) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean flushBookUpdate() {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean drainBookUpdate(BookUpdate update) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<Trade> matchOrder(PendingOrders order) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<Trade> matchOrder(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+                                  long price, long quantity) {
+        throw readOnly();
+    }
+
+    @Override
+    public long matchOrder(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+                           long price, long quantity, TradeBuffer fills) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean cancelOrder(String orderId) {
+        throw readOnly();
+    }
+
+    @Override
+    public int cancelAllOrders(String userId) {
+        throw readOnly();
+    }
+
+    @Override
+    public int cancelAllOrders(String userId, Side side, List<String> cancelledOrderIds) {
+        throw readOnly();
+    }
+
+    @Override
+    public SnapshotCapture beginSnapshot() {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean closeDueCandles(long timeMillis) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean drainClosedCandles(List<Candle> candles) {
+        throw readOnly();
+    }
+
+    @Override
+    public void restore(OrderBookSnapshot snapshot) {
+        throw readOnly();
+    }
+
+    @Override
+    public PendingOrders modifyOrder(String orderId, BigDecimal newPrice, BigDecimal newQuantity) {
+        throw readOnly();
+    }
+
+    @Override
+    public PendingOrders modifyOrder(String orderId, long newPrice, long newQuantity) {
+        throw readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The book of " + book.getSymbol()
+                + " is owned by its Disruptor engine; submit commands through the engine");
+    }
+}
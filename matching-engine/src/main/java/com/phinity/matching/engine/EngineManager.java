@@ -1,12 +1,18 @@
 package com.phinity.matching.engine;
 
+import com.phinity.common.dto.enums.Side;
 import com.phinity.common.dto.models.PendingOrders;
 import com.phinity.matching.engine.config.PairConfigurationManager;
+import com.phinity.matching.engine.core.Candle;
+import com.phinity.matching.engine.core.CandleInterval;
 import com.phinity.matching.engine.core.MatchingEngine;
 import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.Ticker;
 import com.phinity.matching.engine.core.Trade;
 import com.phinity.matching.engine.service.EventPublisher;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
 
+import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
@@ -17,9 +23,13 @@ public class EngineManager {
     private EventPublisher eventPublisher;
     
     public EngineManager() {
-        this.configManager = new PairConfigurationManager();
-        this.highVolumePool = new EnginePool(50, Collections.emptySet());
-        this.standardPool = new EnginePool(100, Collections.emptySet());
+        this(new PairConfigurationManager());
+    }
+
+    public EngineManager(PairConfigurationManager configManager) {
+        this.configManager = configManager;
+        this.highVolumePool = new EnginePool("high-volume-pool", 50, Collections.emptySet(), configManager);
+        this.standardPool = new EnginePool("standard-pool", 100, Collections.emptySet(), configManager);
     }
     
     public void setEventPublisher(EventPublisher eventPublisher) {
@@ -36,6 +46,40 @@ public class EngineManager {
         }
     }
 
+    public CompletableFuture<Boolean> cancelOrder(String symbol, String orderId) {
+        return poolFor(symbol).cancelOrder(symbol, orderId);
+    }
+
+    public CompletableFuture<PendingOrders> modifyOrder(String symbol, String orderId, BigDecimal newPrice, BigDecimal newQuantity) {
+        return poolFor(symbol).modifyOrder(symbol, orderId, newPrice, newQuantity);
+    }
+
+    public CompletableFuture<Integer> cancelAllOrders(String symbol, String userId) {
+        return poolFor(symbol).cancelAllOrders(symbol, userId);
+    }
+
+    public CompletableFuture<Integer> cancelAllOrders(String symbol, String userId, Side side) {
+        return poolFor(symbol).cancelAllOrders(symbol, userId, side);
+    }
+
+    /**
+     * Removes the pair's engine from its pool after its pending tasks finished, see {@link EnginePool#exportBook(String)}.
+     */
+    public OrderBookSnapshot exportBook(String symbol) {
+        return poolFor(symbol).exportBook(symbol);
+    }
+
+    /**
+     * Recreates a pair's engine in the pool it is currently routed to.
+     */
+    public void importBook(OrderBookSnapshot snapshot) {
+        poolFor(snapshot.getSymbol()).importBook(snapshot);
+    }
+
+    private EnginePool poolFor(String symbol) {
+        return configManager.isHighVolumePair(symbol) ? highVolumePool : standardPool;
+    }
+
     public void configureHighVolumePair(String symbol, boolean isHighVolume) {
         if (isHighVolume) {
             configManager.addHighVolumePair(symbol);
@@ -64,6 +108,20 @@ public class EngineManager {
         return engine != null ? engine.getOrderBook() : null;
     }
 
+    /**
+     * @return the pair's ticker, read without locking or rehydrating its book, or null if it has none
+     */
+    public Ticker getTicker(String symbol) {
+        return poolFor(symbol).getTicker(symbol);
+    }
+
+    /**
+     * @return up to {@code limit} of the pair's latest bars, oldest first, read without locking or rehydrating its book
+     */
+    public List<Candle> getCandles(String symbol, CandleInterval interval, int limit) {
+        return poolFor(symbol).getCandles(symbol, interval, limit);
+    }
+
     public void shutdown() {
         highVolumePool.shutdown();
         standardPool.shutdown();
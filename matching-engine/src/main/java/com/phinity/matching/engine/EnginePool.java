@@ -1,29 +1,263 @@
 package com.phinity.matching.engine;
 
+import com.phinity.common.dto.enums.Side;
 import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.OverloadPolicy;
+import com.phinity.matching.engine.config.PairConfigurationManager;
+import com.phinity.matching.engine.config.PoolExecutionMode;
+import com.phinity.matching.engine.core.Candle;
+import com.phinity.matching.engine.core.CandleInterval;
+import com.phinity.matching.engine.core.CandleStore;
 import com.phinity.matching.engine.core.MatchingEngine;
+import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.OrderRejectedException;
+import com.phinity.matching.engine.core.Ticker;
 import com.phinity.matching.engine.core.Trade;
+import com.phinity.matching.engine.core.TradeStatistics;
+import com.phinity.matching.engine.events.OrderRejectedEvent;
+import com.phinity.matching.engine.metrics.MetricsCollector;
 import com.phinity.matching.engine.service.EventPublisher;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import com.phinity.matching.engine.snapshot.SnapshotCodec;
 
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
 
+@Slf4j
 public class EnginePool {
     private final Map<String, MatchingEngine> engines = new ConcurrentHashMap<>();
-    private final ExecutorService executorService;
+    // Tasks of each pair queued or running, waited for before a pair's book is exported
+    private final Map<String, AtomicInteger> pendingTasks = new ConcurrentHashMap<>();
+    // Books of idle pairs, encoded off-heap until the pair's next command or book query
+    private final Map<String, ByteBuffer> hibernatedBooks = new ConcurrentHashMap<>();
+    // Last ticker, trade statistics and candles of the hibernated books, which the encoded form does not carry;
+    // a ticker is kept until the pair leaves the pool, for readers racing with its rehydration
+    private final Map<String, Ticker> hibernatedTickers = new ConcurrentHashMap<>();
+    private final Map<String, TradeStatistics> hibernatedStatistics = new ConcurrentHashMap<>();
+    private final Map<String, CandleStore> hibernatedCandles = new ConcurrentHashMap<>();
+    private final long idleTimeoutNanos;
+    private final String name;
+    // One shared executor, or one single-threaded executor per lane
+    private final ThreadPoolExecutor[] executors;
+    private final ScheduledExecutorService bookUpdateFlusher;
     private final Set<String> highVolumePairs;
+    private final PairConfigurationManager configManager;
     private EventPublisher eventPublisher;
     
     public EnginePool(int poolSize, Set<String> highVolumePairs) {
-        this.executorService = Executors.newFixedThreadPool(poolSize);
+        this(poolSize, highVolumePairs, new PairConfigurationManager());
+    }
+
+    public EnginePool(int poolSize, Set<String> highVolumePairs, PairConfigurationManager configManager) {
+        this("engine-pool", poolSize, highVolumePairs, configManager);
+    }
+
+    /**
+     * @param name identifies the pool's queue depth gauge
+     */
+    public EnginePool(String name, int poolSize, Set<String> highVolumePairs, PairConfigurationManager configManager) {
+        this.name = name;
+        int queueCapacity = configManager.getEnginePoolQueueCapacity();
+        if (configManager.getPoolExecutionMode() == PoolExecutionMode.AFFINE_LANES) {
+            int lanes = configManager.getEnginePoolLanes();
+            this.executors = new ThreadPoolExecutor[lanes];
+            for (int i = 0; i < lanes; i++) {
+                executors[i] = newExecutor(name + "-lane-" + i, 1, Math.max(1, queueCapacity / lanes));
+            }
+        } else {
+            this.executors = new ThreadPoolExecutor[] {newExecutor(name, poolSize, queueCapacity)};
+        }
         this.highVolumePairs = new HashSet<>(highVolumePairs);
+        this.configManager = configManager;
+        this.bookUpdateFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "BookUpdateFlusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = configManager.getBookUpdateIntervalMillis();
+        bookUpdateFlusher.scheduleAtFixedRate(this::flushBookUpdates, interval, interval, TimeUnit.MILLISECONDS);
+        long idleTimeout = configManager.getEngineIdleTimeoutMillis();
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        if (idleTimeout > 0) {
+            long sweepInterval = Math.max(1, Math.min(idleTimeout / 4, 60_000));
+            bookUpdateFlusher.scheduleWithFixedDelay(this::hibernateIdleEngines, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor(String queueName, int threads, int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        // Bounded, so a burst is turned away by the overload policy instead of growing the heap
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> new Thread(r, queueName + "-" + threadCount.getAndIncrement()));
+        executor.prestartAllCoreThreads();
+        MetricsCollector.getInstance().registerQueueDepthGauge(queueName, () -> executor.getQueue().size());
+        return executor;
+    }
+
+    private ThreadPoolExecutor executorFor(String symbol) {
+        if (executors.length == 1) {
+            return executors[0];
+        }
+        int hash = symbol.hashCode();
+        return executors[Math.floorMod(hash ^ (hash >>> 16), executors.length)];
+    }
+
+    /**
+     * Publishes the pending book updates, and the bars of the pairs that had no command since the bars ended.
+     */
+    private void flushBookUpdates() {
+        long now = System.currentTimeMillis();
+        for (MatchingEngine engine : engines.values()) {
+            try {
+                engine.flushBookUpdate();
+                engine.closeDueCandles(now);
+            } catch (Exception e) {
+                log.error("Failed to publish order book update for {}", engine.getSymbol(), e);
+            }
+        }
+        if (eventPublisher != null) {
+            for (String symbol : hibernatedCandles.keySet()) {
+                closeHibernatedCandles(symbol, now - OrderBook.CANDLE_CLOSE_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Closes the due bars of a hibernated book. Runs under the map's lock of the pair, so a rehydration taking
+     * the candles waits for it.
+     */
+    private void closeHibernatedCandles(String symbol, long timeMillis) {
+        List<Candle> closed = new ArrayList<>();
+        try {
+            hibernatedCandles.computeIfPresent(symbol, (s, candles) -> {
+                candles.closeDue(s, configManager.getPairScale(s), timeMillis, closed);
+                return candles;
+            });
+            if (!closed.isEmpty()) {
+                eventPublisher.publishCandles(symbol, closed);
+            }
+        } catch (Exception e) {
+            log.error("Failed to publish the candles of hibernated {}", symbol, e);
+        }
     }
 
     public CompletableFuture<List<Trade>> processOrder(PendingOrders order) {
-        return CompletableFuture.supplyAsync(() -> {
-            MatchingEngine engine = getOrCreateEngine(order.getSymbol());
-            return engine.match(order);
-        }, executorService);
+        return submit(order.getSymbol(), order.getOrderId(), true, engine -> {
+            try {
+                return engine.match(order);
+            } catch (OrderRejectedException e) {
+                // Duplicates and orders the pair's scale cannot represent
+                if (eventPublisher != null) {
+                    eventPublisher.publishOrderRejected(
+                            new OrderRejectedEvent(order.getOrderId(), order.getSymbol(), e.getMessage()));
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Cancels and modifications go through the pair's executor as well, so in
+     * {@link PoolExecutionMode#AFFINE_LANES} they apply in order with the pair's new orders.
+     */
+    public CompletableFuture<Boolean> cancelOrder(String symbol, String orderId) {
+        return submit(symbol, orderId, false, engine -> engine != null && engine.getOrderBook().cancelOrder(orderId));
+    }
+
+    public CompletableFuture<PendingOrders> modifyOrder(String symbol, String orderId, BigDecimal newPrice, BigDecimal newQuantity) {
+        return submit(symbol, orderId, false, engine -> engine != null ? engine.modifyOrder(orderId, newPrice, newQuantity) : null);
+    }
+
+    public CompletableFuture<Integer> cancelAllOrders(String symbol, String userId) {
+        return cancelAllOrders(symbol, userId, null);
+    }
+
+    /**
+     * @param side side to cancel, null for both
+     */
+    public CompletableFuture<Integer> cancelAllOrders(String symbol, String userId, Side side) {
+        return submit(symbol, null, false, engine -> engine != null ? engine.getOrderBook().cancelAllOrders(userId, side, null) : 0);
+    }
+
+    /**
+     * @param newOrder true for new orders, which create the pair's engine and are the flow shed first
+     */
+    private <T> CompletableFuture<T> submit(String symbol, String orderId, boolean newOrder, Function<MatchingEngine, T> command) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        AtomicInteger pending = pendingTasks.computeIfAbsent(symbol, s -> new AtomicInteger());
+        Runnable task = () -> {
+            try {
+                MatchingEngine engine = resolveEngine(symbol, newOrder);
+                if (engine != null) {
+                    engine.markActive();
+                }
+                future.complete(command.apply(engine));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        };
+        pending.incrementAndGet();
+        if (!admit(symbol, task, newOrder)) {
+            pending.decrementAndGet();
+            MetricsCollector.getInstance().recordRejectedOrder();
+            RejectedExecutionException cause = new RejectedExecutionException("Engine pool " + name + " is overloaded");
+            if (eventPublisher != null && orderId != null) {
+                eventPublisher.publishOrderRejected(new OrderRejectedEvent(orderId, symbol, cause.getMessage()));
+            }
+            future.completeExceptionally(cause);
+        }
+        return future;
+    }
+
+    /**
+     * Resolves the engine of a task already counted in the pair's pending tasks. An engine flagged as hibernated
+     * is being encoded or already dropped, so the task resolves again until the hibernation completes or backs off.
+     */
+    private MatchingEngine resolveEngine(String symbol, boolean create) {
+        MatchingEngine engine = create ? getOrCreateEngine(symbol) : getEngine(symbol);
+        while (engine != null && engine.isHibernated()) {
+            Thread.onSpinWait();
+            engine = create ? getOrCreateEngine(symbol) : getEngine(symbol);
+        }
+        return engine;
+    }
+
+    /**
+     * Queues the task according to the pair's overload policy.
+     */
+    private boolean admit(String symbol, Runnable task, boolean lowPriority) {
+        ThreadPoolExecutor executor = executorFor(symbol);
+        OverloadPolicy policy = configManager.getOverloadPolicy(symbol);
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        if (policy == OverloadPolicy.SHED_LOW_PRIORITY && lowPriority
+                && queue.remainingCapacity() <= (queue.size() + queue.remainingCapacity()) / 8) {
+            return false;
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (policy == OverloadPolicy.REJECT || (policy == OverloadPolicy.SHED_LOW_PRIORITY && lowPriority)
+                    || executor.isShutdown()) {
+                return false;
+            }
+        }
+        try {
+            // All core threads are prestarted, so queueing directly is equivalent to execute()
+            return queue.offer(task, configManager.getAdmissionTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     public void setEventPublisher(EventPublisher eventPublisher) {
@@ -32,19 +266,193 @@ public class EnginePool {
     }
     
     private MatchingEngine getOrCreateEngine(String symbol) {
-        MatchingEngine engine = engines.computeIfAbsent(symbol, MatchingEngine::new);
+        MatchingEngine engine = engines.computeIfAbsent(symbol, s -> {
+            MatchingEngine rehydrated = rehydrate(s);
+            return rehydrated != null ? rehydrated : newEngine(s);
+        });
+        if (eventPublisher != null) {
+            engine.setEventPublisher(eventPublisher);
+        }
+        return engine;
+    }
+
+    private MatchingEngine newEngine(String symbol) {
+        MatchingEngine engine = new MatchingEngine(symbol, configManager.getPairScale(symbol));
+        engine.configurePublication(configManager.getBookUpdateMode(), configManager.getBookFeed(),
+                configManager.getBookSnapshotIntervalMillis());
+        engine.getOrderBook().configureOrderIdWindow(configManager.getOrderIdWindowMillis(),
+                configManager.getMaxOrderIds());
+        return engine;
+    }
+
+    /**
+     * Removes a pair's engine once its queued and running tasks have finished. The caller has to stop
+     * submitting commands for the pair first, otherwise this may wait indefinitely.
+     *
+     * @return the state of the pair's book, or null if the pair has no engine in this pool
+     */
+    public OrderBookSnapshot exportBook(String symbol) {
+        AtomicInteger pending = pendingTasks.get(symbol);
+        while (pending != null && pending.get() > 0) {
+            LockSupport.parkNanos(1_000);
+        }
+        MatchingEngine engine = engines.remove(symbol);
+        hibernatedTickers.remove(symbol);
+        if (engine == null) {
+            ByteBuffer hibernated = hibernatedBooks.remove(symbol);
+            if (hibernated == null) {
+                return null;
+            }
+            long start = System.nanoTime();
+            OrderBookSnapshot snapshot = SnapshotCodec.decode(hibernated.duplicate());
+            snapshot.setTradeStatistics(hibernatedStatistics.remove(symbol));
+            snapshot.setCandles(hibernatedCandles.remove(symbol));
+            MetricsCollector.getInstance().recordBookRehydrated(System.nanoTime() - start);
+            return snapshot;
+        }
+        engine.flushBookUpdate();
+        return engine.getOrderBook().snapshot();
+    }
+
+    /**
+     * Creates the engine of a pair from the state exported by another engine.
+     *
+     * @throws IllegalStateException if the pair already has an engine in this pool
+     */
+    public void importBook(OrderBookSnapshot snapshot) {
+        MatchingEngine engine = newEngine(snapshot.getSymbol());
+        if (eventPublisher != null) {
+            engine.setEventPublisher(eventPublisher);
+        }
+        engine.getOrderBook().restore(snapshot);
+        if (hibernatedBooks.containsKey(snapshot.getSymbol()) || engines.putIfAbsent(snapshot.getSymbol(), engine) != null) {
+            throw new IllegalStateException(snapshot.getSymbol() + " already has an engine in " + name);
+        }
+    }
+
+    /**
+     * Hibernates the book of every pair that had no command for the idle timeout and has none pending.
+     */
+    private void hibernateIdleEngines() {
+        long now = System.nanoTime();
+        for (String symbol : engines.keySet()) {
+            try {
+                // Runs under the map's lock of the pair, so no rehydration can start meanwhile
+                engines.computeIfPresent(symbol, (s, engine) -> {
+                    if (now - engine.getLastActiveNanos() < idleTimeoutNanos) {
+                        return engine;
+                    }
+                    // Flag first, then look for tasks: a task counts itself before it resolves the engine and
+                    // reads the flag, so either it sees the flag and resolves again or this sees it pending
+                    engine.setHibernated(true);
+                    AtomicInteger pending = pendingTasks.get(s);
+                    if (pending != null && pending.get() > 0) {
+                        engine.setHibernated(false);
+                        return engine;
+                    }
+                    try {
+                        hibernate(s, engine);
+                    } catch (RuntimeException e) {
+                        engine.setHibernated(false);
+                        throw e;
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                log.error("Failed to hibernate the book of {}", symbol, e);
+            }
+        }
+    }
+
+    private void hibernate(String symbol, MatchingEngine engine) {
+        engine.flushBookUpdate();
+        OrderBook book = engine.getOrderBook();
+        OrderBookSnapshot snapshot = book.snapshot();
+        byte[] encoded = SnapshotCodec.encode(snapshot, book.getScale());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length);
+        buffer.put(encoded).flip();
+        hibernatedTickers.put(symbol, book.getTicker());
+        hibernatedStatistics.put(symbol, snapshot.getTradeStatistics());
+        hibernatedCandles.put(symbol, snapshot.getCandles());
+        hibernatedBooks.put(symbol, buffer);
+        MetricsCollector.getInstance().recordBookHibernated();
+        log.debug("Hibernated the book of {} into {} bytes", symbol, encoded.length);
+    }
+
+    /**
+     * Rebuilds a hibernated book into a new engine; called inside the map's computation for the pair.
+     *
+     * @return the engine, or null if the pair is not hibernated
+     */
+    private MatchingEngine rehydrate(String symbol) {
+        ByteBuffer hibernated = hibernatedBooks.remove(symbol);
+        if (hibernated == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        MatchingEngine engine = newEngine(symbol);
+        OrderBookSnapshot snapshot = SnapshotCodec.decode(hibernated.duplicate());
+        snapshot.setTradeStatistics(hibernatedStatistics.remove(symbol));
+        snapshot.setCandles(hibernatedCandles.remove(symbol));
+        engine.getOrderBook().restore(snapshot);
         if (eventPublisher != null) {
             engine.setEventPublisher(eventPublisher);
         }
+        MetricsCollector.getInstance().recordBookRehydrated(System.nanoTime() - start);
         return engine;
     }
 
+    /**
+     * @return every pair with a book in this pool, hibernated or not
+     */
     public Set<String> getActivePairs() {
-        return new HashSet<>(engines.keySet());
+        Set<String> pairs = new HashSet<>(engines.keySet());
+        pairs.addAll(hibernatedBooks.keySet());
+        return pairs;
+    }
+
+    public int getHibernatedPairCount() {
+        return hibernatedBooks.size();
     }
 
+    /**
+     * @return the pair's engine, rehydrating its book if it was hibernated, or null if the pair has none
+     */
     public MatchingEngine getEngine(String symbol) {
-        return engines.get(symbol);
+        MatchingEngine engine = engines.get(symbol);
+        if (engine == null && hibernatedBooks.containsKey(symbol)) {
+            engine = engines.computeIfAbsent(symbol, this::rehydrate);
+        }
+        return engine;
+    }
+
+    /**
+     * Reads the pair's ticker without taking its book lock; hibernated books are not rehydrated for it.
+     *
+     * @return the ticker, or null if the pair has no book in this pool
+     */
+    public Ticker getTicker(String symbol) {
+        MatchingEngine engine = engines.get(symbol);
+        return engine != null ? engine.getOrderBook().getTicker() : hibernatedTickers.get(symbol);
+    }
+
+    /**
+     * Reads the pair's bars without taking its book lock; hibernated books are not rehydrated for it.
+     *
+     * @return up to {@code limit} of the latest bars, oldest first, empty if the pair has no book in this pool
+     */
+    public List<Candle> getCandles(String symbol, CandleInterval interval, int limit) {
+        MatchingEngine engine = engines.get(symbol);
+        if (engine != null) {
+            return engine.getOrderBook().getCandles(interval, limit);
+        }
+        CandleStore candles = hibernatedCandles.get(symbol);
+        if (candles == null) {
+            // Rehydrated in between
+            engine = engines.get(symbol);
+            return engine != null ? engine.getOrderBook().getCandles(interval, limit) : Collections.emptyList();
+        }
+        return candles.getCandles(symbol, configManager.getPairScale(symbol), interval, limit);
     }
 
     public boolean isHighVolumePair(String symbol) {
@@ -52,6 +460,11 @@ public class EnginePool {
     }
 
     public void shutdown() {
-        executorService.shutdown();
+        for (int i = 0; i < executors.length; i++) {
+            MetricsCollector.getInstance().unregisterQueueDepthGauge(executors.length == 1 ? name : name + "-lane-" + i);
+            executors[i].shutdown();
+        }
+        bookUpdateFlusher.shutdown();
+        flushBookUpdates();
     }
 }
\ No newline at end of file
@@ -1,90 +1,1125 @@
 package com.phinity.matching.engine;
 
 import com.lmax.disruptor.EventHandler;
-import com.lmax.disruptor.PhasedBackoffWaitStrategy;
+import com.lmax.disruptor.InsufficientCapacityException;
 import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.dsl.EventHandlerGroup;
 import com.phinity.common.dto.enums.OrderType;
 import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
 import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.BookFeed;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.EngineProfile;
+import com.phinity.matching.engine.config.MatchingSpinWaitStrategy;
+import com.phinity.matching.engine.config.OverloadPolicy;
+import com.phinity.matching.engine.config.PairConfigurationManager;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.config.ReplicationMode;
+import com.phinity.matching.engine.core.LadderOrderBook;
 import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.OrderRejectedException;
+import com.phinity.matching.engine.core.SnapshotCapture;
 import com.phinity.matching.engine.core.Trade;
+import com.phinity.matching.engine.core.TradeBuffer;
+import com.phinity.matching.engine.events.OrderRejectedEvent;
+import com.phinity.matching.engine.events.OrdersCancelledEvent;
+import com.phinity.matching.engine.journal.CommandJournal;
+import com.phinity.matching.engine.journal.EngineCheckpoint;
+import com.phinity.matching.engine.metrics.MetricsCollector;
+import com.phinity.matching.engine.replication.ReplicationLink;
 import com.phinity.matching.engine.service.EventPublisher;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import com.phinity.matching.engine.snapshot.SnapshotCodec;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
+/**
+ * Runs one or more pairs on a Disruptor pipeline. The matching stage is the only writer of the hosted books,
+ * dispatches each command on its symbol and only records its results in the event slot; publishing, metrics and
+ * future completion run as later stages on their own threads, so a slow Kafka producer or a heavy future callback
+ * never delays matching. Hosting many quiet pairs on one engine keeps the thread count bounded by the number of
+ * engines rather than the number of pairs.
+ * <p>
+ * With a {@link CommandJournal} every command is also written to the journal by a stage running alongside
+ * matching, and the later stages wait for both, so no result is published or acknowledged before its command
+ * is in the journal.
+ * <p>
+ * With a {@link ReplicationMode} other than {@link ReplicationMode#NONE} a replication stage streams the matched
+ * commands to an attached hot-standby follower, which applies them to its own books; see
+ * {@link #attachFollower(ReplicationLink, long)}.
+ */
+@Slf4j
 @Getter
 public class OptimizedDisruptorEngine implements EventHandler<OrderEvent> {
-    private final String symbol;
+    // Book updates that can wait to be published before the matching stage allocates more
+    private static final int BOOK_UPDATE_BUFFERS = 64;
+
+    private final String name;
     private final Disruptor<OrderEvent> disruptor;
     private final RingBuffer<OrderEvent> ringBuffer;
-    private final OrderBook book;
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentHashMap<String, HostedBook> books = new ConcurrentHashMap<>();
+    // Held by addBook and removeBook, so a book is checked and hosted or removed by one caller at a time
+    @Getter(AccessLevel.NONE)
+    private final Object bookChanges = new Object();
+    private final String queueName;
+    private final int shedReserve;
+    private final ThreadAffinity affinity;
+    private final int cpu;
+    @Getter(AccessLevel.NONE)
+    private final WaitStrategy waitStrategy;
+    @Getter(AccessLevel.NONE)
+    private final CommandJournal journal;
+    private final ReplicationMode replicationMode;
+    private volatile EventPublisher eventPublisher;
+    @Getter(AccessLevel.NONE)
+    private volatile LongSupplier clock = System::currentTimeMillis;
+    private volatile OverloadPolicy overloadPolicy = OverloadPolicy.REJECT;
+    private volatile long admissionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(PairConfigurationManager.DEFAULT_ADMISSION_TIMEOUT_MS);
     private long processedOrders = 0;
 
+    // Books changed in the current batch, only touched by the matching thread
+    @Getter(AccessLevel.NONE)
+    private final ArrayList<HostedBook> changedBooks = new ArrayList<>();
+    // Buffers the changed books are drained into at the end of a batch
+    @Getter(AccessLevel.NONE)
+    private final BookUpdatePool bookUpdatePool = new BookUpdatePool(BOOK_UPDATE_BUFFERS);
+    // Snapshots and checkpoints being copied between commands, only touched by the matching thread
+    @Getter(AccessLevel.NONE)
+    private final ArrayList<PendingCapture> pendingCaptures = new ArrayList<>();
+    // Whether a CAPTURE_STEP is in the ring, only touched by the matching thread
+    @Getter(AccessLevel.NONE)
+    private boolean captureStepQueued;
+    // Only a ring taking several producers lets the matching thread publish its own capture steps
+    @Getter(AccessLevel.NONE)
+    private final boolean multiProducer;
+    // Journal sequence of the last command applied, only touched by the matching thread
+    @Getter(AccessLevel.NONE)
+    private long appliedSequence;
+
+    // Replication state, only written by the replication stage
+    @Getter(AccessLevel.NONE)
+    private volatile ReplicationLink follower;
+    @Getter(AccessLevel.NONE)
+    private long replicatedSequence;
+    @Getter(AccessLevel.NONE)
+    private final OrderEvent replicationScratch = new OrderEvent();
+    @Getter(AccessLevel.NONE)
+    private volatile long followerAckTimeoutNanos;
+
+    private static final class HostedBook {
+        final OrderBook book;
+        boolean changed;
+        // Written by the matching thread only, read by others as a load estimate
+        volatile long commands;
+
+        HostedBook(OrderBook book) {
+            this.book = book;
+        }
+    }
+
+    /**
+     * Snapshot of one book, or checkpoint of every book, whose captures began with the same command.
+     */
+    private final class PendingCapture {
+        final CompletableFuture<Object> future;
+        final SnapshotCapture[] captures;
+        final PairScale[] scales;
+        // Journal sequence of a checkpoint, -1 for a snapshot
+        final long checkpointSequence;
+
+        PendingCapture(CompletableFuture<Object> future, SnapshotCapture[] captures, PairScale[] scales,
+                       long checkpointSequence) {
+            this.future = future;
+            this.captures = captures;
+            this.scales = scales;
+            this.checkpointSequence = checkpointSequence;
+        }
+
+        /**
+         * Steps the first capture that is not complete yet, so a checkpoint of many books costs a command no
+         * more than a snapshot of one.
+         *
+         * @return true once every capture is complete
+         */
+        boolean step() {
+            for (SnapshotCapture capture : captures) {
+                if (!capture.isComplete()) {
+                    return capture.step() && captures[captures.length - 1].isComplete();
+                }
+            }
+            return true;
+        }
+
+        Object result() {
+            if (checkpointSequence < 0) {
+                return captures[0].getSnapshot();
+            }
+            List<OrderBookSnapshot> snapshots = new ArrayList<>(captures.length);
+            for (SnapshotCapture capture : captures) {
+                snapshots.add(capture.getSnapshot());
+            }
+            return new EngineCheckpoint(name, checkpointSequence, snapshots, Arrays.asList(scales));
+        }
+    }
+
     public OptimizedDisruptorEngine(String symbol) {
-        this.symbol = symbol;
-        this.book = new OrderBook();
+        this(symbol, PairScale.DEFAULT);
+    }
+
+    public OptimizedDisruptorEngine(String symbol, PairScale scale) {
+        this(symbol, new LadderOrderBook(symbol, scale));
+        getOrderBook(symbol).configurePublication(BookUpdateMode.CONFLATED, BookFeed.FULL_DEPTH, PairConfigurationManager.DEFAULT_BOOK_SNAPSHOT_INTERVAL_MS);
+    }
+
+    /**
+     * Engine dedicated to a single book, see {@link #addBook(OrderBook)}.
+     */
+    public OptimizedDisruptorEngine(String symbol, OrderBook book) {
+        this(symbol, book, EngineProfile.DEFAULT);
+    }
+
+    /**
+     * @param profile producer type, ring size and wait strategy of the pair's Disruptor
+     */
+    public OptimizedDisruptorEngine(String symbol, OrderBook book, EngineProfile profile) {
+        this(symbol, profile, ThreadAffinity.NONE, -1);
+        addBook(book);
+    }
+
+    /**
+     * Shard without books; pairs are hosted with {@link #addBook(OrderBook)}.
+     *
+     * @param affinity binds the matching thread to {@code cpu} before it handles its first command
+     * @param cpu      core of the matching thread, negative to leave it unpinned
+     */
+    public OptimizedDisruptorEngine(String name, EngineProfile profile, ThreadAffinity affinity, int cpu) {
+        this(name, profile, affinity, cpu, null);
+    }
+
+    /**
+     * Shard whose commands are written to the journal; call {@link #replayJournal(Function)} before submitting
+     * anything to recover the books it held. The engine closes the journal on shutdown.
+     *
+     * @param journal journal of this engine, null to run without one
+     */
+    public OptimizedDisruptorEngine(String name, EngineProfile profile, ThreadAffinity affinity, int cpu, CommandJournal journal) {
+        this(name, profile, affinity, cpu, journal, ReplicationMode.NONE);
+    }
 
-        // Corrected: Provide a ThreadFactory, not an ExecutorService
-        ThreadFactory threadFactory = r -> new Thread(r, "Disruptor-" + symbol);
+    /**
+     * @param replicationMode whether the engine can stream its commands to a follower, and whether results wait
+     *                        for the follower's acknowledgement
+     */
+    public OptimizedDisruptorEngine(String name, EngineProfile profile, ThreadAffinity affinity, int cpu, CommandJournal journal,
+                                    ReplicationMode replicationMode) {
+        this.name = name;
+        this.affinity = affinity;
+        this.cpu = cpu;
+        this.journal = journal;
+        this.replicationMode = replicationMode;
+        this.multiProducer = profile.getProducerType() == ProducerType.MULTI;
 
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = r -> new Thread(r, "Disruptor-" + name + "-" + threadCount.getAndIncrement());
+
+        this.waitStrategy = profile.getWaitStrategy().newWaitStrategy();
         this.disruptor = new Disruptor<>(
                 OrderEvent::new,
-                1024 * 64, // 64k buffer size
-                threadFactory, // Corrected argument
-                ProducerType.SINGLE,
-                new PhasedBackoffWaitStrategy(1, 1, TimeUnit.MILLISECONDS, new YieldingWaitStrategy())
+                profile.getRingSize(),
+                threadFactory,
+                profile.getProducerType(),
+                waitStrategy
         );
 
-        disruptor.handleEventsWith(this);
+        // A failed journal write stops the journal stage, and with it every later stage: fail-stop rather
+        // than acknowledging commands that would be lost on restart
+        EventHandlerGroup<OrderEvent> applied = journal != null
+                ? disruptor.handleEventsWith(this, this::journalCommand)
+                : disruptor.handleEventsWith(this);
+        if (replicationMode == ReplicationMode.ACK_BEFORE_PUBLISH) {
+            applied.then(this::replicateCommand).then(this::publishResults, this::recordMetrics, this::completeFutures);
+        } else if (replicationMode == ReplicationMode.ASYNC) {
+            applied.then(this::publishResults, this::recordMetrics, this::completeFutures, this::replicateCommand);
+        } else {
+            applied.then(this::publishResults, this::recordMetrics, this::completeFutures);
+        }
         this.ringBuffer = disruptor.start();
+        // Under SHED_LOW_PRIORITY new orders leave the last eighth of the ring to cancels and modifications
+        this.shedReserve = profile.getRingSize() / 8;
+        this.queueName = "disruptor-" + name;
+        MetricsCollector.getInstance().registerQueueDepthGauge(queueName,
+                () -> ringBuffer.getBufferSize() - ringBuffer.remainingCapacity());
+        if (replicationMode != ReplicationMode.NONE) {
+            MetricsCollector.getInstance().registerReplicationLagGauge(name, () -> {
+                ReplicationLink link = follower;
+                return link != null ? link.getSentSequence() - link.getAckedSequence() : 0;
+            });
+        }
+    }
+
+    /**
+     * Hosts a book on this engine; every mutation of it has to go through the engine from now on. Book updates are
+     * drained at the end of each Disruptor batch and published by the publisher stage, so the book must be
+     * configured {@link BookUpdateMode#CONFLATED} and must not have its own publisher.
+     *
+     * With a journal or replication the book joins through a command in the ring, admitted like any other: on a
+     * {@link ProducerType#SINGLE} ring only the thread submitting the commands may call this.
+     *
+     * @throws RejectedExecutionException if the ring has no room within the admission policy
+     */
+    public void addBook(OrderBook book) {
+        if (!sequencesBooks()) {
+            if (books.putIfAbsent(book.getSymbol(), new HostedBook(book)) != null) {
+                throw new IllegalStateException(book.getSymbol() + " is already hosted by " + name);
+            }
+            return;
+        }
+        synchronized (bookChanges) {
+            if (books.containsKey(book.getSymbol())) {
+                throw new IllegalStateException(book.getSymbol() + " is already hosted by " + name);
+            }
+            // The journal and the follower only get commands, so record the state the book arrives with. The slot is
+            // claimed before the book is hosted, so every command sequenced after the record sees the book
+            byte[] snapshot = SnapshotCodec.encode(book.snapshot(), book.getScale());
+            long sequence = claimBookChange(CommandType.RESTORE_BOOK);
+            try {
+                books.put(book.getSymbol(), new HostedBook(book));
+                ringBuffer.get(sequence).setRestoreBook(book.getSymbol(), snapshot);
+            } finally {
+                ringBuffer.publish(sequence);
+            }
+        }
+    }
+
+    /**
+     * Stops hosting a book. Without a journal or replication commands for the symbol still in the ring fail with
+     * {@link IllegalStateException}; otherwise the book is removed by the handler thread in sequence, after the
+     * commands already submitted, so replaying the journal or the follower removes it at the same point. Returns
+     * once it is. Like {@link #addBook(OrderBook)}, the removal is admitted like any other command and on a
+     * {@link ProducerType#SINGLE} ring has to come from the thread submitting the commands.
+     *
+     * @return the book, or null if it was not hosted here
+     * @throws RejectedExecutionException if the ring has no room within the admission policy
+     */
+    public OrderBook removeBook(String symbol) {
+        if (!sequencesBooks()) {
+            HostedBook hosted = books.remove(symbol);
+            return hosted != null ? hosted.book : null;
+        }
+        synchronized (bookChanges) {
+            HostedBook hosted = books.get(symbol);
+            if (hosted == null) {
+                return null;
+            }
+            CompletableFuture<Object> removed = new CompletableFuture<>();
+            long sequence = claimBookChange(CommandType.REMOVE_BOOK);
+            try {
+                ringBuffer.get(sequence).setRemoveBook(symbol, removed);
+            } finally {
+                ringBuffer.publish(sequence);
+            }
+            removed.join();
+            return hosted.book;
+        }
+    }
+
+    /**
+     * Whether books join and leave the engine as commands in the ring, for the journal and the follower.
+     */
+    private boolean sequencesBooks() {
+        return journal != null || replicationMode != ReplicationMode.NONE;
     }
 
-    public CompletableFuture<List<Trade>> processOrder(String orderId, String symbol, Side side, BigDecimal price, BigDecimal quantity, OrderType orderType) {
+    /**
+     * The returned book belongs to the handler thread; other threads have to read it through
+     * {@link #getBookView(String)} or {@link #snapshot(String)}.
+     */
+    public OrderBook getOrderBook(String symbol) {
+        HostedBook hosted = books.get(symbol);
+        return hosted != null ? hosted.book : null;
+    }
+
+    /**
+     * @return a read-only view of the pair's book that is safe to use from any thread, or null if the pair is
+     *         not hosted here
+     */
+    public OrderBook getBookView(String symbol) {
+        HostedBook hosted = books.get(symbol);
+        return hosted != null ? new DisruptorBookView(this, hosted.book) : null;
+    }
+
+    public Set<String> getSymbols() {
+        return Set.copyOf(books.keySet());
+    }
+
+    /**
+     * @return commands applied to the symbol's book so far, 0 if it is not hosted here
+     */
+    public long getCommandCount(String symbol) {
+        HostedBook hosted = books.get(symbol);
+        return hosted != null ? hosted.commands : 0;
+    }
+
+    public long replayJournal(Function<String, OrderBook> bookFactory) {
+        return replayJournal(bookFactory, null);
+    }
+
+    /**
+     * Rebuilds the books from a checkpoint and the journal records after it, applying them on the calling
+     * thread. Has to be called before any command is submitted; the books are created with the factory.
+     *
+     * @param checkpoint latest checkpoint of this engine, null to replay the whole journal
+     * @return the number of commands replayed
+     */
+    public long replayJournal(Function<String, OrderBook> bookFactory, EngineCheckpoint checkpoint) {
+        if (journal == null) {
+            return 0;
+        }
+        long fromSequence = 0;
+        if (checkpoint != null) {
+            for (OrderBookSnapshot snapshot : checkpoint.getBooks()) {
+                OrderBook book = bookFactory.apply(snapshot.getSymbol());
+                book.restore(snapshot);
+                books.put(snapshot.getSymbol(), new HostedBook(book));
+            }
+            fromSequence = checkpoint.getSequence();
+        }
+        TradeBuffer fills = new TradeBuffer();
+        long replayed = journal.replay(fromSequence, event -> {
+            String symbol = event.getSymbol();
+            switch (event.getType()) {
+                case REMOVE_BOOK:
+                    books.remove(symbol);
+                    return;
+                case RESTORE_BOOK:
+                    OrderBook restored = bookFactory.apply(symbol);
+                    restored.restore(SnapshotCodec.decode(ByteBuffer.wrap(event.getPayload())));
+                    books.put(symbol, new HostedBook(restored));
+                    return;
+                default:
+                    break;
+            }
+            HostedBook hosted = books.get(symbol);
+            if (hosted == null) {
+                // Was not hosted when the command was first applied either
+                return;
+            }
+            OrderBook book = hosted.book;
+            try {
+                switch (event.getType()) {
+                    case NEW:
+                        fills.clear();
+                        fills.setTimestamp(event.getTimestamp());
+                        book.matchOrder(event.getOrderId(), event.getUserId(), event.getSide(), event.getOrderType(),
+                                event.getTimeInForce(), event.getPrice(), event.getQuantity(), fills);
+                        break;
+                    case CANCEL:
+                        book.cancelOrder(event.getOrderId());
+                        break;
+                    case MODIFY:
+                        book.modifyOrder(event.getOrderId(), event.getNewPrice(), event.getNewQuantity());
+                        break;
+                    case MASS_CANCEL:
+                        book.cancelAllOrders(event.getUserId(), event.getSide(), null);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (Exception e) {
+                // The command failed the same way when it was first applied
+                log.debug("Replayed command {} for {} failed: {}", event.getType(), symbol, e.getMessage());
+            }
+        });
+        if (journal.getLastSequence() < fromSequence) {
+            throw new IllegalStateException("Journal of " + name + " ends at sequence " + journal.getLastSequence()
+                    + " before its checkpoint at " + fromSequence);
+        }
+        appliedSequence = journal.getLastSequence();
+        log.info("Engine {} restored {} books at sequence {} and replayed {} journaled commands", name, books.size(),
+                fromSequence, replayed);
+        return replayed;
+    }
+
+    /**
+     * Copies every hosted book as it was between two commands, together with the journal sequence of the last
+     * command applied to them. The copies are taken on the handler thread in steps between later commands; see
+     * {@link #snapshot(String)}.
+     */
+    public CompletableFuture<EngineCheckpoint> checkpoint() {
+        if (journal == null) {
+            throw new IllegalStateException("Engine " + name + " has no journal to checkpoint");
+        }
+        CompletableFuture<EngineCheckpoint> future = new CompletableFuture<>();
+        long sequence = claim(CommandType.CHECKPOINT);
+        if (sequence < 0) {
+            reject(null, null, future);
+            return future;
+        }
+        try {
+            ringBuffer.get(sequence).setCheckpoint(future);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+        return future;
+    }
+
+    /**
+     * Forces the journaled commands if the journal's fsync interval has passed since it was last forced, see
+     * {@link CommandJournal#forceIfDue()}.
+     */
+    public void forceJournalIfDue() {
+        if (journal != null) {
+            journal.forceIfDue();
+        }
+    }
+
+    /**
+     * Deletes the journal segments a checkpoint at the given sequence has made redundant.
+     */
+    public int truncateJournal(long sequence) {
+        return journal != null ? journal.truncate(sequence) : 0;
+    }
+
+    /**
+     * Starts streaming this engine's commands to a hot-standby follower, replacing the one attached before. The
+     * follower first gets a copy of every hosted book taken between two commands, and the future completes once
+     * it has applied them. A follower that fails or stops acknowledging within the timeout is dropped and the
+     * engine carries on alone.
+     *
+     * @return the replication sequence the follower is in sync at
+     * @throws IllegalStateException if the engine was created with {@link ReplicationMode#NONE}
+     */
+    public CompletableFuture<Long> attachFollower(ReplicationLink link, long ackTimeoutMillis) {
+        if (replicationMode == ReplicationMode.NONE) {
+            throw new IllegalStateException("Engine " + name + " was created without replication");
+        }
+        followerAckTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ackTimeoutMillis);
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        long sequence = claim(CommandType.ATTACH_FOLLOWER);
+        if (sequence < 0) {
+            reject(null, null, future);
+            return future;
+        }
+        try {
+            ringBuffer.get(sequence).setAttachFollower(link, future);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+        return future;
+    }
+
+    /**
+     * Queues a {@link CommandType#CLOSE_CANDLES} for every hosted book with a bar that ended, so a pair that went
+     * quiet still publishes its closed bars; called periodically, e.g. by the manager. Books whose commands keep
+     * coming close their bars themselves. Skipped while the ring is full, and on a single-producer ring, whose
+     * one producer the caller cannot be; such a ring is only for engines driven by one thread, such as a replay,
+     * which close their bars with their next command.
+     *
+     * @return the number of books told to close bars
+     */
+    public int closeDueCandles() {
+        if (!multiProducer) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        int queued = 0;
+        for (HostedBook hosted : books.values()) {
+            if (!hosted.book.hasDueCandles(now)) {
+                continue;
+            }
+            long sequence;
+            try {
+                sequence = ringBuffer.tryNext();
+            } catch (InsufficientCapacityException e) {
+                break;
+            }
+            try {
+                ringBuffer.get(sequence).setCloseCandles(hosted.book.getSymbol(), now);
+            } finally {
+                ringBuffer.publish(sequence);
+            }
+            queued++;
+        }
+        return queued;
+    }
+
+    /**
+     * Sets the source of the epoch millisecond timestamps given to new orders, and through them to their
+     * trades. Called on the submitting thread; replays use the recorded timestamps.
+     */
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Sets what happens to commands submitted while the ring is full.
+     */
+    public void configureAdmission(OverloadPolicy overloadPolicy, long admissionTimeoutMillis) {
+        this.overloadPolicy = overloadPolicy;
+        this.admissionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(admissionTimeoutMillis);
+    }
+
+    /**
+     * Submits an order with its price in ticks and quantity in lots of the pair's scale.
+     *
+     * @param userId      owner of the order for {@link #cancelAllOrders(String, String)}, may be null
+     * @param timeInForce null for good till cancelled
+     */
+    public CompletableFuture<List<Trade>> processOrder(String symbol, String orderId, String userId, Side side,
+                                                       long price, long quantity, OrderType orderType,
+                                                       TimeInForce timeInForce) {
         CompletableFuture<List<Trade>> future = new CompletableFuture<>();
-        long sequence = ringBuffer.next();
+        long sequence = claim(CommandType.NEW);
+        if (sequence < 0) {
+            reject(symbol, orderId, future);
+            return future;
+        }
         try {
             OrderEvent event = ringBuffer.get(sequence);
-            event.set(orderId, symbol, side, price, quantity, orderType, future);
+            event.setNew(orderId, userId, symbol, side, price, quantity, orderType, timeInForce, future, null);
+            event.setTimestamp(clock.getAsLong());
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+        return future;
+    }
+
+    /**
+     * Allocation-free variant of {@link #processOrder(String, String, String, Side, long, long, OrderType, TimeInForce)}:
+     * the result is handed to the listener on the completion thread instead of completing a future.
+     */
+    public void processOrder(String symbol, String orderId, String userId, Side side, long price, long quantity,
+                             OrderType orderType, TimeInForce timeInForce, OrderResultListener listener) {
+        long sequence = claim(CommandType.NEW);
+        if (sequence < 0) {
+            listener.onOrderRejected(orderId, reject(symbol, orderId, null));
+            return;
+        }
+        try {
+            OrderEvent event = ringBuffer.get(sequence);
+            event.setNew(orderId, userId, symbol, side, price, quantity, orderType, timeInForce, null, listener);
+            event.setTimestamp(clock.getAsLong());
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    /**
+     * Cancels a resting order on the handler thread, in sequence with the commands already submitted.
+     */
+    public CompletableFuture<Boolean> cancelOrder(String symbol, String orderId) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        long sequence = claim(CommandType.CANCEL);
+        if (sequence < 0) {
+            reject(symbol, orderId, future);
+            return future;
+        }
+        try {
+            ringBuffer.get(sequence).setCancel(orderId, symbol, future);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+        return future;
+    }
+
+    /**
+     * Modifies a resting order on the handler thread, in sequence with the commands already submitted.
+     *
+     * @param newPrice    in ticks of the pair's scale, {@link OrderBook#UNCHANGED} to keep the order's
+     * @param newQuantity in lots of the pair's scale, {@link OrderBook#UNCHANGED} to keep the order's
+     */
+    public CompletableFuture<PendingOrders> modifyOrder(String symbol, String orderId, long newPrice, long newQuantity) {
+        CompletableFuture<PendingOrders> future = new CompletableFuture<>();
+        long sequence = claim(CommandType.MODIFY);
+        if (sequence < 0) {
+            reject(symbol, orderId, future);
+            return future;
+        }
+        try {
+            ringBuffer.get(sequence).setModify(orderId, symbol, newPrice, newQuantity, future);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+        return future;
+    }
+
+    /**
+     * Cancels every resting order of the user, or all resting orders if {@code userId} is null.
+     */
+    public CompletableFuture<Integer> cancelAllOrders(String symbol, String userId) {
+        return cancelAllOrders(symbol, userId, null);
+    }
+
+    /**
+     * Cancels the user's resting orders on one side, or on both if {@code side} is null, in one command that
+     * takes time proportional to the user's orders; the ids of the cancelled orders are published in one report.
+     */
+    public CompletableFuture<Integer> cancelAllOrders(String symbol, String userId, Side side) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        long sequence = claim(CommandType.MASS_CANCEL);
+        if (sequence < 0) {
+            reject(symbol, null, future);
+            return future;
+        }
+        try {
+            ringBuffer.get(sequence).setMassCancel(userId, side, symbol, future);
         } finally {
             ringBuffer.publish(sequence);
         }
         return future;
     }
 
+    /**
+     * Copies the book as it was between two commands. The handler thread copies it in steps of
+     * {@link SnapshotCapture#STEP_ORDERS} orders queued between the later commands, so a deep book holds up each
+     * command behind the snapshot by at most one step.
+     */
+    public CompletableFuture<OrderBookSnapshot> snapshot(String symbol) {
+        CompletableFuture<OrderBookSnapshot> future = new CompletableFuture<>();
+        long sequence = claim(CommandType.SNAPSHOT);
+        if (sequence < 0) {
+            reject(symbol, null, future);
+            return future;
+        }
+        try {
+            ringBuffer.get(sequence).setSnapshot(symbol, future);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+        return future;
+    }
+
+    /**
+     * Claims a ring slot according to the overload policy.
+     *
+     * @return the claimed sequence, or -1 if the command is rejected
+     */
+    private long claim(CommandType type) {
+        OverloadPolicy policy = overloadPolicy;
+        boolean lowPriority = type == CommandType.NEW;
+        if (policy == OverloadPolicy.SHED_LOW_PRIORITY && lowPriority && ringBuffer.remainingCapacity() <= shedReserve) {
+            return -1;
+        }
+        try {
+            return ringBuffer.tryNext();
+        } catch (InsufficientCapacityException e) {
+            if (policy == OverloadPolicy.REJECT || (policy == OverloadPolicy.SHED_LOW_PRIORITY && lowPriority)) {
+                return -1;
+            }
+        }
+        long deadline = System.nanoTime() + admissionTimeoutNanos;
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(1_000);
+            try {
+                return ringBuffer.tryNext();
+            } catch (InsufficientCapacityException e) {
+                // still full
+            }
+        }
+        return -1;
+    }
+
+    private long claimBookChange(CommandType type) {
+        long sequence = claim(type);
+        if (sequence < 0) {
+            throw new RejectedExecutionException("Engine " + name + " is overloaded");
+        }
+        return sequence;
+    }
+
+    private RejectedExecutionException reject(String symbol, String orderId, CompletableFuture<?> future) {
+        MetricsCollector.getInstance().recordRejectedOrder();
+        RejectedExecutionException cause = new RejectedExecutionException("Engine " + name + " is overloaded");
+        EventPublisher publisher = eventPublisher;
+        if (publisher != null && orderId != null) {
+            try {
+                publisher.publishOrderRejected(new OrderRejectedEvent(orderId, symbol, cause.getMessage()));
+            } catch (Exception e) {
+                log.error("Failed to publish rejection of order {} for {}", orderId, symbol, e);
+            }
+        }
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+        return cause;
+    }
+
+    @Override
+    public void onStart() {
+        if (cpu >= 0) {
+            affinity.bindCurrentThread(cpu);
+        }
+        if (waitStrategy instanceof MatchingSpinWaitStrategy) {
+            ((MatchingSpinWaitStrategy) waitStrategy).spinOnCurrentThread();
+        }
+    }
+
+    /**
+     * Matching stage: applies the command to its symbol's book and leaves the outcome in the slot.
+     */
     @Override
-    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) throws Exception {
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        event.resetResults();
+        if (CommandJournal.isJournaled(event.getType())) {
+            appliedSequence++;
+        }
+        boolean allBooks = event.getType() == CommandType.CHECKPOINT || event.getType() == CommandType.ATTACH_FOLLOWER;
+        HostedBook hosted = allBooks || event.getSymbol() == null ? null : books.get(event.getSymbol());
+        if (event.getType() == CommandType.CAPTURE_STEP) {
+            captureStepQueued = false;
+            stepCaptures(event);
+        } else if (event.getType() == CommandType.CHECKPOINT) {
+            beginCheckpoint(event);
+        } else if (allBooks) {
+            // The replication stage sends the books to the follower when it reaches this command
+            event.setResult(checkpointBooks());
+        } else if (hosted == null) {
+            event.setFailure(new IllegalStateException(event.getSymbol() + " is not hosted by " + name));
+        } else {
+            apply(hosted, event);
+        }
+        if (endOfBatch && !pendingCaptures.isEmpty()) {
+            queueCaptureStep(event);
+        }
+        if (endOfBatch) {
+            for (int i = 0; i < changedBooks.size(); i++) {
+                HostedBook changed = changedBooks.get(i);
+                changed.changed = false;
+                event.drainBookUpdate(changed.book, bookUpdatePool);
+            }
+            changedBooks.clear();
+        }
+    }
+
+    private void beginCheckpoint(OrderEvent event) {
+        SnapshotCapture[] captures = new SnapshotCapture[books.size()];
+        PairScale[] scales = new PairScale[captures.length];
+        int i = 0;
+        for (HostedBook hosted : books.values()) {
+            captures[i] = hosted.book.beginSnapshot();
+            scales[i++] = hosted.book.getScale();
+        }
+        pendingCaptures.add(new PendingCapture(event.takeFuture(), captures, scales, appliedSequence));
+    }
+
+    /**
+     * Queues a {@link CommandType#CAPTURE_STEP} behind the commands already waiting, unless one is queued, so a
+     * capture takes turns with the commands and no command waits for more than one step. A single-producer ring
+     * cannot take the matching thread as a second producer, so there the captures are finished in one go; the
+     * manager's pairs do not get such rings, see {@link EngineProfile}.
+     */
+    private void queueCaptureStep(OrderEvent event) {
+        if (!multiProducer) {
+            while (!pendingCaptures.isEmpty()) {
+                stepCaptures(event);
+            }
+        } else if (!captureStepQueued) {
+            try {
+                long sequence = ringBuffer.tryNext();
+                ringBuffer.get(sequence).setCaptureStep();
+                ringBuffer.publish(sequence);
+                captureStepQueued = true;
+            } catch (InsufficientCapacityException e) {
+                // The ring is full of commands, the end of a later batch queues the step
+            }
+        }
+    }
+
+    /**
+     * Copies a step of every capture in progress. Finished captures are completed by the completion stage
+     * together with the current command.
+     */
+    private void stepCaptures(OrderEvent event) {
+        for (int i = 0; i < pendingCaptures.size(); i++) {
+            PendingCapture pending = pendingCaptures.get(i);
+            try {
+                if (!pending.step()) {
+                    continue;
+                }
+                event.addCaptured(pending.future, pending.result());
+            } catch (RuntimeException e) {
+                log.error("Engine {} failed to copy a snapshot", name, e);
+                event.addCaptured(pending.future, e);
+            }
+            pendingCaptures.remove(i--);
+        }
+    }
+
+    private EngineCheckpoint checkpointBooks() {
+        List<OrderBookSnapshot> snapshots = new ArrayList<>(books.size());
+        List<PairScale> scales = new ArrayList<>(books.size());
+        for (HostedBook hosted : books.values()) {
+            snapshots.add(hosted.book.snapshot());
+            scales.add(hosted.book.getScale());
+        }
+        return new EngineCheckpoint(name, appliedSequence, snapshots, scales);
+    }
+
+    private void apply(HostedBook hosted, OrderEvent event) {
+        OrderBook book = hosted.book;
+        event.setBook(book);
         try {
-            PendingOrders order = event.toOrder();
-            List<Trade> trades = book.matchOrder(order);
-            event.getFuture().complete(trades);
-            processedOrders++;
+            switch (event.getType()) {
+                case NEW:
+                    event.getFills().setTimestamp(event.getTimestamp());
+                    event.setRemainingQuantity(book.matchOrder(event.getOrderId(), event.getUserId(), event.getSide(),
+                            event.getOrderType(), event.getTimeInForce(), event.getPrice(), event.getQuantity(),
+                            event.getFills()));
+                    processedOrders++;
+                    break;
+                case CANCEL:
+                    event.setResult(book.cancelOrder(event.getOrderId()));
+                    break;
+                case MODIFY:
+                    event.setResult(book.modifyOrder(event.getOrderId(), event.getNewPrice(), event.getNewQuantity()));
+                    break;
+                case MASS_CANCEL:
+                    event.setResult(book.cancelAllOrders(event.getUserId(), event.getSide(), event.getCancelledOrderIds()));
+                    break;
+                case SNAPSHOT: {
+                    SnapshotCapture capture = book.beginSnapshot();
+                    pendingCaptures.add(new PendingCapture(event.takeFuture(), new SnapshotCapture[]{capture}, null, -1));
+                    break;
+                }
+                case REMOVE_BOOK:
+                    books.remove(event.getSymbol(), hosted);
+                    return;
+                case CLOSE_CANDLES:
+                    // Changes no order, so it does not count as a command of the book
+                    book.closeDueCandles(event.getTimestamp());
+                    book.drainClosedCandles(event.getClosedCandles());
+                    return;
+                default:
+                    // Journal record of a book the caller already hosted
+                    return;
+            }
         } catch (Exception e) {
-            event.getFuture().completeExceptionally(e);
+            event.setFailure(e);
+        }
+        book.drainClosedCandles(event.getClosedCandles());
+        hosted.commands++;
+        if (!hosted.changed) {
+            hosted.changed = true;
+            changedBooks.add(hosted);
+        }
+    }
+
+    /**
+     * Journal stage, runs in parallel with matching.
+     */
+    private void journalCommand(OrderEvent event, long sequence, boolean endOfBatch) {
+        journal.append(event);
+        if (endOfBatch) {
+            journal.endOfBatch();
         }
     }
 
+    /**
+     * Replication stage: sends every journaled command to the follower once it is applied. Under
+     * {@link ReplicationMode#ACK_BEFORE_PUBLISH} the later stages wait for it, and it waits at the end of each
+     * batch until the follower has applied the batch.
+     */
+    private void replicateCommand(OrderEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() == CommandType.ATTACH_FOLLOWER) {
+            startReplication(event);
+            return;
+        }
+        ReplicationLink link = follower;
+        if (link == null) {
+            return;
+        }
+        try {
+            if (CommandJournal.isJournaled(event.getType())) {
+                link.send(++replicatedSequence, event);
+            }
+            if (endOfBatch) {
+                link.flush();
+                if (replicationMode == ReplicationMode.ACK_BEFORE_PUBLISH) {
+                    awaitFollower(link);
+                }
+            }
+        } catch (RuntimeException e) {
+            dropFollower(link, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void startReplication(OrderEvent event) {
+        CompletableFuture<Object> future = (CompletableFuture<Object>) event.getFuture();
+        ReplicationLink previous = follower;
+        if (previous != null) {
+            previous.close();
+        }
+        ReplicationLink link = event.getFollower();
+        follower = link;
+        // The follower starts from empty books at sequence 1
+        replicatedSequence = 0;
+        try {
+            EngineCheckpoint state = (EngineCheckpoint) event.getResult();
+            for (int i = 0; i < state.getBooks().size(); i++) {
+                OrderBookSnapshot snapshot = state.getBooks().get(i);
+                replicationScratch.setRestoreBook(snapshot.getSymbol(), SnapshotCodec.encode(snapshot, state.getScales().get(i)));
+                link.send(++replicatedSequence, replicationScratch);
+            }
+            link.flush();
+            awaitFollower(link);
+            log.info("Engine {} replicates to a follower from {} books", name, state.getBooks().size());
+            future.complete(replicatedSequence);
+        } catch (RuntimeException e) {
+            dropFollower(link, e);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void awaitFollower(ReplicationLink link) {
+        if (!link.awaitAck(replicatedSequence, followerAckTimeoutNanos)) {
+            throw new UncheckedIOException(new IOException("Follower did not acknowledge sequence " + replicatedSequence
+                    + " within " + TimeUnit.NANOSECONDS.toMillis(followerAckTimeoutNanos) + " ms"));
+        }
+    }
+
+    private void dropFollower(ReplicationLink link, RuntimeException cause) {
+        log.error("Engine {} dropped its follower and runs unreplicated: {}", name, cause.getMessage());
+        link.close();
+        follower = null;
+        MetricsCollector.getInstance().recordFollowerDropped();
+    }
+
+    private void publishResults(OrderEvent event, long sequence, boolean endOfBatch) {
+        EventPublisher publisher = eventPublisher;
+        if (publisher != null) {
+            publishEvents(publisher, event);
+        }
+        // Published or not, the slot's book update buffers can now go to later batches
+        bookUpdatePool.giveBack(event.getPooledBookUpdateCount());
+    }
+
+    private void publishEvents(EventPublisher publisher, OrderEvent event) {
+        try {
+            if (event.getType() == CommandType.NEW && event.getFailure() instanceof OrderRejectedException) {
+                // Refused by the book before matching, such as a redelivered order
+                publisher.publishOrderRejected(new OrderRejectedEvent(event.getOrderId(), event.getSymbol(),
+                        event.getFailure().getMessage()));
+            }
+            if (!event.getFills().isEmpty()) {
+                publisher.publishTradeExecution(event.getSymbol(), event.getBook().getScale(), event.getFills());
+            }
+            if (!event.getCancelledOrderIds().isEmpty()) {
+                publisher.publishOrdersCancelled(new OrdersCancelledEvent(event.getSymbol(), event.getUserId(),
+                        event.getSide(), new ArrayList<>(event.getCancelledOrderIds())));
+            }
+            if (!event.getClosedCandles().isEmpty()) {
+                publisher.publishCandles(event.getSymbol(), event.getClosedCandles());
+            }
+            for (int i = 0; i < event.getBookUpdateCount(); i++) {
+                OrderBook book = event.getUpdatedBook(i);
+                publisher.publishBookUpdate(book.getSymbol(), book.getScale(), event.getBookUpdate(i));
+            }
+        } catch (Exception e) {
+            log.error("Failed to publish results of order {} for {}", event.getOrderId(), event.getSymbol(), e);
+        }
+    }
+
+    private void recordMetrics(OrderEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() != CommandType.NEW || event.getBook() == null) {
+            return;
+        }
+        String symbol = event.getSymbol();
+        MetricsCollector metrics = MetricsCollector.getInstance();
+        metrics.recordOrderProcessed(symbol, System.nanoTime() - event.getSubmitNanos());
+        TradeBuffer fills = event.getFills();
+        int quantityScale = event.getBook().getScale().getQuantityScale();
+        for (int i = 0; i < fills.size(); i++) {
+            metrics.recordTradeExecuted(symbol, fills.quantity(i), quantityScale);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void completeFutures(OrderEvent event, long sequence, boolean endOfBatch) {
+        for (int i = 0; i < event.getCapturedCount(); i++) {
+            Object result = event.getCapturedResult(i);
+            try {
+                if (result instanceof Throwable) {
+                    event.getCapturedFuture(i).completeExceptionally((Throwable) result);
+                } else {
+                    event.getCapturedFuture(i).complete(result);
+                }
+            } catch (Exception e) {
+                log.error("Completion callback of a snapshot of engine {} failed", name, e);
+            }
+        }
+        try {
+            if (event.getListener() != null) {
+                if (event.getFailure() != null) {
+                    event.getListener().onOrderRejected(event.getOrderId(), event.getFailure());
+                } else {
+                    event.getListener().onOrderProcessed(event.getOrderId(), event.getFills(), event.getRemainingQuantity());
+                }
+                return;
+            }
+            CompletableFuture<Object> future = (CompletableFuture<Object>) event.getFuture();
+            if (future == null || event.getType() == CommandType.ATTACH_FOLLOWER) {
+                // The replication stage completes the attachment
+                return;
+            }
+            if (event.getFailure() != null) {
+                future.completeExceptionally(event.getFailure());
+            } else if (event.getType() == CommandType.NEW) {
+                future.complete(event.getFills().toTrades(event.getSymbol(), event.getBook().getScale()));
+            } else {
+                future.complete(event.getResult());
+            }
+        } catch (Exception e) {
+            log.error("Completion callback of order {} for {} failed", event.getOrderId(), event.getSymbol(), e);
+        }
+    }
+
+    /**
+     * Publisher used by the publisher stage; the books themselves never publish.
+     */
     public void setEventPublisher(EventPublisher eventPublisher) {
-        this.book.setEventPublisher(eventPublisher);
+        this.eventPublisher = eventPublisher;
     }
 
     public long getProcessedOrdersCount() {
         return processedOrders;
     }
 
-    public OrderBook getOrderBook() {
-        return book;
-    }
-
     public void shutdown() {
+        MetricsCollector.getInstance().unregisterQueueDepthGauge(queueName);
         disruptor.shutdown();
+        if (replicationMode != ReplicationMode.NONE) {
+            MetricsCollector.getInstance().unregisterReplicationLagGauge(name);
+            ReplicationLink link = follower;
+            if (link != null) {
+                link.close();
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
     }
 }
\ No newline at end of file
@@ -2,49 +2,279 @@ package com.phinity.matching.engine;
 
 import com.phinity.common.dto.enums.OrderType;
 import com.phinity.common.dto.enums.Side;
-import com.phinity.common.dto.models.PendingOrders;
-import com.phinity.matching.engine.core.Trade;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.core.BookUpdate;
+import com.phinity.matching.engine.core.Candle;
+import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.TradeBuffer;
+import com.phinity.matching.engine.replication.ReplicationLink;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+/**
+ * Ring buffer slot. The producer fills in the command, the matching stage writes its results into the
+ * slot and the downstream stages read them from there.
+ */
 public class OrderEvent {
+    private CommandType type;
     private String orderId;
+    private String userId;
     private String symbol;
     private Side side;
-    private BigDecimal price;
-    private BigDecimal quantity;
+    private long price;
+    private long quantity;
     private OrderType orderType;
-    private CompletableFuture<List<Trade>> future;
+    private TimeInForce timeInForce;
+    // Epoch millis of a NEW command, stamps its trades
+    private long timestamp;
+    // Ticks and lots of a MODIFY, OrderBook.UNCHANGED to keep the order's
+    private long newPrice;
+    private long newQuantity;
+    // Encoded snapshot of RESTORE_BOOK
+    private byte[] payload;
+    // Link to the follower of ATTACH_FOLLOWER
+    private ReplicationLink follower;
+    // Completed with the command's result type, see OptimizedDisruptorEngine
+    private CompletableFuture<?> future;
+    private OrderResultListener listener;
+    private long submitNanos;
 
-    public void set(String orderId, String symbol, Side side, BigDecimal price, BigDecimal quantity, OrderType orderType, CompletableFuture<List<Trade>> future) {
-        this.orderId = orderId;
-        this.symbol = symbol;
+    // Results written by the matching stage
+    private OrderBook book;
+    private final TradeBuffer fills = new TradeBuffer();
+    private long remainingQuantity;
+    private Object result;
+    private Throwable failure;
+    // Book updates of every book changed in the batch: buffers lent by the engine's pool, then any the matching
+    // stage had to allocate because the pool ran out, of which the first bookUpdateCount entries are in use
+    private BookUpdatePool bookUpdatePool;
+    private long pooledBookUpdatePosition;
+    private int pooledBookUpdateCount;
+    private final List<BookUpdate> bookUpdates = new ArrayList<>();
+    private final List<OrderBook> updatedBooks = new ArrayList<>();
+    private int bookUpdateCount;
+    // Bars of the command's book that closed by the time it was applied
+    private final List<Candle> closedCandles = new ArrayList<>();
+    // Orders taken off the book by MASS_CANCEL, for its cancel report
+    private final List<String> cancelledOrderIds = new ArrayList<>();
+    // Snapshots and checkpoints whose capture finished while the command was applied, and their futures
+    private final List<Object> capturedResults = new ArrayList<>();
+    private final List<CompletableFuture<Object>> capturedFutures = new ArrayList<>();
+
+    public void setNew(String orderId, String userId, String symbol, Side side, long price, long quantity, OrderType orderType,
+                       TimeInForce timeInForce, CompletableFuture<?> future, OrderResultListener listener) {
+        set(CommandType.NEW, orderId, userId, symbol, future);
         this.side = side;
         this.price = price;
         this.quantity = quantity;
         this.orderType = orderType;
+        this.timeInForce = timeInForce;
+        this.listener = listener;
+    }
+
+    public void setCancel(String orderId, String symbol, CompletableFuture<?> future) {
+        set(CommandType.CANCEL, orderId, null, symbol, future);
+    }
+
+    public void setModify(String orderId, String symbol, long newPrice, long newQuantity, CompletableFuture<?> future) {
+        set(CommandType.MODIFY, orderId, null, symbol, future);
+        this.newPrice = newPrice;
+        this.newQuantity = newQuantity;
+    }
+
+    /**
+     * @param side side to cancel, null for both
+     */
+    public void setMassCancel(String userId, Side side, String symbol, CompletableFuture<?> future) {
+        set(CommandType.MASS_CANCEL, null, userId, symbol, future);
+        this.side = side;
+    }
+
+    public void setSnapshot(String symbol, CompletableFuture<?> future) {
+        set(CommandType.SNAPSHOT, null, null, symbol, future);
+    }
+
+    public void setCheckpoint(CompletableFuture<?> future) {
+        set(CommandType.CHECKPOINT, null, null, null, future);
+    }
+
+    public void setRestoreBook(String symbol, byte[] snapshot) {
+        set(CommandType.RESTORE_BOOK, null, null, symbol, null);
+        this.payload = snapshot;
+    }
+
+    public void setRemoveBook(String symbol, CompletableFuture<?> future) {
+        set(CommandType.REMOVE_BOOK, null, null, symbol, future);
+    }
+
+    void setCloseCandles(String symbol, long timestamp) {
+        set(CommandType.CLOSE_CANDLES, null, null, symbol, null);
+        this.timestamp = timestamp;
+    }
+
+    void setCaptureStep() {
+        set(CommandType.CAPTURE_STEP, null, null, null, null);
+    }
+
+    public void setAttachFollower(ReplicationLink follower, CompletableFuture<?> future) {
+        set(CommandType.ATTACH_FOLLOWER, null, null, null, future);
+        this.follower = follower;
+    }
+
+    private void set(CommandType type, String orderId, String userId, String symbol, CompletableFuture<?> future) {
+        this.type = type;
+        this.orderId = orderId;
+        this.userId = userId;
+        this.symbol = symbol;
+        this.side = null;
+        this.price = 0;
+        this.quantity = 0;
+        this.orderType = null;
+        this.timeInForce = null;
+        this.timestamp = 0;
+        this.newPrice = 0;
+        this.newQuantity = 0;
+        this.payload = null;
+        this.follower = null;
         this.future = future;
+        this.listener = null;
+        this.submitNanos = System.nanoTime();
     }
 
-    public PendingOrders toOrder() {
-        PendingOrders order = new PendingOrders(orderId, symbol, side, price, quantity);
-        order.setOrderType(orderType);
-        return order;
+    public CommandType getType() { return type; }
+    public String getOrderId() { return orderId; }
+    public String getUserId() { return userId; }
+    public String getSymbol() { return symbol; }
+    public Side getSide() { return side; }
+    public long getPrice() { return price; }
+    public long getQuantity() { return quantity; }
+    public OrderType getOrderType() { return orderType; }
+    public TimeInForce getTimeInForce() { return timeInForce; }
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+    public long getNewPrice() { return newPrice; }
+    public long getNewQuantity() { return newQuantity; }
+    public byte[] getPayload() { return payload; }
+    public ReplicationLink getFollower() { return follower; }
+    public CompletableFuture<?> getFuture() { return future; }
+
+    /**
+     * Hands the future over to whoever completes it later, so the completion stage leaves it alone.
+     */
+    @SuppressWarnings("unchecked")
+    CompletableFuture<Object> takeFuture() {
+        CompletableFuture<Object> taken = (CompletableFuture<Object>) future;
+        future = null;
+        return taken;
     }
+    public OrderResultListener getListener() { return listener; }
+    public long getSubmitNanos() { return submitNanos; }
 
-    public CompletableFuture<List<Trade>> getFuture() {
-        return future;
+    void resetResults() {
+        book = null;
+        fills.clear();
+        remainingQuantity = 0;
+        result = null;
+        failure = null;
+        bookUpdatePool = null;
+        pooledBookUpdateCount = 0;
+        for (int i = 0; i < bookUpdateCount; i++) {
+            updatedBooks.set(i, null);
+        }
+        bookUpdateCount = 0;
+        closedCandles.clear();
+        cancelledOrderIds.clear();
+        capturedResults.clear();
+        capturedFutures.clear();
+    }
+
+    /**
+     * @return the book the command was applied to, null if the symbol is not hosted by the engine
+     */
+    public OrderBook getBook() { return book; }
+    void setBook(OrderBook book) { this.book = book; }
+
+    public TradeBuffer getFills() { return fills; }
+    public long getRemainingQuantity() { return remainingQuantity; }
+    void setRemainingQuantity(long remainingQuantity) { this.remainingQuantity = remainingQuantity; }
+
+    /**
+     * @return the outcome of a command other than {@link CommandType#NEW}
+     */
+    public Object getResult() { return result; }
+    void setResult(Object result) { this.result = result; }
+
+    public List<Candle> getClosedCandles() { return closedCandles; }
+    public List<String> getCancelledOrderIds() { return cancelledOrderIds; }
+
+    public Throwable getFailure() { return failure; }
+    void setFailure(Throwable failure) { this.failure = failure; }
+
+    int getCapturedCount() { return capturedResults.size(); }
+    Object getCapturedResult(int index) { return capturedResults.get(index); }
+    CompletableFuture<Object> getCapturedFuture(int index) { return capturedFutures.get(index); }
+
+    /**
+     * Completes the future of an earlier snapshot or checkpoint command together with this one.
+     */
+    void addCaptured(CompletableFuture<Object> future, Object result) {
+        capturedFutures.add(future);
+        capturedResults.add(result);
+    }
+
+    /**
+     * Number of book updates drained into this slot; only the last event of a batch carries any.
+     */
+    public int getBookUpdateCount() { return pooledBookUpdateCount + bookUpdateCount; }
+
+    public BookUpdate getBookUpdate(int index) {
+        return index < pooledBookUpdateCount
+                ? bookUpdatePool.getBookUpdate(pooledBookUpdatePosition + index)
+                : bookUpdates.get(index - pooledBookUpdateCount);
+    }
+
+    public OrderBook getUpdatedBook(int index) {
+        return index < pooledBookUpdateCount
+                ? bookUpdatePool.getBook(pooledBookUpdatePosition + index)
+                : updatedBooks.get(index - pooledBookUpdateCount);
+    }
+
+    int getPooledBookUpdateCount() { return pooledBookUpdateCount; }
+
+    /**
+     * Drains the book's pending update into a buffer from the pool, or a new one once the pool has none left.
+     * The buffers this slot takes from the pool are consecutive.
+     */
+    void drainBookUpdate(OrderBook book, BookUpdatePool pool) {
+        BookUpdate update = bookUpdateCount == 0 ? pool.next() : null;
+        if (update != null) {
+            if (book.drainBookUpdate(update)) {
+                if (pooledBookUpdateCount == 0) {
+                    bookUpdatePool = pool;
+                    pooledBookUpdatePosition = pool.position();
+                }
+                pool.lend(book);
+                pooledBookUpdateCount++;
+            }
+            return;
+        }
+        if (bookUpdateCount == bookUpdates.size()) {
+            bookUpdates.add(new BookUpdate());
+            updatedBooks.add(null);
+        }
+        update = bookUpdates.get(bookUpdateCount);
+        update.clear();
+        if (book.drainBookUpdate(update)) {
+            updatedBooks.set(bookUpdateCount, book);
+            bookUpdateCount++;
+        }
     }
 
     public void clear() {
-        orderId = null;
-        symbol = null;
-        side = null;
-        price = null;
-        quantity = null;
-        orderType = null;
-        future = null;
+        set(null, null, null, null, null);
+        submitNanos = 0;
+        resetResults();
     }
 }
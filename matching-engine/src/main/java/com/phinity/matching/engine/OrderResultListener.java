@@ -0,0 +1,18 @@
+package com.phinity.matching.engine;
+
+import com.phinity.matching.engine.core.TradeBuffer;
+
+/**
+ * Allocation-free alternative to the {@link java.util.concurrent.CompletableFuture} returned by
+ * {@link OptimizedDisruptorEngine#processOrder}. Called on the engine's completion thread, in sequence order.
+ */
+public interface OrderResultListener {
+
+    /**
+     * @param fills             the order's fills; only valid for the duration of the call
+     * @param remainingQuantity quantity in lots left unfilled, resting on the book or discarded
+     */
+    void onOrderProcessed(String orderId, TradeBuffer fills, long remainingQuantity);
+
+    void onOrderRejected(String orderId, Throwable cause);
+}
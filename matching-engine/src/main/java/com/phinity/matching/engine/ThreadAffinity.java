@@ -0,0 +1,16 @@
+package com.phinity.matching.engine;
+
+/**
+ * Pins the calling thread to a CPU. The JDK has no API for this, so a deployment that isolates cores for
+ * the matching threads plugs in an implementation backed by a native affinity library.
+ */
+@FunctionalInterface
+public interface ThreadAffinity {
+
+    ThreadAffinity NONE = cpu -> { };
+
+    /**
+     * Called on the matching thread of a Disruptor engine before it processes its first command.
+     */
+    void bindCurrentThread(int cpu);
+}
@@ -0,0 +1,14 @@
+package com.phinity.matching.engine.config;
+
+/**
+ * Shape of the order book feed sent to {@code ORDERBOOK_UPDATE}.
+ */
+public enum BookFeed {
+    /** A depth-limited {@code OrderBookUpdateEvent} with both sides on every update. */
+    FULL_DEPTH,
+    /**
+     * Only the price levels that changed, as a sequenced {@code OrderBookDeltaEvent}, plus a periodic
+     * full {@code OrderBookSnapshotEvent} that consumers resynchronise from after a sequence gap.
+     */
+    INCREMENTAL
+}
@@ -0,0 +1,14 @@
+package com.phinity.matching.engine.config;
+
+/**
+ * How order book (L2) updates are published after the book changes.
+ */
+public enum BookUpdateMode {
+    /** Publish a depth update synchronously after every command, as part of the command. */
+    IMMEDIATE,
+    /**
+     * Mark the book dirty and publish at most one update per flush: at the end of each Disruptor
+     * batch, or on the pool's flush interval for the standard engines.
+     */
+    CONFLATED
+}
@@ -0,0 +1,60 @@
+package com.phinity.matching.engine.config;
+
+import com.lmax.disruptor.dsl.ProducerType;
+
+/**
+ * Disruptor settings of a high-volume pair. {@link ProducerType#SINGLE} is only safe when a single thread
+ * submits all of the engine's commands, as in a replay. The pairs of the manager therefore need
+ * {@link ProducerType#MULTI}: besides their callers, the manager's timer queues the closing of quiet bars and
+ * the matching thread queues the steps of snapshots.
+ */
+public final class EngineProfile {
+    public static final int DEFAULT_RING_SIZE = 1024 * 64;
+
+    public static final EngineProfile DEFAULT = new EngineProfile(ProducerType.MULTI, DEFAULT_RING_SIZE, WaitStrategyType.PHASED);
+    /**
+     * For the hottest pairs, with the matching thread spinning on a core of its own; pin it to an isolated core
+     * with {@link com.phinity.matching.engine.manager.HybridEngineManager#configurePairCpu(String, int)}.
+     */
+    public static final EngineProfile ULTRA_HOT = new EngineProfile(ProducerType.MULTI, DEFAULT_RING_SIZE, WaitStrategyType.BUSY_SPIN);
+    /** For pairs that only need the Disruptor occasionally and should not hold a core while idle. */
+    public static final EngineProfile LONG_TAIL = new EngineProfile(ProducerType.MULTI, 1024 * 4, WaitStrategyType.BLOCKING);
+
+    private final ProducerType producerType;
+    private final int ringSize;
+    private final WaitStrategyType waitStrategy;
+
+    public EngineProfile(ProducerType producerType, int ringSize, WaitStrategyType waitStrategy) {
+        if (ringSize <= 0 || Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of 2: " + ringSize);
+        }
+        if (producerType == null || waitStrategy == null) {
+            throw new IllegalArgumentException("Producer type and wait strategy are required");
+        }
+        this.producerType = producerType;
+        this.ringSize = ringSize;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public ProducerType getProducerType() { return producerType; }
+    public int getRingSize() { return ringSize; }
+    public WaitStrategyType getWaitStrategy() { return waitStrategy; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EngineProfile)) return false;
+        EngineProfile other = (EngineProfile) o;
+        return producerType == other.producerType && ringSize == other.ringSize && waitStrategy == other.waitStrategy;
+    }
+
+    @Override
+    public int hashCode() {
+        return (producerType.hashCode() * 31 + ringSize) * 31 + waitStrategy.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "EngineProfile{producer=" + producerType + ", ringSize=" + ringSize + ", wait=" + waitStrategy + "}";
+    }
+}
@@ -0,0 +1,14 @@
+package com.phinity.matching.engine.config;
+
+/**
+ * When the command journal forces its memory-mapped segment to disk. Journaled commands survive a JVM crash
+ * under every policy, since the mapped pages belong to the OS; the policy decides what survives a power loss.
+ */
+public enum FsyncPolicy {
+    /** Forces at the end of every Disruptor batch, before any command of the batch is acknowledged. */
+    PER_BATCH,
+    /** Forces at the end of a batch once the fsync interval has passed since the last force. */
+    INTERVAL,
+    /** Leaves writeback to the OS. */
+    NONE
+}
@@ -0,0 +1,40 @@
+package com.phinity.matching.engine.config;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.TimeoutException;
+import com.lmax.disruptor.WaitStrategy;
+
+/**
+ * Busy-spins on the engine's matching thread only. The journal, replication, publishing and completion stages
+ * wait like a {@link SleepingWaitStrategy}, spinning briefly, then yielding, then parking, so an engine holds one
+ * core instead of one per stage. The Disruptor shares a wait strategy between all of its handlers, so the
+ * strategy tells the matching thread apart by the thread the engine names when it starts.
+ */
+public final class MatchingSpinWaitStrategy implements WaitStrategy {
+    private final WaitStrategy spinning = new BusySpinWaitStrategy();
+    private final WaitStrategy backingOff = new SleepingWaitStrategy();
+    private volatile Thread matchingThread;
+
+    /**
+     * Called on the matching thread before it waits for its first command; until then every stage backs off.
+     */
+    public void spinOnCurrentThread() {
+        matchingThread = Thread.currentThread();
+    }
+
+    @Override
+    public long waitFor(long sequence, Sequence cursor, Sequence dependentSequence, SequenceBarrier barrier)
+            throws AlertException, InterruptedException, TimeoutException {
+        WaitStrategy strategy = Thread.currentThread() == matchingThread ? spinning : backingOff;
+        return strategy.waitFor(sequence, cursor, dependentSequence, barrier);
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+        // Neither strategy blocks on a lock, so there is nobody to wake
+    }
+}
@@ -0,0 +1,16 @@
+package com.phinity.matching.engine.config;
+
+/**
+ * What a pair does with a command that arrives while its engine queue is full.
+ */
+public enum OverloadPolicy {
+    /** Rejects the command straight away. */
+    REJECT,
+    /** Waits up to the admission timeout for space, then rejects. */
+    BLOCK_WITH_TIMEOUT,
+    /**
+     * Rejects new orders once the queue is nearly full, keeping the remaining space for cancels and
+     * modifications, which wait up to the admission timeout.
+     */
+    SHED_LOW_PRIORITY
+}
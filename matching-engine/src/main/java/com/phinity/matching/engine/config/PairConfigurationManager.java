@@ -1,24 +1,366 @@
 package com.phinity.matching.engine.config;
 
+import com.lmax.disruptor.dsl.ProducerType;
+
+import java.nio.file.Path;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class PairConfigurationManager {
+    public static final long DEFAULT_BOOK_UPDATE_INTERVAL_MS = 10;
+    public static final long DEFAULT_BOOK_SNAPSHOT_INTERVAL_MS = 5_000;
+    public static final long DEFAULT_ADMISSION_TIMEOUT_MS = 10;
+    public static final int DEFAULT_ENGINE_POOL_QUEUE_CAPACITY = 10_000;
+    public static final long DEFAULT_ENGINE_IDLE_TIMEOUT_MS = 15 * 60_000;
+    public static final long DEFAULT_FSYNC_INTERVAL_MS = 10;
+    public static final int DEFAULT_JOURNAL_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 60_000;
+    public static final long DEFAULT_ORDER_ID_WINDOW_MS = 5 * 60_000;
+    public static final int DEFAULT_MAX_ORDER_IDS = 1_000_000;
+
     private final Set<String> highVolumePairs = ConcurrentHashMap.newKeySet();
-    
+    private final ConcurrentHashMap<String, PairScale> pairScales = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, EngineProfile> engineProfiles = new ConcurrentHashMap<>();
+    private volatile EngineProfile defaultEngineProfile = EngineProfile.DEFAULT;
+    private final ConcurrentHashMap<String, OverloadPolicy> overloadPolicies = new ConcurrentHashMap<>();
+    private volatile OverloadPolicy defaultOverloadPolicy = OverloadPolicy.REJECT;
+    private volatile long admissionTimeoutMillis = DEFAULT_ADMISSION_TIMEOUT_MS;
+    private volatile int enginePoolQueueCapacity = DEFAULT_ENGINE_POOL_QUEUE_CAPACITY;
+    private volatile PoolExecutionMode poolExecutionMode = PoolExecutionMode.SHARED;
+    private volatile int enginePoolLanes = Runtime.getRuntime().availableProcessors();
+    // Each shard runs a matching thread and three downstream stages
+    private volatile int disruptorShardCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    private volatile long engineIdleTimeoutMillis = DEFAULT_ENGINE_IDLE_TIMEOUT_MS;
+    private volatile Path journalDirectory;
+    private volatile FsyncPolicy fsyncPolicy = FsyncPolicy.PER_BATCH;
+    private volatile long fsyncIntervalMillis = DEFAULT_FSYNC_INTERVAL_MS;
+    private volatile int journalSegmentBytes = DEFAULT_JOURNAL_SEGMENT_BYTES;
+    private volatile long checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MS;
+    private volatile BookUpdateMode bookUpdateMode = BookUpdateMode.CONFLATED;
+    private volatile long bookUpdateIntervalMillis = DEFAULT_BOOK_UPDATE_INTERVAL_MS;
+    private volatile BookFeed bookFeed = BookFeed.FULL_DEPTH;
+    private volatile long bookSnapshotIntervalMillis = DEFAULT_BOOK_SNAPSHOT_INTERVAL_MS;
+    private volatile long orderIdWindowMillis = DEFAULT_ORDER_ID_WINDOW_MS;
+    private volatile int maxOrderIds = DEFAULT_MAX_ORDER_IDS;
+
     public void addHighVolumePair(String symbol) {
         highVolumePairs.add(symbol);
     }
-    
+
     public void removeHighVolumePair(String symbol) {
         highVolumePairs.remove(symbol);
     }
-    
+
     public boolean isHighVolumePair(String symbol) {
         return highVolumePairs.contains(symbol);
     }
-    
+
     public Set<String> getHighVolumePairs() {
         return Set.copyOf(highVolumePairs);
     }
-}
\ No newline at end of file
+
+    /**
+     * Sets the tick/lot scale used for a pair. Must be configured before the pair's book is created,
+     * the scale of a live book cannot change.
+     */
+    public void setPairScale(String symbol, int priceScale, int quantityScale) {
+        pairScales.put(symbol, new PairScale(priceScale, quantityScale));
+    }
+
+    public PairScale getPairScale(String symbol) {
+        return pairScales.getOrDefault(symbol, PairScale.DEFAULT);
+    }
+
+    /**
+     * @return true if the pair's scale was configured rather than defaulted. High-volume pairs only get the
+     *         tick-indexed price ladder with a configured scale, whose tick should be the pair's real price increment.
+     */
+    public boolean hasPairScale(String symbol) {
+        return pairScales.containsKey(symbol);
+    }
+
+    /**
+     * Sets the Disruptor profile of a high-volume pair. Read when the pair's engine is created.
+     *
+     * @throws IllegalArgumentException if the profile has a single producer, see {@link EngineProfile}
+     */
+    public void setEngineProfile(String symbol, EngineProfile profile) {
+        engineProfiles.put(symbol, requireMultiProducer(profile));
+    }
+
+    public EngineProfile getEngineProfile(String symbol) {
+        return engineProfiles.getOrDefault(symbol, defaultEngineProfile);
+    }
+
+    /**
+     * @return true if the pair has a profile of its own and therefore gets a dedicated engine
+     */
+    public boolean hasEngineProfile(String symbol) {
+        return engineProfiles.containsKey(symbol);
+    }
+
+    public EngineProfile getDefaultEngineProfile() {
+        return defaultEngineProfile;
+    }
+
+    /**
+     * Profile of the high-volume pairs without one of their own. Applies to engines created after the call.
+     *
+     * @throws IllegalArgumentException if the profile has a single producer, see {@link EngineProfile}
+     */
+    public void setDefaultEngineProfile(EngineProfile defaultEngineProfile) {
+        this.defaultEngineProfile = requireMultiProducer(defaultEngineProfile);
+    }
+
+    private static EngineProfile requireMultiProducer(EngineProfile profile) {
+        if (profile.getProducerType() != ProducerType.MULTI) {
+            throw new IllegalArgumentException("High-volume pairs need a multi-producer profile: " + profile);
+        }
+        return profile;
+    }
+
+    public void setOverloadPolicy(String symbol, OverloadPolicy policy) {
+        overloadPolicies.put(symbol, policy);
+    }
+
+    public OverloadPolicy getOverloadPolicy(String symbol) {
+        return overloadPolicies.getOrDefault(symbol, defaultOverloadPolicy);
+    }
+
+    public OverloadPolicy getDefaultOverloadPolicy() {
+        return defaultOverloadPolicy;
+    }
+
+    public void setDefaultOverloadPolicy(OverloadPolicy defaultOverloadPolicy) {
+        this.defaultOverloadPolicy = defaultOverloadPolicy;
+    }
+
+    public long getAdmissionTimeoutMillis() {
+        return admissionTimeoutMillis;
+    }
+
+    /**
+     * Longest a caller waits for queue space under {@link OverloadPolicy#BLOCK_WITH_TIMEOUT} and, for
+     * cancels and modifications, under {@link OverloadPolicy#SHED_LOW_PRIORITY}.
+     */
+    public void setAdmissionTimeoutMillis(long admissionTimeoutMillis) {
+        if (admissionTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Admission timeout must be positive: " + admissionTimeoutMillis);
+        }
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+    }
+
+    public int getEnginePoolQueueCapacity() {
+        return enginePoolQueueCapacity;
+    }
+
+    /**
+     * Orders an engine pool queues before applying the overload policy, split evenly between the lanes in
+     * {@link PoolExecutionMode#AFFINE_LANES}. Read when a pool is created.
+     */
+    public void setEnginePoolQueueCapacity(int enginePoolQueueCapacity) {
+        if (enginePoolQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + enginePoolQueueCapacity);
+        }
+        this.enginePoolQueueCapacity = enginePoolQueueCapacity;
+    }
+
+    public PoolExecutionMode getPoolExecutionMode() {
+        return poolExecutionMode;
+    }
+
+    /**
+     * Read when a pool is created.
+     */
+    public void setPoolExecutionMode(PoolExecutionMode poolExecutionMode) {
+        this.poolExecutionMode = poolExecutionMode;
+    }
+
+    public int getEnginePoolLanes() {
+        return enginePoolLanes;
+    }
+
+    /**
+     * Number of single-threaded lanes per pool in {@link PoolExecutionMode#AFFINE_LANES}, the number of
+     * available cores by default. Read when a pool is created.
+     */
+    public void setEnginePoolLanes(int enginePoolLanes) {
+        if (enginePoolLanes <= 0) {
+            throw new IllegalArgumentException("Lane count must be positive: " + enginePoolLanes);
+        }
+        this.enginePoolLanes = enginePoolLanes;
+    }
+
+    public int getDisruptorShardCount() {
+        return disruptorShardCount;
+    }
+
+    /**
+     * Number of shared Disruptor engines hosting the high-volume pairs without a profile of their own, a quarter
+     * of the available cores by default. Read when the first shard is created.
+     */
+    public void setDisruptorShardCount(int disruptorShardCount) {
+        if (disruptorShardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive: " + disruptorShardCount);
+        }
+        this.disruptorShardCount = disruptorShardCount;
+    }
+
+    public long getEngineIdleTimeoutMillis() {
+        return engineIdleTimeoutMillis;
+    }
+
+    /**
+     * Time without commands after which an engine pool hibernates a pair's book, 0 to keep every book in memory.
+     * Read when a pool is created.
+     */
+    public void setEngineIdleTimeoutMillis(long engineIdleTimeoutMillis) {
+        if (engineIdleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative: " + engineIdleTimeoutMillis);
+        }
+        this.engineIdleTimeoutMillis = engineIdleTimeoutMillis;
+    }
+
+    public long getOrderIdWindowMillis() {
+        return orderIdWindowMillis;
+    }
+
+    public int getMaxOrderIds() {
+        return maxOrderIds;
+    }
+
+    /**
+     * How long each book remembers the ids of the orders it took to refuse orders delivered again, which should
+     * cover the time a redelivery can still arrive, and how many ids it keeps at most. Size the cap for the
+     * busiest pair: its peak orders per second times the window in seconds, 300k ids for 1,000 orders/s over the
+     * default five minutes. A book at the cap forgets ids early, counted by
+     * {@link com.phinity.matching.engine.metrics.MetricsCollector#getOrderIdsForgottenEarly()}. An id costs about
+     * 100 bytes including the id string, and a book only grows to the ids it actually holds. Read when a book is
+     * created.
+     *
+     * @param orderIdWindowMillis how long an id is remembered, 0 to only refuse the ids of resting orders
+     * @param maxOrderIds         most ids a book remembers at once
+     */
+    public void setOrderIdWindow(long orderIdWindowMillis, int maxOrderIds) {
+        if (orderIdWindowMillis < 0) {
+            throw new IllegalArgumentException("Order id window must not be negative: " + orderIdWindowMillis);
+        }
+        if (maxOrderIds < 0) {
+            throw new IllegalArgumentException("Order id window capacity must not be negative: " + maxOrderIds);
+        }
+        this.orderIdWindowMillis = orderIdWindowMillis;
+        this.maxOrderIds = maxOrderIds;
+    }
+
+    public Path getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * Directory of the Disruptor engines' command journals, null to run without journals.
+     */
+    public void setJournalDirectory(Path journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    public long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    /**
+     * Longest time journaled commands stay unforced under {@link FsyncPolicy#INTERVAL} while commands keep arriving.
+     */
+    public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+        if (fsyncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Fsync interval must be positive: " + fsyncIntervalMillis);
+        }
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    public int getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    /**
+     * Size of each memory-mapped journal segment; the journal rolls to a new segment when one is full.
+     */
+    public void setJournalSegmentBytes(int journalSegmentBytes) {
+        if (journalSegmentBytes < 4096) {
+            throw new IllegalArgumentException("Journal segments must be at least 4096 bytes: " + journalSegmentBytes);
+        }
+        this.journalSegmentBytes = journalSegmentBytes;
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    /**
+     * How often the Disruptor engines' books are checkpointed so their journals can be truncated, 0 to only
+     * checkpoint on request.
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        if (checkpointIntervalMillis < 0) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative: " + checkpointIntervalMillis);
+        }
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    public BookUpdateMode getBookUpdateMode() {
+        return bookUpdateMode;
+    }
+
+    /**
+     * Applies to books created after the call.
+     */
+    public void setBookUpdateMode(BookUpdateMode bookUpdateMode) {
+        this.bookUpdateMode = bookUpdateMode;
+    }
+
+    public long getBookUpdateIntervalMillis() {
+        return bookUpdateIntervalMillis;
+    }
+
+    /**
+     * Flush interval of conflated book updates in the standard engine pools. Read when a pool is created.
+     */
+    public void setBookUpdateIntervalMillis(long bookUpdateIntervalMillis) {
+        if (bookUpdateIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Book update interval must be positive: " + bookUpdateIntervalMillis);
+        }
+        this.bookUpdateIntervalMillis = bookUpdateIntervalMillis;
+    }
+
+    public BookFeed getBookFeed() {
+        return bookFeed;
+    }
+
+    /**
+     * Applies to books created after the call.
+     */
+    public void setBookFeed(BookFeed bookFeed) {
+        this.bookFeed = bookFeed;
+    }
+
+    public long getBookSnapshotIntervalMillis() {
+        return bookSnapshotIntervalMillis;
+    }
+
+    /**
+     * Minimum time between full snapshots of the incremental feed. Applies to books created after the call.
+     */
+    public void setBookSnapshotIntervalMillis(long bookSnapshotIntervalMillis) {
+        if (bookSnapshotIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Book snapshot interval must be positive: " + bookSnapshotIntervalMillis);
+        }
+        this.bookSnapshotIntervalMillis = bookSnapshotIntervalMillis;
+    }
+}
@@ -0,0 +1,68 @@
+package com.phinity.matching.engine.config;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed-point scale of a trading pair. Prices are held internally as a count of price ticks
+ * (10^-priceScale) and quantities as a count of lots (10^-quantityScale), so the matching path
+ * only ever works on {@code long}s. BigDecimal is used exclusively when converting at the edges.
+ */
+public final class PairScale {
+    public static final int DEFAULT_PRICE_SCALE = 8;
+    public static final int DEFAULT_QUANTITY_SCALE = 8;
+    public static final PairScale DEFAULT = new PairScale(DEFAULT_PRICE_SCALE, DEFAULT_QUANTITY_SCALE);
+
+    private final int priceScale;
+    private final int quantityScale;
+
+    public PairScale(int priceScale, int quantityScale) {
+        if (priceScale < 0 || priceScale > 18 || quantityScale < 0 || quantityScale > 18) {
+            throw new IllegalArgumentException("Scale must be between 0 and 18: price=" + priceScale + ", quantity=" + quantityScale);
+        }
+        this.priceScale = priceScale;
+        this.quantityScale = quantityScale;
+    }
+
+    /**
+     * @throws ArithmeticException if the price is not a whole number of ticks or does not fit in a long
+     */
+    public long toPriceTicks(BigDecimal price) {
+        return price.movePointRight(priceScale).longValueExact();
+    }
+
+    /**
+     * @throws ArithmeticException if the quantity is not a whole number of lots or does not fit in a long
+     */
+    public long toQuantityLots(BigDecimal quantity) {
+        return quantity.movePointRight(quantityScale).longValueExact();
+    }
+
+    public BigDecimal toPrice(long priceTicks) {
+        return BigDecimal.valueOf(priceTicks, priceScale);
+    }
+
+    public BigDecimal toQuantity(long quantityLots) {
+        return BigDecimal.valueOf(quantityLots, quantityScale);
+    }
+
+    public int getPriceScale() { return priceScale; }
+    public int getQuantityScale() { return quantityScale; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PairScale)) return false;
+        PairScale other = (PairScale) o;
+        return priceScale == other.priceScale && quantityScale == other.quantityScale;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * priceScale + quantityScale;
+    }
+
+    @Override
+    public String toString() {
+        return "PairScale{price=" + priceScale + ", quantity=" + quantityScale + "}";
+    }
+}
@@ -0,0 +1,14 @@
+package com.phinity.matching.engine.config;
+
+/**
+ * How an engine pool runs the orders of its pairs.
+ */
+public enum PoolExecutionMode {
+    /** Every order goes to one shared thread pool; orders of a pair may run concurrently. */
+    SHARED,
+    /**
+     * Each pair is hashed to one single-threaded lane, so its orders run one at a time in arrival order
+     * and its book never sees a contended lock.
+     */
+    AFFINE_LANES
+}
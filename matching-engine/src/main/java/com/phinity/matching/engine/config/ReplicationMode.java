@@ -0,0 +1,16 @@
+package com.phinity.matching.engine.config;
+
+/**
+ * Whether a Disruptor engine streams its commands to a hot-standby follower, and whether results wait for it.
+ */
+public enum ReplicationMode {
+    /** No replication stage; a follower cannot be attached. */
+    NONE,
+    /** Commands are sent to the follower alongside publishing; a failover may lose the last acknowledged ones. */
+    ASYNC,
+    /**
+     * Results of a Disruptor batch are only published and acknowledged once the follower has applied the
+     * batch, so a promoted follower holds every result a client has seen.
+     */
+    ACK_BEFORE_PUBLISH
+}
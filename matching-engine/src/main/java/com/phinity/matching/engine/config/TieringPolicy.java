@@ -0,0 +1,54 @@
+package com.phinity.matching.engine.config;
+
+/**
+ * Thresholds of automatic tiering. A pair is promoted to the Disruptor tier when its order rate reaches
+ * {@code promoteOrdersPerSecond}, or when its rate is at least {@code demoteOrdersPerSecond} and its average
+ * latency reaches {@code promoteLatencyMicros}. It is demoted once its rate falls below
+ * {@code demoteOrdersPerSecond}. The gap between the two rates and the minimum dwell time keep a pair hovering
+ * around a threshold from moving back and forth.
+ */
+public final class TieringPolicy {
+    public static final TieringPolicy DEFAULT = new TieringPolicy(5_000, 1_000, 500, 16, 60_000, 1_000);
+
+    private final long promoteOrdersPerSecond;
+    private final long demoteOrdersPerSecond;
+    private final long promoteLatencyMicros;
+    private final int maxHotPairs;
+    private final long minDwellMillis;
+    private final long evaluationIntervalMillis;
+
+    /**
+     * @param maxHotPairs      high-volume pairs beyond which nothing is promoted, including pairs configured by hand
+     * @param minDwellMillis   time a pair stays in a tier before it may move again
+     */
+    public TieringPolicy(long promoteOrdersPerSecond, long demoteOrdersPerSecond, long promoteLatencyMicros,
+                         int maxHotPairs, long minDwellMillis, long evaluationIntervalMillis) {
+        if (demoteOrdersPerSecond < 0 || promoteOrdersPerSecond <= demoteOrdersPerSecond) {
+            throw new IllegalArgumentException("Promotion rate " + promoteOrdersPerSecond
+                    + " must be above demotion rate " + demoteOrdersPerSecond);
+        }
+        if (promoteLatencyMicros <= 0 || maxHotPairs < 0 || minDwellMillis < 0 || evaluationIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid tiering limits");
+        }
+        this.promoteOrdersPerSecond = promoteOrdersPerSecond;
+        this.demoteOrdersPerSecond = demoteOrdersPerSecond;
+        this.promoteLatencyMicros = promoteLatencyMicros;
+        this.maxHotPairs = maxHotPairs;
+        this.minDwellMillis = minDwellMillis;
+        this.evaluationIntervalMillis = evaluationIntervalMillis;
+    }
+
+    public long getPromoteOrdersPerSecond() { return promoteOrdersPerSecond; }
+    public long getDemoteOrdersPerSecond() { return demoteOrdersPerSecond; }
+    public long getPromoteLatencyMicros() { return promoteLatencyMicros; }
+    public int getMaxHotPairs() { return maxHotPairs; }
+    public long getMinDwellMillis() { return minDwellMillis; }
+    public long getEvaluationIntervalMillis() { return evaluationIntervalMillis; }
+
+    @Override
+    public String toString() {
+        return "TieringPolicy{promote=" + promoteOrdersPerSecond + "/s, demote=" + demoteOrdersPerSecond
+                + "/s, latency=" + promoteLatencyMicros + "us, maxHotPairs=" + maxHotPairs
+                + ", dwell=" + minDwellMillis + "ms, interval=" + evaluationIntervalMillis + "ms}";
+    }
+}
@@ -0,0 +1,41 @@
+package com.phinity.matching.engine.config;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.PhasedBackoffWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How the Disruptor handler threads of a pair wait for work, from lowest latency and highest CPU use to
+ * the reverse.
+ */
+public enum WaitStrategyType {
+    /**
+     * Spins on the sequence in the matching stage, which needs a core of its own; the later stages back off, see
+     * {@link MatchingSpinWaitStrategy}.
+     */
+    BUSY_SPIN,
+    /** Spins, then yields; low latency while still sharing cores. */
+    YIELDING,
+    /** Spins, yields, then falls back to blocking when idle. */
+    PHASED,
+    /** Parks on a lock; cheapest for pairs that trade rarely. */
+    BLOCKING;
+
+    public WaitStrategy newWaitStrategy() {
+        switch (this) {
+            case BUSY_SPIN:
+                return new MatchingSpinWaitStrategy();
+            case YIELDING:
+                return new YieldingWaitStrategy();
+            case PHASED:
+                return new PhasedBackoffWaitStrategy(1, 1, TimeUnit.MILLISECONDS, new YieldingWaitStrategy());
+            case BLOCKING:
+                return new BlockingWaitStrategy();
+            default:
+                throw new IllegalStateException("Unknown wait strategy " + this);
+        }
+    }
+}
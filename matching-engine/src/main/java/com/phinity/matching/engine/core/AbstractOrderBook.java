@@ -0,0 +1,944 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.common.dto.models.OrderBookUpdateEvent;
+import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.BookFeed;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.PairConfigurationManager;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.events.OrdersCancelledEvent;
+import com.phinity.matching.engine.metrics.MetricsCollector;
+import com.phinity.matching.engine.service.EventPublisher;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Matching logic shared by the book implementations. Resting orders are {@link BookOrder} nodes
+ * linked into their {@link PriceLevel} and indexed directly by {@code allOrders}, so cancels,
+ * quantity reductions and fill removals are O(1) regardless of how deep the level is. Levels keep
+ * running totals, which makes depth views O(levels) and FOK checks O(levels touched). Nodes that leave
+ * the book are recycled, so matching through a {@link TradeBuffer} does not allocate in steady state.
+ * <p>
+ * Subclasses supply the level storage of each side and, if needed, locking around the public operations.
+ */
+@Slf4j
+public abstract class AbstractOrderBook implements OrderBook {
+
+    protected final String symbol;
+    protected final PairScale scale;
+
+    private final BookSide bids;
+    private final BookSide asks;
+    private static final int MAX_FREE_ORDERS = 1 << 16;
+
+    private final OrderIndex allOrders = new OrderIndex();
+    private final UserIndex userOrders = new UserIndex();
+    // Ids of the orders taken recently, refused if they are delivered again after leaving the book
+    private final OrderIdWindow recentOrderIds = new OrderIdWindow(
+            PairConfigurationManager.DEFAULT_ORDER_ID_WINDOW_MS, PairConfigurationManager.DEFAULT_MAX_ORDER_IDS);
+    // Ids the window forgot before their time because it was at its capacity
+    private long orderIdsForgottenEarly = 0;
+    private BookOrder freeOrders;
+    private int freeOrderCount;
+    // Fills of the List<Trade> based calls, only used under the write lock
+    private final TradeBuffer tradeScratch = new TradeBuffer();
+    // Ids of the orders of a mass cancel to report, only used under the write lock
+    private final List<String> cancelScratch = new ArrayList<>();
+
+    private long tradeIdCounter = 0;
+    // Commands applied to the book, tags snapshots with the point they were taken at
+    private long sequence = 0;
+    // Orders that came to rest so far, numbers each one in arrival order
+    private long arrivals = 0;
+    // Snapshot being copied in steps between commands, handed every order before it changes
+    private SnapshotCapture capture;
+    private final Object snapshotLock = new Object();
+    private EventPublisher eventPublisher;
+    private boolean conflateBookUpdates;
+    private boolean incrementalFeed;
+    private long snapshotIntervalMillis;
+    private final AtomicBoolean bookUpdatePending = new AtomicBoolean();
+    private final TickerCell ticker = new TickerCell();
+    private final CandleStore candles = new CandleStore();
+    // Closed bars on their way to the publisher, only used under the write lock
+    private final List<Candle> closedCandles = new ArrayList<>();
+    // Events of the command in progress, queued in command order when the write lock is released
+    private Publication publication;
+    private final Queue<Publication> publications = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean publishing = new AtomicBoolean();
+
+    private final ArrayList<PriceLevel> changedLevels = new ArrayList<>();
+    private long deltaSequence = 0;
+    private long lastSnapshotMillis = 0;
+
+    AbstractOrderBook(String symbol, PairScale scale, BookSide bids, BookSide asks) {
+        this.symbol = symbol;
+        this.scale = scale;
+        this.bids = bids;
+        this.asks = asks;
+    }
+
+    protected void lockWrite() {
+    }
+
+    protected void unlockWrite() {
+    }
+
+    protected void lockRead() {
+    }
+
+    protected void unlockRead() {
+    }
+
+    @Override
+    public void setEventPublisher(EventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public void configurePublication(BookUpdateMode mode, BookFeed feed, long snapshotIntervalMillis) {
+        lockWrite();
+        try {
+            this.conflateBookUpdates = mode == BookUpdateMode.CONFLATED;
+            this.incrementalFeed = feed == BookFeed.INCREMENTAL;
+            this.snapshotIntervalMillis = snapshotIntervalMillis;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    @Override
+    public void configureOrderIdWindow(long windowMillis, int maxOrderIds) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Order id window must not be negative: " + windowMillis);
+        }
+        if (maxOrderIds < 0) {
+            throw new IllegalArgumentException("Order id window capacity must not be negative: " + maxOrderIds);
+        }
+        lockWrite();
+        try {
+            recentOrderIds.resize(windowMillis, maxOrderIds);
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    @Override
+    public boolean flushBookUpdate() {
+        if (eventPublisher == null) {
+            return false;
+        }
+        BookUpdate update = new BookUpdate();
+        if (!drainBookUpdate(update)) {
+            return false;
+        }
+        eventPublisher.publishBookUpdate(symbol, scale, update);
+        return true;
+    }
+
+    @Override
+    public boolean drainBookUpdate(BookUpdate update) {
+        if (!bookUpdatePending.compareAndSet(true, false)) {
+            return false;
+        }
+        captureBookUpdate(update, System.currentTimeMillis());
+        return !update.isEmpty();
+    }
+
+    /**
+     * Called with the write lock held after every command that may have changed the resting orders.
+     */
+    private void bookChanged(long timeMillis) {
+        if (conflateBookUpdates) {
+            if (!bookUpdatePending.get()) {
+                bookUpdatePending.set(true);
+            }
+        } else if (eventPublisher != null) {
+            BookUpdate update = new BookUpdate();
+            captureBookUpdate(update, timeMillis);
+            if (!update.isEmpty()) {
+                publication().bookUpdate = update;
+            }
+        }
+    }
+
+    /**
+     * Takes the read lock, which keeps writers out; drains running at once, such as a flush timer racing a
+     * hibernation, are kept apart by the monitor on the changed levels they both consume.
+     */
+    private void captureBookUpdate(BookUpdate update, long now) {
+        lockRead();
+        try {
+            synchronized (changedLevels) {
+                captureBookUpdateLocked(update, now);
+            }
+        } finally {
+            unlockRead();
+        }
+    }
+
+    private void captureBookUpdateLocked(BookUpdate update, long now) {
+        update.clear();
+        if (!incrementalFeed) {
+            captureLevels(bids, EventPublisher.ORDER_BOOK_DEPTH, update.getLevels());
+            captureLevels(asks, EventPublisher.ORDER_BOOK_DEPTH, update.getLevels());
+            update.setDepth();
+            return;
+        }
+
+        if (!changedLevels.isEmpty()) {
+            BookUpdate.Levels levels = update.getLevels();
+            for (int i = 0; i < changedLevels.size(); i++) {
+                PriceLevel level = changedLevels.get(i);
+                level.changed = false;
+                levels.add(level.side, level.price, level.totalQuantity, level.orderCount);
+            }
+            changedLevels.clear();
+            update.setDelta(++deltaSequence);
+        }
+        if (now - lastSnapshotMillis >= snapshotIntervalMillis) {
+            lastSnapshotMillis = now;
+            captureLevels(bids, Integer.MAX_VALUE, update.getSnapshotLevels());
+            captureLevels(asks, Integer.MAX_VALUE, update.getSnapshotLevels());
+            update.setSnapshot(deltaSequence);
+        }
+    }
+
+    private static void captureLevels(BookSide book, int depth, BookUpdate.Levels levels) {
+        int count = 0;
+        for (PriceLevel level = book.best(); level != null && count < depth; level = book.next(level), count++) {
+            levels.add(level.side, level.price, level.totalQuantity, level.orderCount);
+        }
+    }
+
+    private void markChanged(PriceLevel level) {
+        if (incrementalFeed && !level.changed) {
+            level.changed = true;
+            changedLevels.add(level);
+        }
+    }
+
+    @Override
+    public String getSymbol() {
+        return symbol;
+    }
+
+    @Override
+    public PairScale getScale() {
+        return scale;
+    }
+
+    @Override
+    public List<Trade> matchOrder(PendingOrders order) {
+        long price;
+        long quantity;
+        try {
+            price = order.getPrice() != null ? scale.toPriceTicks(order.getPrice()) : 0L;
+            quantity = scale.toQuantityLots(order.getRemainingQuantity());
+        } catch (ArithmeticException e) {
+            MetricsCollector.getInstance().recordRejectedOrder();
+            throw new OrderRejectedException("Order " + order.getOrderId() + " is not representable at " + scale + " for " + symbol, e);
+        }
+        List<Trade> trades = matchOrder(order.getOrderId(), order.getUserId(), order.getSide(), order.getOrderType(),
+                order.getTimeInForce(), price, quantity);
+        long filled = 0;
+        for (Trade trade : trades) {
+            filled += trade.getQuantityLots();
+        }
+        if (filled > 0) {
+            order.reduceQuantity(scale.toQuantity(filled));
+        }
+        return trades;
+    }
+
+    @Override
+    public List<Trade> matchOrder(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+                                  long price, long quantity) {
+        long timeMillis = System.currentTimeMillis();
+        lockWrite();
+        try {
+            acceptOrderId(orderId, timeMillis);
+            sequence++;
+            match(newOrder(orderId, userId, side, orderType, timeInForce, price, quantity), tradeScratch);
+            List<Trade> trades = tradeScratch.toTrades(symbol, scale);
+            publishMarketData(tradeScratch, timeMillis);
+            tradeScratch.clear();
+
+            if (eventPublisher != null && !trades.isEmpty()) {
+                publication().trades = trades;
+            }
+            bookChanged(timeMillis);
+
+            return trades;
+        } finally {
+            unlockWriteAndPublish();
+        }
+    }
+
+    @Override
+    public long matchOrder(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+                           long price, long quantity, TradeBuffer fills) {
+        long timeMillis = fills.getTimestamp() != 0 ? fills.getTimestamp() : System.currentTimeMillis();
+        lockWrite();
+        try {
+            acceptOrderId(orderId, timeMillis);
+            sequence++;
+            long remaining = match(newOrder(orderId, userId, side, orderType, timeInForce, price, quantity), fills);
+            publishMarketData(fills, timeMillis);
+            bookChanged(timeMillis);
+            return remaining;
+        } finally {
+            unlockWriteAndPublish();
+        }
+    }
+
+    /**
+     * Refuses an id that rests on the book or was taken within the window and remembers it otherwise. Called with
+     * the write lock held, before the order changes anything. The window goes by the time of the command, so a
+     * replay of the journal expires the same ids.
+     */
+    private void acceptOrderId(String orderId, long timeMillis) {
+        if (orderId == null) {
+            return;
+        }
+        recentOrderIds.expire(timeMillis);
+        if (allOrders.get(orderId) != null || recentOrderIds.contains(orderId)) {
+            MetricsCollector.getInstance().recordRejectedOrder();
+            throw new OrderRejectedException("Duplicate order " + orderId + " for " + symbol);
+        }
+        if (recentOrderIds.add(orderId, timeMillis)) {
+            MetricsCollector.getInstance().recordOrderIdForgottenEarly();
+            long forgotten = ++orderIdsForgottenEarly;
+            if ((forgotten & (forgotten - 1)) == 0) {
+                log.warn("Order id window of {} is full, {} ids forgotten before their time; its capacity should "
+                        + "cover the peak order rate times the window", symbol, forgotten);
+            }
+        }
+    }
+
+    private BookOrder newOrder(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+                               long price, long quantity) {
+        return acquireOrder().init(
+                orderId,
+                userId,
+                side,
+                orderType != null ? orderType : OrderType.LIMIT,
+                timeInForce != null ? timeInForce : TimeInForce.GTC,
+                price,
+                quantity,
+                quantity
+        );
+    }
+
+    /**
+     * Matches the order, then rests it or recycles it. Called with the write lock held.
+     *
+     * @return the quantity left unfilled
+     */
+    private long match(BookOrder order, TradeBuffer fills) {
+        fills.clear();
+        fills.begin(order.orderId, order.userId, order.side == Side.BUY);
+
+        if (order.timeInForce == TimeInForce.FOK && !canFillCompletely(order)) {
+            MetricsCollector.getInstance().recordRejectedOrder();
+            long remaining = order.remaining;
+            releaseOrder(order);
+            return remaining;
+        }
+
+        match(order, order.side == Side.BUY ? asks : bids, fills);
+
+        long remaining = order.remaining;
+        boolean shouldAddToBook = !order.isFilled() &&
+                !order.isMarket() &&
+                order.timeInForce == TimeInForce.GTC;
+
+        if (shouldAddToBook) {
+            addOrderToBook(order);
+        } else {
+            releaseOrder(order);
+        }
+        return remaining;
+    }
+
+    private void match(BookOrder takerOrder, BookSide book, TradeBuffer fills) {
+        PriceLevel level = book.best();
+        while (!takerOrder.isFilled() && level != null) {
+            if (!takerOrder.isMarket() && !crosses(takerOrder, level.price)) {
+                break;
+            }
+
+            BookOrder makerOrder = level.head;
+            long tradeQuantity = Math.min(takerOrder.remaining, makerOrder.remaining);
+
+            fills.add(++tradeIdCounter, makerOrder.orderId, makerOrder.userId, level.price, tradeQuantity);
+
+            takerOrder.remaining -= tradeQuantity;
+            if (capture != null) {
+                capture.beforeChange(makerOrder);
+            }
+            level.reduce(makerOrder, tradeQuantity);
+            markChanged(level);
+
+            if (makerOrder.isFilled()) {
+                allOrders.remove(makerOrder);
+                userOrders.remove(makerOrder);
+                if (capture != null) {
+                    capture.beforeRemove(makerOrder);
+                }
+                level.remove(makerOrder);
+                releaseOrder(makerOrder);
+                if (level.isEmpty()) {
+                    book.remove(level);
+                    level = book.best();
+                }
+            }
+        }
+    }
+
+    private BookOrder acquireOrder() {
+        BookOrder order = freeOrders;
+        if (order == null) {
+            return new BookOrder();
+        }
+        freeOrders = order.hashNext;
+        order.hashNext = null;
+        freeOrderCount--;
+        return order;
+    }
+
+    private void releaseOrder(BookOrder order) {
+        if (freeOrderCount < MAX_FREE_ORDERS) {
+            order.reset();
+            order.hashNext = freeOrders;
+            freeOrders = order;
+            freeOrderCount++;
+        }
+    }
+
+    private static boolean crosses(BookOrder taker, long makerPrice) {
+        return taker.side == Side.BUY ? taker.price >= makerPrice : taker.price <= makerPrice;
+    }
+
+    private void addOrderToBook(BookOrder order) {
+        BookSide book = order.side == Side.BUY ? bids : asks;
+        PriceLevel level = book.getOrCreate(order.price);
+        order.arrival = ++arrivals;
+        level.append(order);
+        markChanged(level);
+        allOrders.put(order);
+        userOrders.add(order);
+    }
+
+    /**
+     * Unlinks the order; the caller recycles it once it no longer reads it.
+     */
+    private void removeFromBook(BookOrder order) {
+        allOrders.remove(order);
+        userOrders.remove(order);
+        PriceLevel level = order.level;
+        if (capture != null) {
+            capture.beforeRemove(order);
+        }
+        level.remove(order);
+        markChanged(level);
+        if (level.isEmpty()) {
+            (order.side == Side.BUY ? bids : asks).remove(level);
+        }
+    }
+
+    @Override
+    public boolean cancelOrder(String orderId) {
+        long timeMillis = System.currentTimeMillis();
+        lockWrite();
+        try {
+            sequence++;
+            BookOrder order = allOrders.get(orderId);
+            if (order == null) {
+                publishMarketData(null, timeMillis);
+                return false;
+            }
+            removeFromBook(order);
+            releaseOrder(order);
+            publishMarketData(null, timeMillis);
+            bookChanged(timeMillis);
+            return true;
+        } finally {
+            unlockWriteAndPublish();
+        }
+    }
+
+    @Override
+    public int cancelAllOrders(String userId) {
+        return cancelAllOrders(userId, null, null);
+    }
+
+    /**
+     * Walks the user's list in the {@link UserIndex}, so it takes time proportional to the user's resting
+     * orders however deep the book is; cancelling a whole side walks that side. The book update of all the
+     * cancels is published once, and so is the cancel report if the book has an event publisher.
+     */
+    @Override
+    public int cancelAllOrders(String userId, Side side, List<String> cancelledOrderIds) {
+        long timeMillis = System.currentTimeMillis();
+        lockWrite();
+        try {
+            sequence++;
+            List<String> orderIds = cancelledOrderIds != null ? cancelledOrderIds : eventPublisher != null ? cancelScratch : null;
+            int start = orderIds != null ? orderIds.size() : 0;
+            int cancelled;
+            if (userId != null) {
+                cancelled = cancelUserOrders(userId, side, orderIds);
+            } else {
+                cancelled = (side != Side.SELL ? cancelAllOrders(bids, orderIds) : 0)
+                        + (side != Side.BUY ? cancelAllOrders(asks, orderIds) : 0);
+            }
+            publishMarketData(null, timeMillis);
+            if (cancelled > 0) {
+                bookChanged(timeMillis);
+                if (eventPublisher != null) {
+                    publication().ordersCancelled = new OrdersCancelledEvent(symbol, userId, side,
+                            new ArrayList<>(orderIds.subList(start, orderIds.size())));
+                }
+            }
+            return cancelled;
+        } finally {
+            cancelScratch.clear();
+            unlockWriteAndPublish();
+        }
+    }
+
+    private int cancelUserOrders(String userId, Side side, List<String> orderIds) {
+        UserIndex.Entry entry = userOrders.get(userId);
+        if (entry == null) {
+            return 0;
+        }
+        int cancelled = 0;
+        BookOrder order = entry.head;
+        while (order != null) {
+            BookOrder next = order.userNext;
+            if (side == null || order.side == side) {
+                if (orderIds != null) {
+                    orderIds.add(order.orderId);
+                }
+                removeFromBook(order);
+                releaseOrder(order);
+                cancelled++;
+            }
+            order = next;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Cancels every order on one side of the book.
+     */
+    private int cancelAllOrders(BookSide book, List<String> orderIds) {
+        int cancelled = 0;
+        PriceLevel level = book.best();
+        while (level != null) {
+            BookOrder order = level.head;
+            while (order != null) {
+                BookOrder next = order.next;
+                if (orderIds != null) {
+                    orderIds.add(order.orderId);
+                }
+                allOrders.remove(order);
+                userOrders.remove(order);
+                if (capture != null) {
+                    capture.beforeRemove(order);
+                }
+                level.remove(order);
+                releaseOrder(order);
+                cancelled++;
+                order = next;
+            }
+            markChanged(level);
+            PriceLevel nextLevel = book.next(level);
+            book.remove(level);
+            level = nextLevel;
+        }
+        return cancelled;
+    }
+
+    @Override
+    public PendingOrders modifyOrder(String orderId, BigDecimal newPrice, BigDecimal newQuantity) {
+        long price;
+        long quantity;
+        try {
+            price = newPrice != null ? scale.toPriceTicks(newPrice) : UNCHANGED;
+            quantity = newQuantity != null ? scale.toQuantityLots(newQuantity) : UNCHANGED;
+        } catch (ArithmeticException e) {
+            throw new OrderRejectedException("Modification of " + orderId + " is not representable at " + scale + " for " + symbol, e);
+        }
+        return modifyOrder(orderId, price, quantity);
+    }
+
+    @Override
+    public PendingOrders modifyOrder(String orderId, long newPrice, long newQuantity) {
+        long timeMillis = System.currentTimeMillis();
+        lockWrite();
+        try {
+            sequence++;
+            BookOrder existingOrder = allOrders.get(orderId);
+            if (existingOrder == null) {
+                return null;
+            }
+
+            long price = newPrice != UNCHANGED ? newPrice : existingOrder.price;
+            long quantity = newQuantity != UNCHANGED ? newQuantity : existingOrder.quantity;
+
+            if (price == existingOrder.price && newQuantity != UNCHANGED && quantity <= existingOrder.remaining) {
+                // Reducing in place keeps time priority
+                if (capture != null) {
+                    capture.beforeChange(existingOrder);
+                }
+                existingOrder.level.reduce(existingOrder, existingOrder.remaining - quantity);
+                markChanged(existingOrder.level);
+                PendingOrders modified = existingOrder.toPendingOrders(symbol, scale);
+                if (existingOrder.isFilled()) {
+                    removeFromBook(existingOrder);
+                    releaseOrder(existingOrder);
+                }
+                bookChanged(timeMillis);
+                return modified;
+            }
+
+            removeFromBook(existingOrder);
+            BookOrder newOrder = acquireOrder().init(
+                    orderId,
+                    existingOrder.userId,
+                    existingOrder.side,
+                    existingOrder.orderType,
+                    existingOrder.timeInForce,
+                    price,
+                    quantity,
+                    quantity
+            );
+            releaseOrder(existingOrder);
+
+            PendingOrders modified = newOrder.toPendingOrders(symbol, scale);
+            if (newOrder.isFilled()) {
+                releaseOrder(newOrder);
+            } else {
+                addOrderToBook(newOrder);
+            }
+            bookChanged(timeMillis);
+            return modified;
+        } finally {
+            // The command may leave through any of the returns above
+            publishMarketData(null, timeMillis);
+            unlockWriteAndPublish();
+        }
+    }
+
+    @Override
+    public List<PendingOrders> getBids() {
+        return snapshot().getBids();
+    }
+
+    @Override
+    public List<PendingOrders> getAsks() {
+        return snapshot().getAsks();
+    }
+
+    /**
+     * Copies the book in steps of {@link SnapshotCapture#STEP_ORDERS} orders, each under the read lock, so
+     * commands run between the steps. Callers taking snapshots at once wait for each other.
+     */
+    @Override
+    public OrderBookSnapshot snapshot() {
+        synchronized (snapshotLock) {
+            SnapshotCapture started = beginSnapshot();
+            while (!started.step()) {
+                // Writers waiting for the lock go between the steps
+            }
+            return started.getSnapshot();
+        }
+    }
+
+    /**
+     * Takes the counters, trade statistics, candles and order id window as they are; the resting orders are
+     * copied by the capture's steps.
+     */
+    @Override
+    public SnapshotCapture beginSnapshot() {
+        lockWrite();
+        try {
+            finishCapture();
+            capture = new SnapshotCapture(this, bids, asks, arrivals, tradeIdCounter, sequence,
+                    ticker.copyStatistics(), candles.copy(), recentOrderIds.toList(), recentOrderIds.toTimes());
+            return capture;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Node of a resting order, for inspecting the book's queues on the thread that applies its commands.
+     */
+    BookOrder restingOrder(String orderId) {
+        return allOrders.get(orderId);
+    }
+
+    boolean advanceCapture(SnapshotCapture started, int orders) {
+        lockRead();
+        try {
+            boolean complete = started.copy(orders);
+            if (complete && capture == started) {
+                capture = null;
+            }
+            return complete;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Copies the rest of the capture in progress, if any, in one go. Called with the write lock held.
+     */
+    private void finishCapture() {
+        if (capture != null) {
+            capture.copy(Integer.MAX_VALUE);
+            capture = null;
+        }
+    }
+
+    @Override
+    public List<Candle> getCandles(CandleInterval interval, int limit) {
+        return candles.read(symbol, scale, interval, limit);
+    }
+
+    @Override
+    public boolean closeDueCandles(long timeMillis) {
+        if (!hasDueCandles(timeMillis)) {
+            return false;
+        }
+        lockWrite();
+        try {
+            candles.update(null, timeMillis - CANDLE_CLOSE_DELAY_MS);
+            if (eventPublisher != null && candles.drainClosed(symbol, scale, closedCandles)) {
+                publication().candles = new ArrayList<>(closedCandles);
+                closedCandles.clear();
+            }
+            return true;
+        } finally {
+            unlockWriteAndPublish();
+        }
+    }
+
+    @Override
+    public boolean hasDueCandles(long timeMillis) {
+        return candles.isDue(timeMillis - CANDLE_CLOSE_DELAY_MS);
+    }
+
+    @Override
+    public boolean drainClosedCandles(List<Candle> candles) {
+        lockWrite();
+        try {
+            return this.candles.drainClosed(symbol, scale, candles);
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Reads the cell the writer publishes to after every command, without taking the book lock.
+     */
+    @Override
+    public Ticker getTicker() {
+        return ticker.read(symbol, scale);
+    }
+
+    @Override
+    public long getSequence() {
+        lockRead();
+        try {
+            return sequence;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    @Override
+    public void restore(OrderBookSnapshot snapshot) {
+        if (!symbol.equals(snapshot.getSymbol())) {
+            throw new IllegalArgumentException("Snapshot of " + snapshot.getSymbol() + " cannot be restored into " + symbol);
+        }
+        long timeMillis = System.currentTimeMillis();
+        lockWrite();
+        try {
+            if (bids.best() != null || asks.best() != null) {
+                throw new IllegalStateException("Cannot restore into non-empty book " + symbol);
+            }
+            finishCapture();
+            try {
+                restoreOrders(snapshot.getBids());
+                restoreOrders(snapshot.getAsks());
+            } catch (ArithmeticException e) {
+                cancelAllOrders(bids, null);
+                cancelAllOrders(asks, null);
+                throw new IllegalArgumentException("Snapshot of " + symbol + " is not representable at " + scale, e);
+            }
+            recentOrderIds.restore(snapshot.getRecentOrderIds(), snapshot.getRecentOrderIdTimes(),
+                    System.currentTimeMillis());
+            tradeIdCounter = Math.max(tradeIdCounter, snapshot.getLastTradeId());
+            sequence = Math.max(sequence, snapshot.getSequence());
+            TradeStatistics statistics = snapshot.getTradeStatistics();
+            if (statistics != null) {
+                ticker.adoptStatistics(statistics);
+            }
+            if (snapshot.getCandles() != null) {
+                candles.adopt(snapshot.getCandles());
+            }
+            publishMarketData(null, timeMillis);
+            // Consumers of the incremental feed resynchronise from the next full snapshot
+            lastSnapshotMillis = 0;
+            bookChanged(timeMillis);
+        } finally {
+            unlockWriteAndPublish();
+        }
+    }
+
+    private void restoreOrders(List<PendingOrders> orders) {
+        for (PendingOrders order : orders) {
+            addOrderToBook(acquireOrder().init(
+                    order.getOrderId(),
+                    order.getUserId(),
+                    order.getSide(),
+                    order.getOrderType() != null ? order.getOrderType() : OrderType.LIMIT,
+                    order.getTimeInForce() != null ? order.getTimeInForce() : TimeInForce.GTC,
+                    scale.toPriceTicks(order.getPrice()),
+                    scale.toQuantityLots(order.getQuantity()),
+                    scale.toQuantityLots(order.getRemainingQuantity())
+            ));
+        }
+    }
+
+    /**
+     * Publishes the top of book and the command's fills to the ticker and the candles, and hands the bars the
+     * command closed to the event publisher if there is one. Commands are stamped with the time of their fills if
+     * the caller set one, so replays reproduce both; the clock is read before the write lock is taken.
+     */
+    private void publishMarketData(TradeBuffer fills, long timeMillis) {
+        ticker.update(bids.best(), asks.best(), fills, sequence, timeMillis);
+        candles.update(fills, timeMillis);
+        if (eventPublisher != null && candles.drainClosed(symbol, scale, closedCandles)) {
+            publication().candles = new ArrayList<>(closedCandles);
+            closedCandles.clear();
+        }
+    }
+
+    private Publication publication() {
+        if (publication == null) {
+            publication = new Publication();
+        }
+        return publication;
+    }
+
+    /**
+     * Releases the write lock, then publishes the events of the command, so no publisher call is made under the
+     * book lock. The events are queued before the lock is released, which keeps concurrent commands in order.
+     */
+    private void unlockWriteAndPublish() {
+        Publication pending = publication;
+        if (pending != null) {
+            publication = null;
+            publications.add(pending);
+        }
+        unlockWrite();
+        if (pending != null) {
+            publishQueued();
+        }
+    }
+
+    /**
+     * Publishes the queued events in command order. One thread at a time drains the queue, and a command that
+     * finds it taken returns without waiting; the queue is checked again after each drain, so events queued
+     * meanwhile are not left behind.
+     */
+    private void publishQueued() {
+        while (!publications.isEmpty() && publishing.compareAndSet(false, true)) {
+            try {
+                Publication pending;
+                while ((pending = publications.poll()) != null) {
+                    publish(pending);
+                }
+            } finally {
+                publishing.set(false);
+            }
+        }
+    }
+
+    private void publish(Publication pending) {
+        try {
+            if (pending.candles != null) {
+                eventPublisher.publishCandles(symbol, pending.candles);
+            }
+            if (pending.trades != null) {
+                log.debug("DEBUG: Publishing trade execution event");
+                eventPublisher.publishTradeExecution(symbol, pending.trades);
+            }
+            if (pending.bookUpdate != null) {
+                eventPublisher.publishBookUpdate(symbol, scale, pending.bookUpdate);
+            }
+            if (pending.ordersCancelled != null) {
+                eventPublisher.publishOrdersCancelled(pending.ordersCancelled);
+            }
+        } catch (RuntimeException e) {
+            // The events may belong to another thread's command, so the failure stays here
+            log.error("Failed to publish events of {}", symbol, e);
+        }
+    }
+
+    /**
+     * Events of one command, collected under the write lock.
+     */
+    private static final class Publication {
+        List<Candle> candles;
+        List<Trade> trades;
+        BookUpdate bookUpdate;
+        OrdersCancelledEvent ordersCancelled;
+    }
+
+    @Override
+    public List<OrderBookUpdateEvent.OrderLevel> getAggregatedDepth(Side side, int depth) {
+        lockRead();
+        try {
+            BookSide book = side == Side.BUY ? bids : asks;
+            List<OrderBookUpdateEvent.OrderLevel> depthLevels = new ArrayList<>(Math.min(depth, 64));
+            for (PriceLevel level = book.best(); level != null && depthLevels.size() < depth; level = book.next(level)) {
+                depthLevels.add(new OrderBookUpdateEvent.OrderLevel(
+                        scale.toPrice(level.price), scale.toQuantity(level.totalQuantity), level.orderCount));
+            }
+            return depthLevels;
+        } finally {
+            unlockRead();
+        }
+    }
+
+    private boolean canFillCompletely(BookOrder order) {
+        long availableQuantity = 0;
+        BookSide book = order.side == Side.BUY ? asks : bids;
+        for (PriceLevel level = book.best(); level != null; level = book.next(level)) {
+            if (!order.isMarket() && !crosses(order, level.price)) {
+                break;
+            }
+            availableQuantity += level.totalQuantity;
+            if (availableQuantity >= order.remaining) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,94 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.PairScale;
+
+/**
+ * Order as held by the book: price in ticks and quantities in lots of the pair's {@link PairScale}.
+ * Nodes are recycled by the book once they leave it, so no reference may be kept after that.
+ */
+final class BookOrder {
+    String orderId;
+    // Hash of the id, so index lookups only compare ids whose hash matches
+    int orderIdHash;
+    String userId;
+    Side side;
+    OrderType orderType;
+    TimeInForce timeInForce;
+    long price;
+    long quantity;
+    long remaining;
+    // Number the book gave the order when it came to rest, in arrival order
+    long arrival;
+    // Snapshot capture that already holds a copy of the order
+    SnapshotCapture capture;
+
+    BookOrder prev;
+    BookOrder next;
+    PriceLevel level;
+    // Chain of the OrderIndex bucket, or of the book's free list while recycled
+    BookOrder hashNext;
+    // List of the user's resting orders in the UserIndex
+    UserIndex.Entry userEntry;
+    BookOrder userPrev;
+    BookOrder userNext;
+
+    BookOrder() {
+    }
+
+    BookOrder(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+              long price, long quantity, long remaining) {
+        init(orderId, userId, side, orderType, timeInForce, price, quantity, remaining);
+    }
+
+    BookOrder init(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+                   long price, long quantity, long remaining) {
+        this.orderId = orderId;
+        this.orderIdHash = orderId != null ? orderId.hashCode() : 0;
+        this.userId = userId;
+        this.side = side;
+        this.orderType = orderType;
+        this.timeInForce = timeInForce;
+        this.price = price;
+        this.quantity = quantity;
+        this.remaining = remaining;
+        return this;
+    }
+
+    void reset() {
+        orderId = null;
+        userId = null;
+        side = null;
+        orderType = null;
+        timeInForce = null;
+        prev = null;
+        next = null;
+        level = null;
+        userEntry = null;
+        userPrev = null;
+        userNext = null;
+        capture = null;
+    }
+
+    boolean isFilled() {
+        return remaining <= 0;
+    }
+
+    boolean isMarket() {
+        return orderType == OrderType.MARKET;
+    }
+
+    PendingOrders toPendingOrders(String symbol, PairScale scale) {
+        PendingOrders order = new PendingOrders(orderId, symbol, side, scale.toPrice(price), scale.toQuantity(quantity));
+        order.setOrderType(orderType);
+        order.setTimeInForce(timeInForce);
+        order.setUserId(userId);
+        if (remaining < quantity) {
+            order.reduceQuantity(scale.toQuantity(quantity - remaining));
+        }
+        return order;
+    }
+}
@@ -0,0 +1,21 @@
+package com.phinity.matching.engine.core;
+
+/**
+ * Price levels of one side of a book, ordered from the touch outwards.
+ */
+interface BookSide {
+
+    PriceLevel best();
+
+    /**
+     * @return the next level away from the touch, or null if the given level is the last one
+     */
+    PriceLevel next(PriceLevel level);
+
+    PriceLevel getOrCreate(long price);
+
+    /**
+     * Removes a level that has become empty.
+     */
+    void remove(PriceLevel level);
+}
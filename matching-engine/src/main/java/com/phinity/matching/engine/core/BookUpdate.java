@@ -0,0 +1,98 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.Side;
+
+import java.util.Arrays;
+
+/**
+ * Book update captured from a book in raw ticks and lots, so it can be turned into Kafka events away
+ * from the thread that owns the book. Instances are reusable, {@link #clear()} keeps the allocated capacity.
+ */
+public final class BookUpdate {
+
+    public enum Type {
+        NONE,
+        /** {@link #getLevels()} holds the top levels of both sides, bids first. */
+        DEPTH,
+        /** {@link #getLevels()} holds the levels changed since the previous delta. */
+        DELTA
+    }
+
+    private Type type = Type.NONE;
+    private long sequence;
+    private boolean snapshot;
+    private final Levels levels = new Levels();
+    private final Levels snapshotLevels = new Levels();
+
+    public Type getType() { return type; }
+    public long getSequence() { return sequence; }
+    public Levels getLevels() { return levels; }
+
+    /**
+     * @return true if {@link #getSnapshotLevels()} holds every level of the book as of {@link #getSequence()}
+     */
+    public boolean hasSnapshot() { return snapshot; }
+    public Levels getSnapshotLevels() { return snapshotLevels; }
+
+    public boolean isEmpty() {
+        return type == Type.NONE && !snapshot;
+    }
+
+    public void clear() {
+        type = Type.NONE;
+        sequence = 0;
+        snapshot = false;
+        levels.clear();
+        snapshotLevels.clear();
+    }
+
+    void setDepth() {
+        type = Type.DEPTH;
+    }
+
+    void setDelta(long sequence) {
+        this.type = Type.DELTA;
+        this.sequence = sequence;
+    }
+
+    void setSnapshot(long sequence) {
+        this.sequence = sequence;
+        this.snapshot = true;
+    }
+
+    /**
+     * Growable columns of (side, price, quantity, order count).
+     */
+    public static final class Levels {
+        private Side[] sides = new Side[64];
+        private long[] prices = new long[64];
+        private long[] quantities = new long[64];
+        private int[] orderCounts = new int[64];
+        private int size;
+
+        void add(Side side, long price, long quantity, int orderCount) {
+            if (size == prices.length) {
+                int capacity = size * 2;
+                sides = Arrays.copyOf(sides, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                orderCounts = Arrays.copyOf(orderCounts, capacity);
+            }
+            sides[size] = side;
+            prices[size] = price;
+            quantities[size] = quantity;
+            orderCounts[size] = orderCount;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        public int size() { return size; }
+        public Side side(int index) { return sides[index]; }
+        public long price(int index) { return prices[index]; }
+        public long quantity(int index) { return quantities[index]; }
+        public int orderCount(int index) { return orderCounts[index]; }
+    }
+}
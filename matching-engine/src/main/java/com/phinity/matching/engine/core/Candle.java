@@ -0,0 +1,57 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.matching.engine.config.PairScale;
+
+import java.math.BigDecimal;
+
+/**
+ * One OHLCV bar of a pair. Prices are in ticks and volume in lots of the pair's scale, with decimal getters
+ * converting them. A bar is closed once the book has seen a command after its end; until then it is the bar
+ * in progress and may still change.
+ */
+public final class Candle {
+    private final String symbol;
+    private final PairScale scale;
+    private final CandleInterval interval;
+    private final long openTimeMillis;
+    private final long openTicks;
+    private final long highTicks;
+    private final long lowTicks;
+    private final long closeTicks;
+    private final long volumeLots;
+    private final long tradeCount;
+    private final boolean closed;
+
+    Candle(String symbol, PairScale scale, CandleInterval interval, long openTimeMillis, long openTicks, long highTicks,
+           long lowTicks, long closeTicks, long volumeLots, long tradeCount, boolean closed) {
+        this.symbol = symbol;
+        this.scale = scale;
+        this.interval = interval;
+        this.openTimeMillis = openTimeMillis;
+        this.openTicks = openTicks;
+        this.highTicks = highTicks;
+        this.lowTicks = lowTicks;
+        this.closeTicks = closeTicks;
+        this.volumeLots = volumeLots;
+        this.tradeCount = tradeCount;
+        this.closed = closed;
+    }
+
+    public String getSymbol() { return symbol; }
+    public CandleInterval getInterval() { return interval; }
+    public long getOpenTimeMillis() { return openTimeMillis; }
+    public long getCloseTimeMillis() { return openTimeMillis + interval.getMillis(); }
+    public long getOpenTicks() { return openTicks; }
+    public long getHighTicks() { return highTicks; }
+    public long getLowTicks() { return lowTicks; }
+    public long getCloseTicks() { return closeTicks; }
+    public long getVolumeLots() { return volumeLots; }
+    public long getTradeCount() { return tradeCount; }
+    public boolean isClosed() { return closed; }
+
+    public BigDecimal getOpen() { return scale.toPrice(openTicks); }
+    public BigDecimal getHigh() { return scale.toPrice(highTicks); }
+    public BigDecimal getLow() { return scale.toPrice(lowTicks); }
+    public BigDecimal getClose() { return scale.toPrice(closeTicks); }
+    public BigDecimal getVolume() { return scale.toQuantity(volumeLots); }
+}
@@ -0,0 +1,24 @@
+package com.phinity.matching.engine.core;
+
+/**
+ * Bar lengths the books aggregate trades into. Bars are aligned to multiples of their length since the epoch,
+ * so daily bars run from midnight to midnight UTC.
+ */
+public enum CandleInterval {
+    ONE_SECOND("1s", 1_000L),
+    ONE_MINUTE("1m", 60_000L),
+    FIVE_MINUTES("5m", 5 * 60_000L),
+    ONE_HOUR("1h", 60 * 60_000L),
+    ONE_DAY("1d", 24 * 60 * 60_000L);
+
+    private final String label;
+    private final long millis;
+
+    CandleInterval(String label, long millis) {
+        this.label = label;
+        this.millis = millis;
+    }
+
+    public String getLabel() { return label; }
+    public long getMillis() { return millis; }
+}
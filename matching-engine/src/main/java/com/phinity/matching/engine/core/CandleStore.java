@@ -0,0 +1,240 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.matching.engine.config.PairScale;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * OHLCV bars of one book for every {@link CandleInterval}, each interval in a ring of its last {@link #CAPACITY}
+ * bars. Written by the book after every command and read from any thread under a {@link SeqLock} like the
+ * {@link TickerCell}, so queries never hold up matching. Intervals without trades get no bar. The rings are
+ * only allocated with the book's first trade.
+ * <p>
+ * Travels with an {@link com.phinity.matching.engine.snapshot.OrderBookSnapshot} when a book moves between
+ * engines of the same process, and is opaque outside the books; it is not part of the encoded snapshot.
+ */
+public final class CandleStore {
+    static final int CAPACITY = 32;
+    private static final CandleInterval[] INTERVALS = CandleInterval.values();
+    // Values per bar: open time, open, high, low, close, volume, trades
+    private static final int FIELDS = 7;
+    private static final int OPEN_TIME = 0, OPEN = 1, HIGH = 2, LOW = 3, CLOSE = 4, VOLUME = 5, TRADES = 6;
+
+    private final SeqLock lock = new SeqLock();
+    // Per interval, FIELDS values per ring slot
+    private long[][] bars;
+    // Per interval: bars started, bars closed, and closed bars handed out to be published
+    private final long[] started = new long[INTERVALS.length];
+    private final long[] closed = new long[INTERVALS.length];
+    private final long[] drained = new long[INTERVALS.length];
+    // Earliest end of the open bars, so commands without trades skip the rings until one ends
+    private long nextCloseMillis = Long.MAX_VALUE;
+
+    CandleStore() {
+    }
+
+    /**
+     * @return whether an open bar ended by the given time; may be called from any thread
+     */
+    boolean isDue(long timeMillis) {
+        while (true) {
+            long version = lock.readBegin();
+            long next = nextCloseMillis;
+            if (lock.readValid(version)) {
+                return timeMillis >= next;
+            }
+        }
+    }
+
+    /**
+     * Closes the bars that ended before the given time and adds the command's fills.
+     *
+     * @param fills fills of the command, null if it cannot trade
+     */
+    void update(TradeBuffer fills, long timeMillis) {
+        boolean trades = fills != null && !fills.isEmpty();
+        if (!trades && timeMillis < nextCloseMillis) {
+            return;
+        }
+        lock.beginWrite();
+        if (bars == null) {
+            bars = new long[INTERVALS.length][CAPACITY * FIELDS];
+        }
+        if (timeMillis >= nextCloseMillis) {
+            for (int k = 0; k < INTERVALS.length; k++) {
+                if (started[k] > closed[k] && timeMillis >= endTime(k)) {
+                    closed[k] = started[k];
+                }
+            }
+        }
+        if (trades) {
+            // The fills share the command's time, so each interval takes them as one
+            long open = fills.price(0);
+            long high = open;
+            long low = open;
+            long volume = 0;
+            for (int i = 0; i < fills.size(); i++) {
+                high = Math.max(high, fills.price(i));
+                low = Math.min(low, fills.price(i));
+                volume += fills.quantity(i);
+            }
+            long close = fills.price(fills.size() - 1);
+            for (int k = 0; k < INTERVALS.length; k++) {
+                record(k, open, high, low, close, volume, fills.size(), timeMillis);
+            }
+        }
+        updateNextClose();
+        lock.endWrite();
+    }
+
+    private void updateNextClose() {
+        long next = Long.MAX_VALUE;
+        for (int k = 0; k < INTERVALS.length; k++) {
+            if (started[k] > closed[k]) {
+                next = Math.min(next, endTime(k));
+            }
+        }
+        nextCloseMillis = next;
+    }
+
+    private long endTime(int k) {
+        return openTime(k) + INTERVALS[k].getMillis();
+    }
+
+    private long openTime(int k) {
+        return bars[k][slot(started[k] - 1) + OPEN_TIME];
+    }
+
+    private static int slot(long bar) {
+        return (int) (bar % CAPACITY) * FIELDS;
+    }
+
+    private void record(int k, long open, long high, long low, long close, long volume, int trades, long timeMillis) {
+        long[] ring = bars[k];
+        if (started[k] > closed[k]) {
+            // The open bar takes the fills, also if the clock went back behind its start
+            int slot = slot(started[k] - 1);
+            ring[slot + HIGH] = Math.max(ring[slot + HIGH], high);
+            ring[slot + LOW] = Math.min(ring[slot + LOW], low);
+            ring[slot + CLOSE] = close;
+            ring[slot + VOLUME] += volume;
+            ring[slot + TRADES] += trades;
+            return;
+        }
+        long millis = INTERVALS[k].getMillis();
+        int slot = slot(started[k]);
+        ring[slot + OPEN_TIME] = Math.floorDiv(timeMillis, millis) * millis;
+        ring[slot + OPEN] = open;
+        ring[slot + HIGH] = high;
+        ring[slot + LOW] = low;
+        ring[slot + CLOSE] = close;
+        ring[slot + VOLUME] = volume;
+        ring[slot + TRADES] = trades;
+        started[k]++;
+    }
+
+    /**
+     * Adds the bars closed since the last call to the list, oldest first per interval; bars that left the ring
+     * in between are skipped. Only called by the book's writer.
+     *
+     * @return true if any bar was added
+     */
+    boolean drainClosed(String symbol, PairScale scale, List<Candle> candles) {
+        boolean added = false;
+        for (int k = 0; k < INTERVALS.length; k++) {
+            for (long bar = Math.max(drained[k], started[k] - CAPACITY); bar < closed[k]; bar++) {
+                candles.add(candle(symbol, scale, k, bars[k], slot(bar), true));
+                added = true;
+            }
+            drained[k] = closed[k];
+        }
+        return added;
+    }
+
+    /**
+     * @return up to {@code limit} of the latest bars of the interval, oldest first, the last one possibly in progress
+     */
+    List<Candle> read(String symbol, PairScale scale, CandleInterval interval, int limit) {
+        int k = interval.ordinal();
+        while (true) {
+            long version = lock.readBegin();
+            List<Candle> candles = copy(symbol, scale, k, limit);
+            if (lock.readValid(version)) {
+                return candles;
+            }
+        }
+    }
+
+    private List<Candle> copy(String symbol, PairScale scale, int k, int limit) {
+        long[][] allBars = bars;
+        // A ring still being set up by an overlapping write fails validation anyway
+        long[] ring = allBars != null ? allBars[k] : null;
+        if (ring == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        long end = started[k];
+        long closedBars = closed[k];
+        int count = (int) Math.min(Math.min(limit, CAPACITY), end);
+        List<Candle> candles = new ArrayList<>(count);
+        for (long bar = end - count; bar < end; bar++) {
+            candles.add(candle(symbol, scale, k, ring, slot(bar), bar < closedBars));
+        }
+        return candles;
+    }
+
+    private static Candle candle(String symbol, PairScale scale, int k, long[] ring, int slot, boolean closed) {
+        return new Candle(symbol, scale, INTERVALS[k], ring[slot + OPEN_TIME], ring[slot + OPEN], ring[slot + HIGH],
+                ring[slot + LOW], ring[slot + CLOSE], ring[slot + VOLUME], ring[slot + TRADES], closed);
+    }
+
+    /**
+     * Reads the bars of a store carried by a snapshot, like {@link OrderBook#getCandles}.
+     */
+    public List<Candle> getCandles(String symbol, PairScale scale, CandleInterval interval, int limit) {
+        return read(symbol, scale, interval, limit);
+    }
+
+    /**
+     * Closes the bars of a store carried by a snapshot of a book that is not live, e.g. hibernated, that ended by
+     * the given time, and adds them to the list like {@link #drainClosed(String, PairScale, List)}. The caller
+     * stands in for the book's writer and must not race with another one.
+     *
+     * @return true if any bar was added
+     */
+    public boolean closeDue(String symbol, PairScale scale, long timeMillis, List<Candle> candles) {
+        if (!isDue(timeMillis)) {
+            return false;
+        }
+        update(null, timeMillis);
+        return drainClosed(symbol, scale, candles);
+    }
+
+    /**
+     * @return a copy to carry to the book that replaces this one, for the writer only
+     */
+    CandleStore copy() {
+        CandleStore copy = new CandleStore();
+        copy.adopt(this);
+        return copy;
+    }
+
+    /**
+     * Continues from the bars of another store, including which closed bars were already handed out.
+     */
+    void adopt(CandleStore other) {
+        lock.beginWrite();
+        if (other.bars != null) {
+            bars = new long[INTERVALS.length][];
+            for (int k = 0; k < INTERVALS.length; k++) {
+                bars[k] = other.bars[k].clone();
+            }
+        }
+        System.arraycopy(other.started, 0, started, 0, started.length);
+        System.arraycopy(other.closed, 0, closed, 0, closed.length);
+        System.arraycopy(other.drained, 0, drained, 0, drained.length);
+        nextCloseMillis = other.nextCloseMillis;
+        lock.endWrite();
+    }
+}
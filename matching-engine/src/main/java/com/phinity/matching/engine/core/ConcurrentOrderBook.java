@@ -0,0 +1,38 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.Side;
+import com.phinity.matching.engine.config.PairScale;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Price-time priority book guarded by a read/write lock, safe to share between matching threads.
+ */
+public class ConcurrentOrderBook extends AbstractOrderBook {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ConcurrentOrderBook(String symbol, PairScale scale) {
+        super(symbol, scale, new TreeBookSide(Side.BUY), new TreeBookSide(Side.SELL));
+    }
+
+    @Override
+    protected void lockWrite() {
+        lock.writeLock().lock();
+    }
+
+    @Override
+    protected void unlockWrite() {
+        lock.writeLock().unlock();
+    }
+
+    @Override
+    protected void lockRead() {
+        lock.readLock().lock();
+    }
+
+    @Override
+    protected void unlockRead() {
+        lock.readLock().unlock();
+    }
+}
@@ -0,0 +1,147 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.Side;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tick-indexed price ladder for one side of a {@link LadderOrderBook}. Levels are addressed by a key that grows away from the touch (the price
+ * for asks, the negated price for bids), so the best level is always the one with the smallest key.
+ * Keys in [base, base + levels.length) live in the array, anything further out in {@code overflow}.
+ */
+final class LadderBookSide implements BookSide {
+    private final Side side;
+    private final boolean descending;
+    private final PriceLevel[] levels;
+    private final BitSet occupied;
+    private final TreeMap<Long, PriceLevel> overflow = new TreeMap<>();
+    private long base;
+    private PriceLevel best;
+
+    LadderBookSide(Side side, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Ladder size must be positive: " + size);
+        }
+        this.side = side;
+        this.descending = side == Side.BUY;
+        this.levels = new PriceLevel[size];
+        this.occupied = new BitSet(size);
+    }
+
+    @Override
+    public PriceLevel best() {
+        return best;
+    }
+
+    @Override
+    public PriceLevel next(PriceLevel level) {
+        return ceiling(key(level.price) + 1);
+    }
+
+    @Override
+    public PriceLevel getOrCreate(long price) {
+        long key = key(price);
+        if (!inWindow(key) && (best == null || !inWindow(key(best.price)))) {
+            recentre(best == null ? key : key(best.price));
+        }
+
+        PriceLevel level;
+        if (inWindow(key)) {
+            int index = (int) (key - base);
+            level = levels[index];
+            if (level == null) {
+                level = new PriceLevel(side, price);
+                levels[index] = level;
+            }
+            if (occupied.get(index)) {
+                return level;
+            }
+            occupied.set(index);
+        } else {
+            level = overflow.get(key);
+            if (level != null) {
+                return level;
+            }
+            level = new PriceLevel(side, price);
+            overflow.put(key, level);
+        }
+
+        if (best == null || key < key(best.price)) {
+            best = level;
+        }
+        return level;
+    }
+
+    @Override
+    public void remove(PriceLevel level) {
+        long key = key(level.price);
+        PriceLevel nextBest = level == best ? ceiling(key + 1) : best;
+        if (inWindow(key)) {
+            occupied.clear((int) (key - base));
+        } else {
+            overflow.remove(key);
+        }
+        best = nextBest;
+    }
+
+    private PriceLevel ceiling(long key) {
+        long end = base + levels.length;
+        if (key < base) {
+            if (!overflow.isEmpty()) {
+                Map.Entry<Long, PriceLevel> entry = overflow.ceilingEntry(key);
+                if (entry != null && entry.getKey() < base) {
+                    return entry.getValue();
+                }
+            }
+            key = base;
+        }
+        if (key < end) {
+            int index = occupied.nextSetBit((int) (key - base));
+            if (index >= 0) {
+                return levels[index];
+            }
+            key = end;
+        }
+        if (overflow.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, PriceLevel> entry = overflow.ceilingEntry(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    /**
+     * Moves the window so it is centred on the given key. Only happens when the side is empty
+     * or the touch has drifted out of the window, so the cost is amortised over many commands.
+     */
+    private void recentre(long key) {
+        for (int index = occupied.nextSetBit(0); index >= 0; index = occupied.nextSetBit(index + 1)) {
+            overflow.put(base + index, levels[index]);
+        }
+        occupied.clear();
+        Arrays.fill(levels, null);
+
+        base = key - levels.length / 2;
+        if (!overflow.isEmpty()) {
+            Iterator<Map.Entry<Long, PriceLevel>> inWindow = overflow.subMap(base, base + levels.length).entrySet().iterator();
+            while (inWindow.hasNext()) {
+                Map.Entry<Long, PriceLevel> entry = inWindow.next();
+                int index = (int) (entry.getKey() - base);
+                levels[index] = entry.getValue();
+                occupied.set(index);
+                inWindow.remove();
+            }
+        }
+    }
+
+    private boolean inWindow(long key) {
+        return key >= base && key - base < levels.length;
+    }
+
+    private long key(long price) {
+        return descending ? -price : price;
+    }
+}
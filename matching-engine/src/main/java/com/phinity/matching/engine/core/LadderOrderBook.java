@@ -0,0 +1,26 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.Side;
+import com.phinity.matching.engine.config.PairScale;
+
+/**
+ * Single-writer book for engines that serialise every command onto one thread. Each side is a
+ * tick-indexed price ladder with an intrusive FIFO per level and a cursor on the best level;
+ * there are no locks or concurrent collections, so all calls must come from the owning thread.
+ */
+public class LadderOrderBook extends AbstractOrderBook {
+    public static final int DEFAULT_LADDER_SIZE = 1 << 14;
+
+    public LadderOrderBook(String symbol, PairScale scale) {
+        this(symbol, scale, DEFAULT_LADDER_SIZE);
+    }
+
+    /**
+     * @param ladderSize number of consecutive ticks per side addressed directly; levels outside
+     *                   the window are kept in an overflow map until the ladder re-centres, so the
+     *                   scale's tick should be the pair's real price increment
+     */
+    public LadderOrderBook(String symbol, PairScale scale, int ladderSize) {
+        super(symbol, scale, new LadderBookSide(Side.BUY, ladderSize), new LadderBookSide(Side.SELL, ladderSize));
+    }
+}
@@ -1,6 +1,9 @@
 package com.phinity.matching.engine.core;
 
 import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.BookFeed;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.PairScale;
 import com.phinity.matching.engine.service.EventPublisher;
 
 import java.math.BigDecimal;
@@ -11,16 +14,38 @@ public class MatchingEngine {
     private final String symbol;
     private final OrderBook orderBook;
     private final AtomicLong processedOrders = new AtomicLong(0);
+    private volatile long lastActiveNanos = System.nanoTime();
+    private volatile boolean hibernated;
 
     public MatchingEngine(String symbol) {
+        this(symbol, PairScale.DEFAULT);
+    }
+
+    public MatchingEngine(String symbol, PairScale scale) {
         this.symbol = symbol;
-        this.orderBook = new OrderBook();
+        this.orderBook = new ConcurrentOrderBook(symbol, scale);
     }
     
     public void setEventPublisher(EventPublisher eventPublisher) {
         this.orderBook.setEventPublisher(eventPublisher);
     }
 
+    public void configurePublication(BookUpdateMode mode, BookFeed feed, long snapshotIntervalMillis) {
+        this.orderBook.configurePublication(mode, feed, snapshotIntervalMillis);
+    }
+
+    public boolean flushBookUpdate() {
+        return orderBook.flushBookUpdate();
+    }
+
+    /**
+     * Closes and publishes the bars of a pair that had no command since they ended, see
+     * {@link OrderBook#closeDueCandles(long)}.
+     */
+    public boolean closeDueCandles(long timeMillis) {
+        return orderBook.closeDueCandles(timeMillis);
+    }
+
     public List<Trade> match(PendingOrders order) {
         processedOrders.incrementAndGet();
         return orderBook.matchOrder(order);
@@ -30,6 +55,29 @@ public class MatchingEngine {
         return symbol;
     }
 
+    /**
+     * Records that a command was applied, for idle detection.
+     */
+    public void markActive() {
+        lastActiveNanos = System.nanoTime();
+    }
+
+    public long getLastActiveNanos() {
+        return lastActiveNanos;
+    }
+
+    /**
+     * Set while the engine's book is being hibernated; a command that resolved this engine has to resolve the
+     * pair's engine again instead of applying to it.
+     */
+    public void setHibernated(boolean hibernated) {
+        this.hibernated = hibernated;
+    }
+
+    public boolean isHibernated() {
+        return hibernated;
+    }
+
     public long getProcessedOrdersCount() {
         return processedOrders.get();
     }
@@ -1,284 +1,207 @@
 package com.phinity.matching.engine.core;
 
+import com.phinity.common.dto.enums.OrderType;
 import com.phinity.common.dto.enums.Side;
 import com.phinity.common.dto.enums.TimeInForce;
 import com.phinity.common.dto.models.OrderBookUpdateEvent;
 import com.phinity.common.dto.models.PendingOrders;
-import com.phinity.matching.engine.metrics.MetricsCollector;
+import com.phinity.matching.engine.config.BookFeed;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.PairScale;
 import com.phinity.matching.engine.service.EventPublisher;
-import lombok.extern.slf4j.Slf4j;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
 
 import java.math.BigDecimal;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
-
-@Slf4j
-public class OrderBook {
-
-    private final ConcurrentSkipListMap<BigDecimal, Queue<PendingOrders>> bids = new ConcurrentSkipListMap<>(Collections.reverseOrder());
-    private final ConcurrentSkipListMap<BigDecimal, Queue<PendingOrders>> asks = new ConcurrentSkipListMap<>();
-    private final ConcurrentHashMap<String, PendingOrders> allOrders = new ConcurrentHashMap<>();
-
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-
-    private final AtomicLong tradeIdCounter = new AtomicLong(0);
-    private EventPublisher eventPublisher;
-
-    public void setEventPublisher(EventPublisher eventPublisher) {
-        this.eventPublisher = eventPublisher;
-    }
-
-    public List<Trade> matchOrder(PendingOrders order) {
-        lock.writeLock().lock();
-        try {
-            List<Trade> trades = new ArrayList<>();
-            TimeInForce timeInForce = getTimeInForce(order);
-
-            if (timeInForce == TimeInForce.FOK && !canFillCompletely(order)) {
-                MetricsCollector.getInstance().recordRejectedOrder();
-                return trades;
-            }
-
-            if (order.getSide() == Side.BUY) {
-                match(order, asks, trades);
-            } else {
-                match(order, bids, trades);
-            }
-
-            boolean shouldAddToBook = !order.isFilled() &&
-                    order.getOrderType() != com.phinity.common.dto.enums.OrderType.MARKET &&
-                    timeInForce == TimeInForce.GTC;
-
-            if (shouldAddToBook) {
-                addOrderToBook(order);
-            }
-
-            if (eventPublisher != null) {
-                if (!trades.isEmpty()) {
-                    log.debug("DEBUG: Publishing trade execution event");
-                    eventPublisher.publishTradeExecution(order.getSymbol(), trades);
-                }
-                eventPublisher.publishOrderBookUpdate(order.getSymbol(), this);
-            }
-
-            return trades;
-        } finally {
-            lock.writeLock().unlock();
-        }
-    }
-
-    private void match(PendingOrders takerOrder, ConcurrentSkipListMap<BigDecimal, Queue<PendingOrders>> book, List<Trade> trades) {
-        while (!takerOrder.isFilled() && !book.isEmpty()) {
-            Map.Entry<BigDecimal, Queue<PendingOrders>> bestPriceEntry = book.firstEntry();
-            BigDecimal bestPrice = bestPriceEntry.getKey();
-
-            if (takerOrder.getOrderType() == com.phinity.common.dto.enums.OrderType.LIMIT) {
-                if (takerOrder.getSide() == Side.BUY && takerOrder.getPrice().compareTo(bestPrice) < 0) {
-                    break;
-                }
-                if (takerOrder.getSide() == Side.SELL && takerOrder.getPrice().compareTo(bestPrice) > 0) {
-                    break;
-                }
-            }
-
-            Queue<PendingOrders> ordersAtPrice = bestPriceEntry.getValue();
-            PendingOrders makerOrder = ordersAtPrice.peek();
-
-            if (makerOrder == null) {
-                book.remove(bestPrice);
-                continue;
-            }
-
-            BigDecimal tradeQuantity = takerOrder.getRemainingQuantity().min(makerOrder.getRemainingQuantity());
-
-            Trade trade = new Trade(
-                    String.valueOf(tradeIdCounter.incrementAndGet()),
-                    takerOrder.getSymbol(),
-                    takerOrder.getSide() == Side.BUY ? takerOrder.getOrderId() : makerOrder.getOrderId(),
-                    takerOrder.getSide() == Side.BUY ? makerOrder.getOrderId() : takerOrder.getOrderId(),
-                    bestPrice,
-                    tradeQuantity,
-                    makerOrder.getOrderId(),
-                    takerOrder.getOrderId(),
-                    takerOrder.getSide() == Side.BUY ? takerOrder.getUserId() : makerOrder.getUserId(),
-                    takerOrder.getSide() == Side.BUY ? makerOrder.getUserId() : takerOrder.getUserId()
-            );
-            trades.add(trade);
-
-            takerOrder.reduceQuantity(tradeQuantity);
-            makerOrder.reduceQuantity(tradeQuantity);
-
-            if (makerOrder.isFilled()) {
-                ordersAtPrice.poll();
-                allOrders.remove(makerOrder.getOrderId());
-                if (ordersAtPrice.isEmpty()) {
-                    book.remove(bestPrice);
-                }
-            }
-        }
-    }
-
-    private void addOrderToBook(PendingOrders order) {
-        ConcurrentSkipListMap<BigDecimal, Queue<PendingOrders>> book = order.getSide() == Side.BUY ? bids : asks;
-        book.computeIfAbsent(order.getPrice(), k -> new ConcurrentLinkedQueue<>()).offer(order);
-        allOrders.put(order.getOrderId(), order);
-    }
-
-    public List<PendingOrders> getBids() {
-        lock.readLock().lock();
-        try {
-            return bids.values().stream()
-                    .flatMap(Queue::stream)
-                    .collect(Collectors.toList());
-        } finally {
-            lock.readLock().unlock();
-        }
-    }
-
-    public List<PendingOrders> getAsks() {
-        lock.readLock().lock();
-        try {
-            return asks.values().stream()
-                    .flatMap(Queue::stream)
-                    .collect(Collectors.toList());
-        } finally {
-            lock.readLock().unlock();
-        }
-    }
-
-    public List<OrderBookUpdateEvent.OrderLevel> getAggregatedDepth(Side side, int depth) {
-        lock.readLock().lock();
-        try {
-            ConcurrentSkipListMap<BigDecimal, Queue<PendingOrders>> book = (side == Side.BUY) ? bids : asks;
-            List<OrderBookUpdateEvent.OrderLevel> depthLevels = new ArrayList<>();
-
-            for (Map.Entry<BigDecimal, Queue<PendingOrders>> entry : book.entrySet()) {
-                if (depthLevels.size() >= depth) {
-                    break;
-                }
-
-                BigDecimal price = entry.getKey();
-                Queue<PendingOrders> orders = entry.getValue();
-
-                if (orders == null || orders.isEmpty()) {
-                    continue;
-                }
-
-                BigDecimal totalQuantity = orders.stream()
-                        .map(PendingOrders::getRemainingQuantity)
-                        .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-                depthLevels.add(new OrderBookUpdateEvent.OrderLevel(price, totalQuantity, orders.size()));
-            }
-            return depthLevels;
-        } finally {
-            lock.readLock().unlock();
-        }
-    }
-
-
-    public boolean cancelOrder(String orderId) {
-        lock.writeLock().lock();
-        try {
-            PendingOrders order = allOrders.remove(orderId);
-            if (order == null) {
-                return false;
-            }
-
-            ConcurrentSkipListMap<BigDecimal, Queue<PendingOrders>> book = order.getSide() == Side.BUY ? bids : asks;
-            Queue<PendingOrders> ordersAtPrice = book.get(order.getPrice());
-
-            if (ordersAtPrice != null && ordersAtPrice.remove(order)) {
-                if (ordersAtPrice.isEmpty()) {
-                    book.remove(order.getPrice());
-                }
-                return true;
-            }
-            return false;
-        } finally {
-            lock.writeLock().unlock();
-        }
-    }
-
-    public PendingOrders modifyOrder(String orderId, BigDecimal newPrice, BigDecimal newQuantity) {
-        lock.writeLock().lock();
-        try {
-            PendingOrders existingOrder = findOrder(orderId);
-            if (existingOrder == null) {
-                return null;
-            }
-
-            if ((newPrice == null || newPrice.compareTo(existingOrder.getPrice()) == 0) &&
-                (newQuantity != null && newQuantity.compareTo(existingOrder.getRemainingQuantity()) <= 0)) {
-                
-                BigDecimal reduction = existingOrder.getRemainingQuantity().subtract(newQuantity);
-                existingOrder.reduceQuantity(reduction);
-
-                if (eventPublisher != null) {
-                    eventPublisher.publishOrderBookUpdate(existingOrder.getSymbol(), this);
-                }
-                return existingOrder;
-            }
-
-            if (cancelOrder(orderId)) {
-                PendingOrders newOrder = new PendingOrders(
-                        orderId,
-                        existingOrder.getSymbol(),
-                        existingOrder.getSide(),
-                        newPrice != null ? newPrice : existingOrder.getPrice(),
-                        newQuantity != null ? newQuantity : existingOrder.getQuantity()
-                );
-                newOrder.setOrderType(existingOrder.getOrderType());
-                newOrder.setTimeInForce(existingOrder.getTimeInForce());
-                newOrder.setUserId(existingOrder.getUserId());
-
-                if (!newOrder.isFilled()) {
-                    addOrderToBook(newOrder);
-                    if (eventPublisher != null) {
-                        eventPublisher.publishOrderBookUpdate(newOrder.getSymbol(), this);
-                    }
-                }
-                return newOrder;
-            }
-            return null;
-        } finally {
-            lock.writeLock().unlock();
-        }
-    }
-
-    private PendingOrders findOrder(String orderId) {
-        return allOrders.get(orderId);
-    }
-
-    private TimeInForce getTimeInForce(PendingOrders order) {
-        return order.getTimeInForce() != null ? order.getTimeInForce() : TimeInForce.GTC;
-    }
-
-    private boolean canFillCompletely(PendingOrders order) {
-        lock.readLock().lock();
-        try {
-            BigDecimal availableQuantity = BigDecimal.ZERO;
-            ConcurrentSkipListMap<BigDecimal, Queue<PendingOrders>> book = order.getSide() == Side.BUY ? asks : bids;
-
-            for (Map.Entry<BigDecimal, Queue<PendingOrders>> entry : book.entrySet()) {
-                if (order.getSide() == Side.BUY && order.getPrice().compareTo(entry.getKey()) < 0) break;
-                if (order.getSide() == Side.SELL && order.getPrice().compareTo(entry.getKey()) > 0) break;
-
-                for (PendingOrders makerOrder : entry.getValue()) {
-                    availableQuantity = availableQuantity.add(makerOrder.getRemainingQuantity());
-                    if (availableQuantity.compareTo(order.getRemainingQuantity()) >= 0) {
-                        return true;
-                    }
-                }
-            }
-            return false;
-        } finally {
-            lock.readLock().unlock();
-        }
-    }
-}
\ No newline at end of file
+import java.util.List;
+
+/**
+ * Price-time priority book of a single pair. Prices and quantities are kept as scaled longs
+ * (see {@link PairScale}), BigDecimal values are only produced for trades, depth and order views
+ * handed out of the book.
+ * <p>
+ * {@link ConcurrentOrderBook} may be shared between threads, {@link LadderOrderBook} must only be
+ * used from the single thread that owns it.
+ */
+public interface OrderBook {
+    // How long after its end a bar is closed by the clock rather than by a command, so that commands stamped
+    // before the end and still on their way to the book land in it
+    long CANDLE_CLOSE_DELAY_MS = 250;
+
+    // Price or quantity of a modification that keeps the order's own
+    long UNCHANGED = Long.MIN_VALUE;
+
+    void setEventPublisher(EventPublisher eventPublisher);
+
+    /**
+     * Chooses how book updates are published. With {@link BookUpdateMode#CONFLATED} changes only mark the
+     * book dirty and the update is sent by {@link #flushBookUpdate()}.
+     *
+     * @param snapshotIntervalMillis minimum time between full snapshots of the {@link BookFeed#INCREMENTAL} feed
+     */
+    void configurePublication(BookUpdateMode mode, BookFeed feed, long snapshotIntervalMillis);
+
+    /**
+     * Sets how long the book remembers the ids of the orders it took to refuse orders delivered again, see
+     * {@link #matchOrder(String, String, Side, OrderType, TimeInForce, long, long, TradeBuffer)}. Ids expire by
+     * the time of the commands. The window keeps at most {@code maxOrderIds} ids and forgets the oldest early
+     * when it is full, so the cap has to cover the pair's peak orders per second times the window in seconds.
+     * Books that replay or follow the commands of another book need the same window to refuse the same orders.
+     *
+     * @param windowMillis how long an id is remembered, 0 to only refuse the ids of resting orders
+     * @param maxOrderIds  most ids remembered at once
+     */
+    void configureOrderIdWindow(long windowMillis, int maxOrderIds);
+
+    /**
+     * Publishes one book update if the book changed since the last flush.
+     *
+     * @return true if an update was published
+     */
+    boolean flushBookUpdate();
+
+    /**
+     * Captures the pending conflated update into the given buffer instead of publishing it, for engines
+     * that publish from a different thread than the one owning the book.
+     *
+     * @return true if the book changed since the last flush and the buffer holds something to publish
+     */
+    boolean drainBookUpdate(BookUpdate update);
+
+    String getSymbol();
+
+    PairScale getScale();
+
+    /**
+     * Matches an order given in decimal form. The order's remaining quantity is reduced by the filled amount.
+     *
+     * @throws OrderRejectedException if the price or quantity is not representable at the pair's scale, or the
+     * order id is a duplicate
+     */
+    List<Trade> matchOrder(PendingOrders order);
+
+    /**
+     * Matches an order whose price is given in ticks and quantity in lots of the pair's scale.
+     *
+     * @throws OrderRejectedException if the order id is a duplicate
+     */
+    List<Trade> matchOrder(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+                           long price, long quantity);
+
+    /**
+     * Allocation-free variant: the fills are written into the given buffer, which is cleared first, and the
+     * book does not publish them.
+     *
+     * Orders whose id rests on the book or is among the last ids it took are refused before matching, so an
+     * order delivered twice is not matched twice; the window survives snapshots.
+     *
+     * @return the quantity in lots left unfilled, whether it now rests on the book or was discarded
+     * @throws OrderRejectedException if the order id is a duplicate
+     */
+    long matchOrder(String orderId, String userId, Side side, OrderType orderType, TimeInForce timeInForce,
+                    long price, long quantity, TradeBuffer fills);
+
+    boolean cancelOrder(String orderId);
+
+    /**
+     * Cancels every resting order of the user, or every resting order of the book if {@code userId} is null.
+     *
+     * @return the number of orders cancelled
+     */
+    int cancelAllOrders(String userId);
+
+    /**
+     * Cancels the resting orders of a user on one or both sides in one command, or every order on them if
+     * {@code userId} is null.
+     *
+     * @param side              side to cancel, null for both
+     * @param cancelledOrderIds receives the ids of the cancelled orders, may be null
+     * @return the number of orders cancelled
+     */
+    int cancelAllOrders(String userId, Side side, List<String> cancelledOrderIds);
+
+    /**
+     * @return a copy of every resting order in priority order, together with the id of the last trade and
+     * the {@link #getSequence() sequence} it reflects
+     */
+    OrderBookSnapshot snapshot();
+
+    /**
+     * Starts a snapshot of the book as it is now, whose resting orders are copied by the capture's steps while
+     * commands carry on in between. Completes a capture still in progress first.
+     */
+    SnapshotCapture beginSnapshot();
+
+    /**
+     * @return number of commands applied to the book, carried over by {@link #restore(OrderBookSnapshot)}
+     */
+    long getSequence();
+
+    /**
+     * @return top of book, last trade and 24 hour statistics as of the last command; never takes the book
+     * lock, so it may be called from any thread, also for books owned by a Disruptor engine
+     */
+    Ticker getTicker();
+
+    /**
+     * Like {@link #getTicker()}, never takes the book lock.
+     *
+     * @return up to {@code limit} of the latest bars of the interval, oldest first; the last one may be in progress
+     */
+    List<Candle> getCandles(CandleInterval interval, int limit);
+
+    /**
+     * Closes the bars that ended {@link #CANDLE_CLOSE_DELAY_MS} or more before the given time. A bar otherwise
+     * closes with the pair's first command after its end, so engines call this periodically for pairs that went
+     * quiet. Books with an event publisher publish the bars, engines that publish them themselves drain them with
+     * {@link #drainClosedCandles(List)}. Takes the write lock only if a bar is due.
+     *
+     * @return true if any bar was closed
+     */
+    boolean closeDueCandles(long timeMillis);
+
+    /**
+     * Like {@link #getTicker()}, never takes the book lock.
+     *
+     * @return whether {@link #closeDueCandles(long)} would close a bar at the given time
+     */
+    boolean hasDueCandles(long timeMillis);
+
+    /**
+     * Adds the bars closed since the last call, for engines that publish from a different thread than the one
+     * owning the book; books with an event publisher publish them themselves. Bars that dropped out of the
+     * book's ring in between are skipped.
+     *
+     * @return true if any bar was added
+     */
+    boolean drainClosedCandles(List<Candle> candles);
+
+    /**
+     * Loads the resting orders and trade id counter of a snapshot into this empty book, keeping the queue
+     * order within each level. Used to move a live pair from one engine to another.
+     *
+     * @throws IllegalStateException    if the book already holds orders
+     * @throws IllegalArgumentException if the snapshot is of another pair or not representable at this book's scale
+     */
+    void restore(OrderBookSnapshot snapshot);
+
+    /**
+     * Modifies a resting order. A quantity reduction at the same price keeps time priority,
+     * any other change re-queues the order.
+     *
+     * @return the modified order, or null if the order is not in the book
+     * @throws OrderRejectedException if the new price or quantity is not representable at the pair's scale
+     */
+    PendingOrders modifyOrder(String orderId, BigDecimal newPrice, BigDecimal newQuantity);
+
+    /**
+     * Variant of {@link #modifyOrder(String, BigDecimal, BigDecimal)} with the price in ticks and the quantity in
+     * lots of the book's scale, either {@link #UNCHANGED} to keep the order's own.
+     */
+    PendingOrders modifyOrder(String orderId, long newPrice, long newQuantity);
+
+    List<PendingOrders> getBids();
+
+    List<PendingOrders> getAsks();
+
+    List<OrderBookUpdateEvent.OrderLevel> getAggregatedDepth(Side side, int depth);
+}
@@ -0,0 +1,248 @@
+package com.phinity.matching.engine.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The order ids a book took in the last {@code windowMillis}, so an order delivered again after it left the book is
+ * recognised. Ids are kept in a ring, oldest at the head, together with the time the book took them, and expire
+ * from the head once they are older than the window. They are found through an open addressing table of hashes and
+ * ring positions. Only an equal hash leads to the id itself, which confirms the hit, so there are no false
+ * positives and misses rarely touch an id.
+ * <p>
+ * The ring grows with use up to {@code capacity} entries and keeps its size after a burst. A window that is full
+ * of ids younger than the window forgets the oldest one early, which {@link #add(String, long)} reports, so the
+ * capacity has to cover the peak order rate of the pair times the window.
+ */
+final class OrderIdWindow {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long windowMillis;
+    private int capacity;
+    // Ring of ids, their hashes and the times they were taken, oldest at head
+    private String[] ids;
+    private int[] hashes;
+    private long[] times;
+    private int head;
+    private int size;
+    // Hash in the high half and ring position + 1 in the low half of each entry, 0 for a free slot; at most half full
+    private long[] table;
+
+    OrderIdWindow(long windowMillis, int capacity) {
+        this.windowMillis = windowMillis;
+        this.capacity = capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(String orderId) {
+        return size > 0 && find(orderId, hash(orderId)) >= 0;
+    }
+
+    /**
+     * Forgets the ids taken more than the window before the given time.
+     */
+    void expire(long nowMillis) {
+        while (size > 0 && nowMillis - times[head] > windowMillis) {
+            removeOldest();
+        }
+    }
+
+    /**
+     * Remembers an id that is not in the window yet, taken at the given time, after expiring the ids that are
+     * older than the window by then. If the window is still full at its capacity the oldest id is forgotten early.
+     *
+     * @return true if an id younger than the window had to be forgotten to make room
+     */
+    boolean add(String orderId, long nowMillis) {
+        if (capacity == 0 || windowMillis == 0) {
+            return false;
+        }
+        expire(nowMillis);
+        boolean overflow = false;
+        if (ids == null || size == ids.length) {
+            if (ids == null || ids.length < capacity) {
+                grow();
+            } else {
+                removeOldest();
+                overflow = true;
+            }
+        }
+        int position = (head + size) % ids.length;
+        ids[position] = orderId;
+        hashes[position] = hash(orderId);
+        times[position] = nowMillis;
+        size++;
+        insert(position);
+        return overflow;
+    }
+
+    private void removeOldest() {
+        int oldest = slotOf(head);
+        table[oldest] = 0;
+        closeGap(oldest);
+        ids[head] = null;
+        head = next(head);
+        size--;
+    }
+
+    /**
+     * @return the index in the table of the id, or -1 if it is not in the window
+     */
+    private int find(String orderId, int hash) {
+        int mask = table.length - 1;
+        for (int i = hash & mask; table[i] != 0; i = (i + 1) & mask) {
+            long entry = table[i];
+            if ((int) (entry >>> 32) == hash && ids[(int) entry - 1].equals(orderId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index in the table of the id at the ring position
+     */
+    private int slotOf(int position) {
+        int mask = table.length - 1;
+        int i = hashes[position] & mask;
+        while ((int) table[i] != position + 1) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void insert(int position) {
+        int mask = table.length - 1;
+        int i = hashes[position] & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = (long) hashes[position] << 32 | position + 1;
+    }
+
+    /**
+     * Shifts the entries after a freed table slot back, so lookups never stop at the gap short of their id.
+     */
+    private void closeGap(int gap) {
+        int mask = table.length - 1;
+        for (int i = (gap + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int home = (int) (table[i] >>> 32) & mask;
+            // Entries whose home lies cyclically after the gap and up to their slot stay where they are
+            boolean stays = gap <= i ? gap < home && home <= i : gap < home || home <= i;
+            if (!stays) {
+                table[gap] = table[i];
+                table[i] = 0;
+                gap = i;
+            }
+        }
+    }
+
+    private int next(int position) {
+        return position + 1 == ids.length ? 0 : position + 1;
+    }
+
+    private static int hash(String orderId) {
+        int hash = orderId.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        int length = ids == null ? Math.min(INITIAL_CAPACITY, capacity) : (int) Math.min(2L * ids.length, capacity);
+        rebuild(length, size);
+    }
+
+    /**
+     * Moves the newest {@code keep} ids into a ring of the given length, oldest first.
+     */
+    private void rebuild(int length, int keep) {
+        String[] newIds = new String[length];
+        int[] newHashes = new int[length];
+        long[] newTimes = new long[length];
+        for (int i = 0; i < keep; i++) {
+            int position = (head + size - keep + i) % ids.length;
+            newIds[i] = ids[position];
+            newHashes[i] = hashes[position];
+            newTimes[i] = times[position];
+        }
+        ids = newIds;
+        hashes = newHashes;
+        times = newTimes;
+        head = 0;
+        size = keep;
+        table = new long[Integer.highestOneBit(Math.max(1, 2 * length - 1)) << 1];
+        for (int i = 0; i < keep; i++) {
+            insert(i);
+        }
+    }
+
+    /**
+     * Changes how long and up to how many ids the window keeps, keeping the newest ones that still fit. Ids older
+     * than a shorter window go with the next id taken.
+     */
+    void resize(long windowMillis, int capacity) {
+        this.windowMillis = windowMillis;
+        this.capacity = capacity;
+        if (ids == null) {
+            return;
+        }
+        if (capacity == 0 || windowMillis == 0) {
+            clear();
+        } else if (capacity < ids.length) {
+            rebuild(capacity, Math.min(size, capacity));
+        }
+    }
+
+    /**
+     * @return the ids, oldest first
+     */
+    List<String> toList() {
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(ids[(head + i) % ids.length]);
+        }
+        return list;
+    }
+
+    /**
+     * @return the times the ids were taken, in the order of {@link #toList()}
+     */
+    long[] toTimes() {
+        long[] list = new long[size];
+        for (int i = 0; i < size; i++) {
+            list[i] = times[(head + i) % ids.length];
+        }
+        return list;
+    }
+
+    /**
+     * Replaces the ids with the newest of the given ones, oldest first, taken at the given times. Ids without a
+     * time, from snapshots that did not record them, count as taken at {@code nowMillis}.
+     *
+     * @param orderTimes times of the ids, or null if they are not known
+     */
+    void restore(List<String> orderIds, long[] orderTimes, long nowMillis) {
+        clear();
+        for (int i = Math.max(0, orderIds.size() - capacity); i < orderIds.size(); i++) {
+            String orderId = orderIds.get(i);
+            if (orderId != null && !contains(orderId)) {
+                add(orderId, orderTimes != null ? orderTimes[i] : nowMillis);
+            }
+        }
+    }
+
+    private void clear() {
+        ids = null;
+        hashes = null;
+        times = null;
+        table = null;
+        head = 0;
+        size = 0;
+    }
+}
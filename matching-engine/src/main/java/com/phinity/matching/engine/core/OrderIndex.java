@@ -0,0 +1,74 @@
+package com.phinity.matching.engine.core;
+
+/**
+ * Resting orders by id. A chained hash table threaded through {@link BookOrder#hashNext}, so adding and
+ * removing orders does not allocate map entries; the table only reallocates when it grows.
+ */
+final class OrderIndex {
+    private BookOrder[] table = new BookOrder[1024];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    BookOrder get(String orderId) {
+        int hash = orderId.hashCode();
+        for (BookOrder order = table[indexFor(hash, table.length)]; order != null; order = order.hashNext) {
+            if (order.orderIdHash == hash && order.orderId.equals(orderId)) {
+                return order;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds an order whose id is not indexed yet.
+     */
+    void put(BookOrder order) {
+        if (size >= table.length - (table.length >>> 2)) {
+            resize();
+        }
+        int index = indexFor(order.orderIdHash, table.length);
+        order.hashNext = table[index];
+        table[index] = order;
+        size++;
+    }
+
+    boolean remove(BookOrder order) {
+        int index = indexFor(order.orderIdHash, table.length);
+        BookOrder prev = null;
+        for (BookOrder current = table[index]; current != null; prev = current, current = current.hashNext) {
+            if (current == order) {
+                if (prev == null) {
+                    table[index] = current.hashNext;
+                } else {
+                    prev.hashNext = current.hashNext;
+                }
+                order.hashNext = null;
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resize() {
+        BookOrder[] newTable = new BookOrder[table.length * 2];
+        for (BookOrder head : table) {
+            BookOrder order = head;
+            while (order != null) {
+                BookOrder next = order.hashNext;
+                int index = indexFor(order.orderIdHash, newTable.length);
+                order.hashNext = newTable[index];
+                newTable[index] = order;
+                order = next;
+            }
+        }
+        table = newTable;
+    }
+
+    private static int indexFor(int hash, int length) {
+        return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+}
@@ -0,0 +1,17 @@
+package com.phinity.matching.engine.core;
+
+/**
+ * Thrown when a book refuses an order or modification before touching its orders: a duplicate order id, or a
+ * price or quantity the pair's scale cannot represent. The engines report these to the client as rejections;
+ * other failures are errors.
+ */
+public class OrderRejectedException extends IllegalArgumentException {
+
+    public OrderRejectedException(String message) {
+        super(message);
+    }
+
+    public OrderRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
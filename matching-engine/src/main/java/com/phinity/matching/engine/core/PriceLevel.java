@@ -0,0 +1,65 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.Side;
+
+/**
+ * Orders resting at one price, kept in an intrusive FIFO through {@link BookOrder#prev}/{@link BookOrder#next}.
+ * The level keeps a running total of remaining quantity and order count, so every change to a resting
+ * order's remaining quantity has to go through {@link #reduce}.
+ */
+final class PriceLevel {
+    final Side side;
+    final long price;
+    BookOrder head;
+    BookOrder tail;
+    long totalQuantity;
+    int orderCount;
+    // Set while the level is queued for the next L2 delta
+    boolean changed;
+
+    PriceLevel(Side side, long price) {
+        this.side = side;
+        this.price = price;
+    }
+
+    boolean isEmpty() {
+        return head == null;
+    }
+
+    void append(BookOrder order) {
+        order.level = this;
+        order.prev = tail;
+        order.next = null;
+        if (tail == null) {
+            head = order;
+        } else {
+            tail.next = order;
+        }
+        tail = order;
+        totalQuantity += order.remaining;
+        orderCount++;
+    }
+
+    void reduce(BookOrder order, long quantity) {
+        order.remaining -= quantity;
+        totalQuantity -= quantity;
+    }
+
+    void remove(BookOrder order) {
+        if (order.prev == null) {
+            head = order.next;
+        } else {
+            order.prev.next = order.next;
+        }
+        if (order.next == null) {
+            tail = order.prev;
+        } else {
+            order.next.prev = order.prev;
+        }
+        order.prev = null;
+        order.next = null;
+        order.level = null;
+        totalQuantity -= order.remaining;
+        orderCount--;
+    }
+}
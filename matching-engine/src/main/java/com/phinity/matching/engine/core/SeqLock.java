@@ -0,0 +1,59 @@
+package com.phinity.matching.engine.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Sequence lock for state with a single writer, the book's matching thread. Writing costs two ordered stores
+ * and no atomic instruction; readers copy the state between {@link #readBegin()} and {@link #readValid(long)}
+ * and retry if a write overlapped, so they never hold up the writer.
+ */
+final class SeqLock {
+    private static final VarHandle VERSION;
+    // Attempts before a reader yields to let a descheduled writer finish
+    private static final int SPINS = 64;
+
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(SeqLock.class, "version", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Odd while a write is in progress
+    private long version;
+
+    void beginWrite() {
+        VERSION.setOpaque(this, version + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    void endWrite() {
+        VERSION.setRelease(this, version + 1);
+    }
+
+    /**
+     * @return the version to validate the read against, waiting while a write is in progress
+     */
+    long readBegin() {
+        int attempts = 0;
+        long current;
+        while (((current = (long) VERSION.getAcquire(this)) & 1) != 0) {
+            if (++attempts < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return true if no write overlapped the reads since {@link #readBegin()}
+     */
+    boolean readValid(long version) {
+        VarHandle.loadLoadFence();
+        return (long) VERSION.getOpaque(this) == version;
+    }
+}
@@ -0,0 +1,120 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.PairScale;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copies of resting orders of one book side held in flat arrays, together with the position each order had in
+ * its level. Capturing an order is a plain copy of fields, which is all that happens while matching is held
+ * up; turning the copies into {@link PendingOrders} and their decimals is left to the thread that reads the
+ * snapshot. The arrays come in fixed-size blocks, so growing the image never copies the orders taken so far.
+ */
+final class SideImage {
+    private static final int BLOCK_SHIFT = 10;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final String symbol;
+    private final PairScale scale;
+    private final Side side;
+    private final List<Block> blocks = new ArrayList<>();
+    private Block last;
+    private int size;
+
+    private static final class Block {
+        final String[] orderIds = new String[BLOCK_SIZE];
+        final String[] userIds = new String[BLOCK_SIZE];
+        final OrderType[] orderTypes = new OrderType[BLOCK_SIZE];
+        final TimeInForce[] timeInForces = new TimeInForce[BLOCK_SIZE];
+        final long[] prices = new long[BLOCK_SIZE];
+        final long[] quantities = new long[BLOCK_SIZE];
+        final long[] remaining = new long[BLOCK_SIZE];
+        final long[] arrivals = new long[BLOCK_SIZE];
+    }
+
+    SideImage(String symbol, PairScale scale, Side side) {
+        this.symbol = symbol;
+        this.scale = scale;
+        this.side = side;
+    }
+
+    void add(BookOrder order) {
+        int i = size & BLOCK_MASK;
+        if (i == 0) {
+            last = new Block();
+            blocks.add(last);
+        }
+        last.orderIds[i] = order.orderId;
+        last.userIds[i] = order.userId;
+        last.orderTypes[i] = order.orderType;
+        last.timeInForces[i] = order.timeInForce;
+        last.prices[i] = order.price;
+        last.quantities[i] = order.quantity;
+        last.remaining[i] = order.remaining;
+        last.arrivals[i] = order.arrival;
+        size++;
+    }
+
+    /**
+     * Builds the orders of a side in priority order from the copies taken walking it, which are in priority
+     * order already, and the copies saved out of order before a change, which are sorted and merged in.
+     */
+    static List<PendingOrders> toOrders(SideImage walked, SideImage saved) {
+        Integer[] order = new Integer[saved.size];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> saved.compare(a, saved, b));
+        List<PendingOrders> orders = new ArrayList<>(walked.size + saved.size);
+        int w = 0;
+        int s = 0;
+        while (w < walked.size || s < saved.size) {
+            if (s == saved.size || (w < walked.size && walked.compare(w, saved, order[s]) < 0)) {
+                orders.add(walked.toOrder(w++));
+            } else {
+                orders.add(saved.toOrder(order[s++]));
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Orders the copies by price, best first, then by arrival.
+     */
+    private int compare(int i, SideImage other, int j) {
+        long price = price(i);
+        long otherPrice = other.price(j);
+        if (price != otherPrice) {
+            int byPrice = Long.compare(price, otherPrice);
+            return side == Side.BUY ? -byPrice : byPrice;
+        }
+        return Long.compare(blocks.get(i >> BLOCK_SHIFT).arrivals[i & BLOCK_MASK],
+                other.blocks.get(j >> BLOCK_SHIFT).arrivals[j & BLOCK_MASK]);
+    }
+
+    private long price(int i) {
+        return blocks.get(i >> BLOCK_SHIFT).prices[i & BLOCK_MASK];
+    }
+
+    private PendingOrders toOrder(int index) {
+        Block block = blocks.get(index >> BLOCK_SHIFT);
+        int i = index & BLOCK_MASK;
+        long quantity = block.quantities[i];
+        PendingOrders order = new PendingOrders(block.orderIds[i], symbol, side, scale.toPrice(block.prices[i]),
+                scale.toQuantity(quantity));
+        order.setOrderType(block.orderTypes[i]);
+        order.setTimeInForce(block.timeInForces[i]);
+        order.setUserId(block.userIds[i]);
+        if (block.remaining[i] < quantity) {
+            order.reduceQuantity(scale.toQuantity(quantity - block.remaining[i]));
+        }
+        return order;
+    }
+}
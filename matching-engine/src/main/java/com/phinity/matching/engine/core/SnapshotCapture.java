@@ -0,0 +1,143 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.Side;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+
+import java.util.List;
+
+/**
+ * Snapshot of a book as it was when the capture began, copied a bounded number of orders at a time so matching
+ * carries on between the steps. The capture walks the levels from the touch outwards and skips orders that
+ * arrived after it began. The book hands it every order the walk has not reached yet just before the order is
+ * filled, reduced or removed, so the copy taken then is the order as it was at the start; those copies are
+ * merged back into priority order when the snapshot is read.
+ * <p>
+ * A book has at most one capture in progress. Starting another one completes the earlier one first.
+ */
+public final class SnapshotCapture {
+    // Resting orders visited per step, which bounds how long a step holds up matching
+    public static final int STEP_ORDERS = 1_024;
+
+    private final AbstractOrderBook book;
+    private final BookSide bids;
+    private final BookSide asks;
+    // Orders that arrived later than this are not part of the snapshot
+    private final long lastArrival;
+    private final SideImage walkedBids;
+    private final SideImage walkedAsks;
+    private final SideImage savedBids;
+    private final SideImage savedAsks;
+    private final OrderBookSnapshot snapshot;
+    // Next order to visit, on the bids until they are done
+    private BookOrder cursor;
+    private boolean walkingAsks;
+    private volatile boolean complete;
+
+    SnapshotCapture(AbstractOrderBook book, BookSide bids, BookSide asks, long lastArrival, long lastTradeId,
+                    long sequence, TradeStatistics statistics, CandleStore candles, List<String> recentOrderIds,
+                    long[] recentOrderIdTimes) {
+        String symbol = book.getSymbol();
+        PairScale scale = book.getScale();
+        this.book = book;
+        this.bids = bids;
+        this.asks = asks;
+        this.lastArrival = lastArrival;
+        this.walkedBids = new SideImage(symbol, scale, Side.BUY);
+        this.walkedAsks = new SideImage(symbol, scale, Side.SELL);
+        this.savedBids = new SideImage(symbol, scale, Side.BUY);
+        this.savedAsks = new SideImage(symbol, scale, Side.SELL);
+        this.snapshot = new OrderBookSnapshot(symbol, () -> SideImage.toOrders(walkedBids, savedBids),
+                () -> SideImage.toOrders(walkedAsks, savedAsks), lastTradeId, sequence);
+        snapshot.setTradeStatistics(statistics);
+        snapshot.setCandles(candles);
+        snapshot.setRecentOrderIds(recentOrderIds);
+        snapshot.setRecentOrderIdTimes(recentOrderIdTimes);
+        this.cursor = first(bids);
+    }
+
+    /**
+     * Copies the next {@link #STEP_ORDERS} orders, under the book's read lock if it has one. Books without locks
+     * have to be stepped on their owning thread.
+     *
+     * @return true once the capture is complete
+     */
+    public boolean step() {
+        return complete || book.advanceCapture(this, STEP_ORDERS);
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @throws IllegalStateException if the capture is not complete yet
+     */
+    public OrderBookSnapshot getSnapshot() {
+        if (!complete) {
+            throw new IllegalStateException("Snapshot of " + book.getSymbol() + " is still being captured");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Visits up to the given number of orders; called by the book while no command can run.
+     *
+     * @return true once the capture is complete
+     */
+    boolean copy(int orders) {
+        for (int visited = 0; visited < orders && !complete; visited++) {
+            if (cursor == null) {
+                if (walkingAsks) {
+                    complete = true;
+                    break;
+                }
+                walkingAsks = true;
+                cursor = first(asks);
+                continue;
+            }
+            BookOrder order = cursor;
+            cursor = successor(order);
+            if (order.arrival <= lastArrival && order.capture != this) {
+                order.capture = this;
+                (walkingAsks ? walkedAsks : walkedBids).add(order);
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Saves the order as it is, if it is part of the snapshot and not copied yet; called by the book before
+     * the order's remaining quantity changes.
+     */
+    void beforeChange(BookOrder order) {
+        if (order.arrival <= lastArrival && order.capture != this) {
+            order.capture = this;
+            (order.side == Side.BUY ? savedBids : savedAsks).add(order);
+        }
+    }
+
+    /**
+     * Saves the order like {@link #beforeChange(BookOrder)} and moves the walk past it; called by the book while
+     * the order and its level are still linked.
+     */
+    void beforeRemove(BookOrder order) {
+        beforeChange(order);
+        if (cursor == order) {
+            cursor = successor(order);
+        }
+    }
+
+    private BookOrder successor(BookOrder order) {
+        if (order.next != null) {
+            return order.next;
+        }
+        PriceLevel next = (order.side == Side.BUY ? bids : asks).next(order.level);
+        return next != null ? next.head : null;
+    }
+
+    private static BookOrder first(BookSide side) {
+        PriceLevel best = side.best();
+        return best != null ? best.head : null;
+    }
+}
@@ -0,0 +1,73 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.matching.engine.config.PairScale;
+
+import java.math.BigDecimal;
+
+/**
+ * Top of book and ticker of a pair as of one command: best bid and ask with their level quantities, the last
+ * trade, and the high, low and volume of the trades in the last 24 hours. Prices are in ticks and quantities in
+ * lots of the pair's scale, with decimal getters converting them; 0 stands for no bid, ask or trade.
+ */
+public final class Ticker {
+    private final String symbol;
+    private final PairScale scale;
+    private final long bestBidTicks;
+    private final long bestBidLots;
+    private final long bestAskTicks;
+    private final long bestAskLots;
+    private final long lastPriceTicks;
+    private final long lastQuantityLots;
+    private final long lastTradeMillis;
+    private final long highTicks;
+    private final long lowTicks;
+    private final long volumeLots;
+    private final long sequence;
+    private final long timestampMillis;
+
+    Ticker(String symbol, PairScale scale, long bestBidTicks, long bestBidLots, long bestAskTicks, long bestAskLots,
+           long lastPriceTicks, long lastQuantityLots, long lastTradeMillis, long highTicks, long lowTicks, long volumeLots,
+           long sequence, long timestampMillis) {
+        this.symbol = symbol;
+        this.scale = scale;
+        this.bestBidTicks = bestBidTicks;
+        this.bestBidLots = bestBidLots;
+        this.bestAskTicks = bestAskTicks;
+        this.bestAskLots = bestAskLots;
+        this.lastPriceTicks = lastPriceTicks;
+        this.lastQuantityLots = lastQuantityLots;
+        this.lastTradeMillis = lastTradeMillis;
+        this.highTicks = highTicks;
+        this.lowTicks = lowTicks;
+        this.volumeLots = volumeLots;
+        this.sequence = sequence;
+        this.timestampMillis = timestampMillis;
+    }
+
+    public String getSymbol() { return symbol; }
+    public long getBestBidTicks() { return bestBidTicks; }
+    public long getBestBidLots() { return bestBidLots; }
+    public long getBestAskTicks() { return bestAskTicks; }
+    public long getBestAskLots() { return bestAskLots; }
+    public long getLastPriceTicks() { return lastPriceTicks; }
+    public long getLastQuantityLots() { return lastQuantityLots; }
+    /** Epoch millis of the last trade, 0 if the book has not traded. */
+    public long getLastTradeMillis() { return lastTradeMillis; }
+    public long getHighTicks() { return highTicks; }
+    public long getLowTicks() { return lowTicks; }
+    public long getVolumeLots() { return volumeLots; }
+    /** Book sequence of the command the record reflects, see {@link OrderBook#getSequence()}. */
+    public long getSequence() { return sequence; }
+    /** Epoch millis of the command the record reflects. */
+    public long getTimestampMillis() { return timestampMillis; }
+
+    public BigDecimal getBestBid() { return bestBidLots > 0 ? scale.toPrice(bestBidTicks) : null; }
+    public BigDecimal getBestBidQuantity() { return scale.toQuantity(bestBidLots); }
+    public BigDecimal getBestAsk() { return bestAskLots > 0 ? scale.toPrice(bestAskTicks) : null; }
+    public BigDecimal getBestAskQuantity() { return scale.toQuantity(bestAskLots); }
+    public BigDecimal getLastPrice() { return lastTradeMillis > 0 ? scale.toPrice(lastPriceTicks) : null; }
+    public BigDecimal getLastQuantity() { return scale.toQuantity(lastQuantityLots); }
+    public BigDecimal getHigh() { return volumeLots > 0 ? scale.toPrice(highTicks) : null; }
+    public BigDecimal getLow() { return volumeLots > 0 ? scale.toPrice(lowTicks) : null; }
+    public BigDecimal getVolume() { return scale.toQuantity(volumeLots); }
+}
@@ -0,0 +1,82 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.matching.engine.config.PairScale;
+
+/**
+ * Latest {@link Ticker} values of a book, written by the book after every command and read from any thread.
+ * Guarded by a {@link SeqLock}: the writer bumps the version around its stores without allocating, and readers
+ * copy the values and retry if a write overlapped, so reads never hold up matching.
+ */
+final class TickerCell {
+    private final SeqLock lock = new SeqLock();
+    // Only touched by the book's writer
+    private TradeStatistics statistics = new TradeStatistics();
+
+    private long bestBidTicks;
+    private long bestBidLots;
+    private long bestAskTicks;
+    private long bestAskLots;
+    private long lastPriceTicks;
+    private long lastQuantityLots;
+    private long lastTradeMillis;
+    private long highTicks;
+    private long lowTicks;
+    private long volumeLots;
+    private long sequence;
+    private long timestampMillis;
+
+    /**
+     * @param fills fills of the command, null if it cannot trade
+     */
+    void update(PriceLevel bestBid, PriceLevel bestAsk, TradeBuffer fills, long sequence, long timeMillis) {
+        statistics.advance(timeMillis);
+        if (fills != null) {
+            for (int i = 0; i < fills.size(); i++) {
+                statistics.record(fills.price(i), fills.quantity(i), timeMillis);
+            }
+        }
+        lock.beginWrite();
+        bestBidTicks = bestBid != null ? bestBid.price : 0;
+        bestBidLots = bestBid != null ? bestBid.totalQuantity : 0;
+        bestAskTicks = bestAsk != null ? bestAsk.price : 0;
+        bestAskLots = bestAsk != null ? bestAsk.totalQuantity : 0;
+        lastPriceTicks = statistics.lastPrice;
+        lastQuantityLots = statistics.lastQuantity;
+        lastTradeMillis = statistics.lastTradeMillis;
+        highTicks = statistics.high();
+        lowTicks = statistics.low();
+        volumeLots = statistics.volume();
+        this.sequence = sequence;
+        this.timestampMillis = timeMillis;
+        lock.endWrite();
+    }
+
+    Ticker read(String symbol, PairScale scale) {
+        while (true) {
+            long version = lock.readBegin();
+            Ticker ticker = copy(symbol, scale);
+            if (lock.readValid(version)) {
+                return ticker;
+            }
+        }
+    }
+
+    private Ticker copy(String symbol, PairScale scale) {
+        return new Ticker(symbol, scale, bestBidTicks, bestBidLots, bestAskTicks, bestAskLots, lastPriceTicks,
+                lastQuantityLots, lastTradeMillis, highTicks, lowTicks, volumeLots, sequence, timestampMillis);
+    }
+
+    /**
+     * @return a copy of the trade statistics, for the writer only
+     */
+    TradeStatistics copyStatistics() {
+        return statistics.copy();
+    }
+
+    /**
+     * Continues from the trade statistics of the book this one replaces, for the writer only.
+     */
+    void adoptStatistics(TradeStatistics statistics) {
+        this.statistics = statistics.copy();
+    }
+}
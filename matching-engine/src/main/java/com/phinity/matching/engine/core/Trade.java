@@ -1,46 +1,59 @@
 package com.phinity.matching.engine.core;
 
+import com.phinity.matching.engine.config.PairScale;
+
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 public class Trade {
-    private final String tradeId;
+    private final long tradeId;
     private final String symbol;
     private final String buyOrderId;
     private final String sellOrderId;
-    private final BigDecimal price;
-    private final BigDecimal quantity;
+    private final long priceTicks;
+    private final long quantityLots;
+    private final PairScale scale;
     private final LocalDateTime timestamp;
     private final String makerOrderId;
     private final String takerOrderId;
     private final String buyerUserId;
     private final String sellerUserId;
 
-    public Trade(String tradeId, String symbol, String buyOrderId, String sellOrderId, 
-                 BigDecimal price, BigDecimal quantity, String makerOrderId, String takerOrderId,
+    public Trade(long tradeId, String symbol, String buyOrderId, String sellOrderId,
+                 long priceTicks, long quantityLots, PairScale scale, String makerOrderId, String takerOrderId,
                  String buyerUserId, String sellerUserId) {
+        this(tradeId, symbol, buyOrderId, sellOrderId, priceTicks, quantityLots, scale, makerOrderId, takerOrderId,
+                buyerUserId, sellerUserId, LocalDateTime.now());
+    }
+
+    public Trade(long tradeId, String symbol, String buyOrderId, String sellOrderId,
+                 long priceTicks, long quantityLots, PairScale scale, String makerOrderId, String takerOrderId,
+                 String buyerUserId, String sellerUserId, LocalDateTime timestamp) {
         this.tradeId = tradeId;
         this.symbol = symbol;
         this.buyOrderId = buyOrderId;
         this.sellOrderId = sellOrderId;
-        this.price = price;
-        this.quantity = quantity;
+        this.priceTicks = priceTicks;
+        this.quantityLots = quantityLots;
+        this.scale = scale;
         this.makerOrderId = makerOrderId;
         this.takerOrderId = takerOrderId;
         this.buyerUserId = buyerUserId;
         this.sellerUserId = sellerUserId;
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = timestamp;
     }
 
-    public String getTradeId() { return tradeId; }
+    public String getTradeId() { return String.valueOf(tradeId); }
     public String getSymbol() { return symbol; }
     public String getBuyOrderId() { return buyOrderId; }
     public String getSellOrderId() { return sellOrderId; }
-    public BigDecimal getPrice() { return price; }
-    public BigDecimal getQuantity() { return quantity; }
+    public BigDecimal getPrice() { return scale.toPrice(priceTicks); }
+    public BigDecimal getQuantity() { return scale.toQuantity(quantityLots); }
+    public long getPriceTicks() { return priceTicks; }
+    public long getQuantityLots() { return quantityLots; }
     public LocalDateTime getTimestamp() { return timestamp; }
     public String getMakerOrderId() { return makerOrderId; }
     public String getTakerOrderId() { return takerOrderId; }
     public String getBuyerUserId() { return buyerUserId; }
     public String getSellerUserId() { return sellerUserId; }
-}
\ No newline at end of file
+}
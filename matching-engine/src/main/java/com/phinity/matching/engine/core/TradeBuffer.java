@@ -0,0 +1,115 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.matching.engine.config.PairScale;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fills of one command in raw ticks and lots, written by the book without allocating a {@link Trade} per fill.
+ * Instances are reusable, {@link #clear()} keeps the allocated capacity.
+ */
+public final class TradeBuffer {
+    private long[] tradeIds = new long[16];
+    private String[] makerOrderIds = new String[16];
+    private String[] makerUserIds = new String[16];
+    private long[] prices = new long[16];
+    private long[] quantities = new long[16];
+    private String takerOrderId;
+    private String takerUserId;
+    private boolean takerBuys;
+    private int size;
+    // Time of the command that caused the fills, kept across clear(); 0 stamps trades when materialised
+    private long timestampMillis;
+
+    void begin(String takerOrderId, String takerUserId, boolean takerBuys) {
+        this.takerOrderId = takerOrderId;
+        this.takerUserId = takerUserId;
+        this.takerBuys = takerBuys;
+        this.size = 0;
+    }
+
+    void add(long tradeId, String makerOrderId, String makerUserId, long price, long quantity) {
+        if (size == prices.length) {
+            int capacity = size * 2;
+            tradeIds = Arrays.copyOf(tradeIds, capacity);
+            makerOrderIds = Arrays.copyOf(makerOrderIds, capacity);
+            makerUserIds = Arrays.copyOf(makerUserIds, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+        }
+        tradeIds[size] = tradeId;
+        makerOrderIds[size] = makerOrderId;
+        makerUserIds[size] = makerUserId;
+        prices[size] = price;
+        quantities[size] = quantity;
+        size++;
+    }
+
+    public void clear() {
+        Arrays.fill(makerOrderIds, 0, size, null);
+        Arrays.fill(makerUserIds, 0, size, null);
+        takerOrderId = null;
+        takerUserId = null;
+        size = 0;
+    }
+
+    /**
+     * Sets the time of the command, in epoch milliseconds, that the fills written next belong to. Taking
+     * it from the command rather than the clock keeps replays reproducible.
+     */
+    public void setTimestamp(long timestampMillis) {
+        this.timestampMillis = timestampMillis;
+    }
+
+    public long getTimestamp() { return timestampMillis; }
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public String getTakerOrderId() { return takerOrderId; }
+    public String getTakerUserId() { return takerUserId; }
+    public boolean isTakerBuy() { return takerBuys; }
+    public long tradeId(int index) { return tradeIds[index]; }
+    public String makerOrderId(int index) { return makerOrderIds[index]; }
+    public String makerUserId(int index) { return makerUserIds[index]; }
+    public long price(int index) { return prices[index]; }
+    public long quantity(int index) { return quantities[index]; }
+
+    public long totalQuantity() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += quantities[i];
+        }
+        return total;
+    }
+
+    /**
+     * Materialises the fills as {@link Trade}s for callers of the list based API.
+     */
+    public List<Trade> toTrades(String symbol, PairScale scale) {
+        List<Trade> trades = new ArrayList<>(size);
+        LocalDateTime timestamp = timestampMillis != 0
+                ? LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMillis), ZoneId.systemDefault())
+                : LocalDateTime.now();
+        for (int i = 0; i < size; i++) {
+            trades.add(new Trade(
+                    tradeIds[i],
+                    symbol,
+                    takerBuys ? takerOrderId : makerOrderIds[i],
+                    takerBuys ? makerOrderIds[i] : takerOrderId,
+                    prices[i],
+                    quantities[i],
+                    scale,
+                    makerOrderIds[i],
+                    takerOrderId,
+                    takerBuys ? takerUserId : makerUserIds[i],
+                    takerBuys ? makerUserIds[i] : takerUserId,
+                    timestamp
+            ));
+        }
+        return trades;
+    }
+}
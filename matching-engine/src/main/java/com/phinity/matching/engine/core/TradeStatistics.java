@@ -0,0 +1,136 @@
+package com.phinity.matching.engine.core;
+
+import java.util.Arrays;
+
+/**
+ * Last trade and rolling 24 hour high, low and volume of one book, kept in five-minute buckets. The buckets
+ * before the current one are totalled once per bucket, so recording a trade and reading the totals are O(1);
+ * the window therefore rolls in five-minute steps. The buckets are only allocated with the book's first trade.
+ * <p>
+ * Travels with an {@link com.phinity.matching.engine.snapshot.OrderBookSnapshot} when a book moves between
+ * engines of the same process, and is opaque outside the books; it is not part of the encoded snapshot.
+ */
+public final class TradeStatistics {
+    private static final int BUCKETS = 24 * 12;
+    private static final long BUCKET_MILLIS = 5 * 60_000;
+
+    // Bucket number each slot's totals belong to, and the totals
+    private long[] buckets;
+    private long[] highs;
+    private long[] lows;
+    private long[] volumes;
+    private long currentBucket = Long.MIN_VALUE;
+    // Start of the next bucket and the current bucket's slot, so most commands skip the divisions
+    private long nextBucketMillis = Long.MIN_VALUE;
+    private int currentSlot;
+    // Totals of the earlier buckets still in the window
+    private long closedHigh;
+    private long closedLow;
+    private long closedVolume;
+
+    long lastPrice;
+    long lastQuantity;
+    long lastTradeMillis;
+
+    TradeStatistics() {
+    }
+
+    /**
+     * Moves the window to the given time; earlier times leave it where it is.
+     */
+    void advance(long timeMillis) {
+        if (timeMillis < nextBucketMillis) {
+            return;
+        }
+        long bucket = Math.floorDiv(timeMillis, BUCKET_MILLIS);
+        currentBucket = bucket;
+        nextBucketMillis = (bucket + 1) * BUCKET_MILLIS;
+        currentSlot = (int) Math.floorMod(bucket, (long) BUCKETS);
+        closedHigh = 0;
+        closedLow = Long.MAX_VALUE;
+        closedVolume = 0;
+        if (buckets == null) {
+            return;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] > bucket - BUCKETS && buckets[i] < bucket && volumes[i] > 0) {
+                closedHigh = Math.max(closedHigh, highs[i]);
+                closedLow = Math.min(closedLow, lows[i]);
+                closedVolume += volumes[i];
+            }
+        }
+    }
+
+    /**
+     * Records a fill in the current bucket, see {@link #advance(long)}.
+     */
+    void record(long price, long quantity, long timeMillis) {
+        if (buckets == null) {
+            buckets = new long[BUCKETS];
+            Arrays.fill(buckets, Long.MIN_VALUE);
+            highs = new long[BUCKETS];
+            lows = new long[BUCKETS];
+            volumes = new long[BUCKETS];
+        }
+        int slot = currentSlot;
+        if (buckets[slot] != currentBucket) {
+            buckets[slot] = currentBucket;
+            highs[slot] = price;
+            lows[slot] = price;
+            volumes[slot] = 0;
+        }
+        highs[slot] = Math.max(highs[slot], price);
+        lows[slot] = Math.min(lows[slot], price);
+        volumes[slot] += quantity;
+        lastPrice = price;
+        lastQuantity = quantity;
+        lastTradeMillis = timeMillis;
+    }
+
+    long high() {
+        int slot = tradedSlot();
+        return slot >= 0 ? Math.max(closedHigh, highs[slot]) : closedHigh;
+    }
+
+    long low() {
+        int slot = tradedSlot();
+        long low = slot >= 0 ? Math.min(closedLow, lows[slot]) : closedLow;
+        return low == Long.MAX_VALUE ? 0 : low;
+    }
+
+    long volume() {
+        int slot = tradedSlot();
+        return slot >= 0 ? closedVolume + volumes[slot] : closedVolume;
+    }
+
+    /**
+     * @return the slot of the current bucket if it has trades, -1 otherwise
+     */
+    private int tradedSlot() {
+        if (buckets == null) {
+            return -1;
+        }
+        int slot = currentSlot;
+        return buckets[slot] == currentBucket && volumes[slot] > 0 ? slot : -1;
+    }
+
+    TradeStatistics copy() {
+        TradeStatistics copy = new TradeStatistics();
+        if (buckets != null) {
+            copy.buckets = buckets.clone();
+            copy.highs = highs.clone();
+            copy.lows = lows.clone();
+            copy.volumes = volumes.clone();
+        }
+        copy.currentBucket = currentBucket;
+        copy.nextBucketMillis = nextBucketMillis;
+        copy.currentSlot = currentSlot;
+        copy.closedHigh = closedHigh;
+        copy.closedLow = closedLow;
+        copy.closedVolume = closedVolume;
+        copy.lastPrice = lastPrice;
+        copy.lastQuantity = lastQuantity;
+        copy.lastTradeMillis = lastTradeMillis;
+        return copy;
+    }
+}
@@ -0,0 +1,52 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.Side;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Book side backed by a sorted map, suitable for any price range. Not thread-safe on its own,
+ * {@link ConcurrentOrderBook} guards it with its read/write lock.
+ */
+final class TreeBookSide implements BookSide {
+    private final Side side;
+    private final TreeMap<Long, PriceLevel> levels;
+    // First level of the map, kept like the ladder's since the book reads it after every command
+    private PriceLevel best;
+
+    TreeBookSide(Side side) {
+        this.side = side;
+        this.levels = side == Side.BUY ? new TreeMap<>(Collections.reverseOrder()) : new TreeMap<>();
+    }
+
+    @Override
+    public PriceLevel best() {
+        return best;
+    }
+
+    @Override
+    public PriceLevel next(PriceLevel level) {
+        Map.Entry<Long, PriceLevel> entry = levels.higherEntry(level.price);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Override
+    public PriceLevel getOrCreate(long price) {
+        PriceLevel level = levels.computeIfAbsent(price, p -> new PriceLevel(side, p));
+        if (best == null || (side == Side.BUY ? price > best.price : price < best.price)) {
+            best = level;
+        }
+        return level;
+    }
+
+    @Override
+    public void remove(PriceLevel level) {
+        levels.remove(level.price);
+        if (level == best) {
+            Map.Entry<Long, PriceLevel> entry = levels.firstEntry();
+            best = entry != null ? entry.getValue() : null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.phinity.matching.engine.core;
+
+/**
+ * Resting orders by user, so a user's orders can be cancelled in time proportional to their number. Each user
+ * with resting orders has an {@link Entry} heading a list threaded through {@link BookOrder#userPrev} and
+ * {@link BookOrder#userNext}, found through a chained hash table like the {@link OrderIndex}. Entries are
+ * recycled once their user has no orders left, so users coming and going do not allocate in steady state.
+ */
+final class UserIndex {
+    private static final int MAX_FREE_ENTRIES = 1 << 12;
+
+    static final class Entry {
+        String userId;
+        BookOrder head;
+        int count;
+        // Chain of the table bucket, or of the free list while recycled
+        Entry hashNext;
+    }
+
+    private Entry[] table = new Entry[256];
+    private int size;
+    private Entry freeEntries;
+    private int freeEntryCount;
+
+    /**
+     * @return number of users with resting orders
+     */
+    int size() {
+        return size;
+    }
+
+    Entry get(String userId) {
+        for (Entry entry = table[indexFor(userId.hashCode(), table.length)]; entry != null; entry = entry.hashNext) {
+            if (entry.userId.equals(userId)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a resting order to its user's list; orders without a user are not indexed.
+     */
+    void add(BookOrder order) {
+        if (order.userId == null) {
+            return;
+        }
+        Entry entry = get(order.userId);
+        if (entry == null) {
+            entry = newEntry(order.userId);
+        }
+        order.userEntry = entry;
+        order.userPrev = null;
+        order.userNext = entry.head;
+        if (entry.head != null) {
+            entry.head.userPrev = order;
+        }
+        entry.head = order;
+        entry.count++;
+    }
+
+    void remove(BookOrder order) {
+        Entry entry = order.userEntry;
+        if (entry == null) {
+            return;
+        }
+        if (order.userPrev != null) {
+            order.userPrev.userNext = order.userNext;
+        } else {
+            entry.head = order.userNext;
+        }
+        if (order.userNext != null) {
+            order.userNext.userPrev = order.userPrev;
+        }
+        order.userEntry = null;
+        order.userPrev = null;
+        order.userNext = null;
+        if (--entry.count == 0) {
+            removeEntry(entry);
+        }
+    }
+
+    private Entry newEntry(String userId) {
+        if (size >= table.length - (table.length >>> 2)) {
+            resize();
+        }
+        Entry entry = freeEntries;
+        if (entry != null) {
+            freeEntries = entry.hashNext;
+            freeEntryCount--;
+        } else {
+            entry = new Entry();
+        }
+        entry.userId = userId;
+        int index = indexFor(userId.hashCode(), table.length);
+        entry.hashNext = table[index];
+        table[index] = entry;
+        size++;
+        return entry;
+    }
+
+    private void removeEntry(Entry entry) {
+        int index = indexFor(entry.userId.hashCode(), table.length);
+        Entry prev = null;
+        for (Entry current = table[index]; current != null; prev = current, current = current.hashNext) {
+            if (current == entry) {
+                if (prev == null) {
+                    table[index] = current.hashNext;
+                } else {
+                    prev.hashNext = current.hashNext;
+                }
+                size--;
+                break;
+            }
+        }
+        entry.userId = null;
+        entry.head = null;
+        entry.hashNext = null;
+        if (freeEntryCount < MAX_FREE_ENTRIES) {
+            entry.hashNext = freeEntries;
+            freeEntries = entry;
+            freeEntryCount++;
+        }
+    }
+
+    private void resize() {
+        Entry[] newTable = new Entry[table.length * 2];
+        for (Entry head : table) {
+            Entry entry = head;
+            while (entry != null) {
+                Entry next = entry.hashNext;
+                int index = indexFor(entry.userId.hashCode(), newTable.length);
+                entry.hashNext = newTable[index];
+                newTable[index] = entry;
+                entry = next;
+            }
+        }
+        table = newTable;
+    }
+
+    private static int indexFor(int hash, int length) {
+        return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+}
@@ -0,0 +1,43 @@
+package com.phinity.matching.engine.events;
+
+import java.math.BigDecimal;
+
+/**
+ * OHLCV bar of a pair that has ended. Published once per bar and interval; intervals without trades have no bar.
+ */
+public class CandleClosedEvent {
+    private final String symbol;
+    private final String interval;
+    private final long openTime;
+    private final BigDecimal open;
+    private final BigDecimal high;
+    private final BigDecimal low;
+    private final BigDecimal close;
+    private final BigDecimal volume;
+    private final long tradeCount;
+
+    public CandleClosedEvent(String symbol, String interval, long openTime, BigDecimal open, BigDecimal high,
+                             BigDecimal low, BigDecimal close, BigDecimal volume, long tradeCount) {
+        this.symbol = symbol;
+        this.interval = interval;
+        this.openTime = openTime;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+        this.tradeCount = tradeCount;
+    }
+
+    public String getSymbol() { return symbol; }
+    /** Bar length, e.g. {@code 1m} */
+    public String getInterval() { return interval; }
+    /** Start of the bar in epoch milliseconds */
+    public long getOpenTime() { return openTime; }
+    public BigDecimal getOpen() { return open; }
+    public BigDecimal getHigh() { return high; }
+    public BigDecimal getLow() { return low; }
+    public BigDecimal getClose() { return close; }
+    public BigDecimal getVolume() { return volume; }
+    public long getTradeCount() { return tradeCount; }
+}
@@ -0,0 +1,45 @@
+package com.phinity.matching.engine.events;
+
+import com.phinity.common.dto.enums.Side;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Price levels changed since the previous delta of the same book. A level with zero quantity has been removed.
+ * Sequences are consecutive per book, a gap means the consumer has to resynchronise from the next snapshot.
+ */
+public class OrderBookDeltaEvent {
+    private final String symbol;
+    private final long sequence;
+    private final List<LevelChange> changes;
+
+    public OrderBookDeltaEvent(String symbol, long sequence, List<LevelChange> changes) {
+        this.symbol = symbol;
+        this.sequence = sequence;
+        this.changes = changes;
+    }
+
+    public String getSymbol() { return symbol; }
+    public long getSequence() { return sequence; }
+    public List<LevelChange> getChanges() { return changes; }
+
+    public static class LevelChange {
+        private final Side side;
+        private final BigDecimal price;
+        private final BigDecimal quantity;
+        private final int orderCount;
+
+        public LevelChange(Side side, BigDecimal price, BigDecimal quantity, int orderCount) {
+            this.side = side;
+            this.price = price;
+            this.quantity = quantity;
+            this.orderCount = orderCount;
+        }
+
+        public Side getSide() { return side; }
+        public BigDecimal getPrice() { return price; }
+        public BigDecimal getQuantity() { return quantity; }
+        public int getOrderCount() { return orderCount; }
+    }
+}
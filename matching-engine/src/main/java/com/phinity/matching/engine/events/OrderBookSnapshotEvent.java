@@ -0,0 +1,28 @@
+package com.phinity.matching.engine.events;
+
+import com.phinity.common.dto.models.OrderBookUpdateEvent;
+
+import java.util.List;
+
+/**
+ * Every price level of a book as of delta {@code sequence}; deltas with a higher sequence apply on top of it.
+ */
+public class OrderBookSnapshotEvent {
+    private final String symbol;
+    private final long sequence;
+    private final List<OrderBookUpdateEvent.OrderLevel> bids;
+    private final List<OrderBookUpdateEvent.OrderLevel> asks;
+
+    public OrderBookSnapshotEvent(String symbol, long sequence, List<OrderBookUpdateEvent.OrderLevel> bids,
+                                  List<OrderBookUpdateEvent.OrderLevel> asks) {
+        this.symbol = symbol;
+        this.sequence = sequence;
+        this.bids = bids;
+        this.asks = asks;
+    }
+
+    public String getSymbol() { return symbol; }
+    public long getSequence() { return sequence; }
+    public List<OrderBookUpdateEvent.OrderLevel> getBids() { return bids; }
+    public List<OrderBookUpdateEvent.OrderLevel> getAsks() { return asks; }
+}
@@ -0,0 +1,29 @@
+package com.phinity.matching.engine.events;
+
+import com.phinity.common.dto.enums.Side;
+
+import java.util.List;
+
+/**
+ * Report of a mass cancel: every order it took off the book, in one event.
+ */
+public class OrdersCancelledEvent {
+    private final String symbol;
+    private final String userId;
+    private final Side side;
+    private final List<String> orderIds;
+
+    public OrdersCancelledEvent(String symbol, String userId, Side side, List<String> orderIds) {
+        this.symbol = symbol;
+        this.userId = userId;
+        this.side = side;
+        this.orderIds = orderIds;
+    }
+
+    public String getSymbol() { return symbol; }
+    /** User whose orders were cancelled, null if the whole book was */
+    public String getUserId() { return userId; }
+    /** Side that was cancelled, null for both */
+    public Side getSide() { return side; }
+    public List<String> getOrderIds() { return orderIds; }
+}
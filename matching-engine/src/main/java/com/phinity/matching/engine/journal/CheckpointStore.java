@@ -0,0 +1,130 @@
+package com.phinity.matching.engine.journal;
+
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import com.phinity.matching.engine.snapshot.SnapshotCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the latest {@link EngineCheckpoint} of each engine in a file next to its journal. The books are
+ * stored in the {@link SnapshotCodec} format; the file is written into a memory mapping, forced and
+ * atomically renamed over the previous checkpoint, and read back straight from a read-only mapping.
+ * <p>
+ * Layout: magic, version, engine name, sequence, book count, each book as its length and encoded snapshot,
+ * and a CRC32C of everything before it.
+ */
+@Slf4j
+public class CheckpointStore {
+    private static final int MAGIC = 0x5048434B; // "PHCK"
+    private static final short VERSION = 1;
+    private static final String SUFFIX = ".checkpoint";
+
+    private final Path directory;
+
+    public CheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public void write(EngineCheckpoint checkpoint) {
+        long startTime = System.nanoTime();
+        byte[] name = checkpoint.getEngineName().getBytes(StandardCharsets.UTF_8);
+        List<byte[]> books = new ArrayList<>(checkpoint.getBooks().size());
+        long size = 4 + 2 + 4 + name.length + 8 + 4 + 4;
+        for (int i = 0; i < checkpoint.getBooks().size(); i++) {
+            byte[] book = SnapshotCodec.encode(checkpoint.getBooks().get(i), checkpoint.getScales().get(i));
+            books.add(book);
+            size += 4 + book.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Checkpoint of " + checkpoint.getEngineName() + " exceeds 2 GB");
+        }
+
+        Path file = file(checkpoint.getEngineName());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(MAGIC);
+                buffer.putShort(VERSION);
+                buffer.putInt(name.length);
+                buffer.put(name);
+                buffer.putLong(checkpoint.getSequence());
+                buffer.putInt(books.size());
+                for (byte[] book : books) {
+                    buffer.putInt(book.length);
+                    buffer.put(book);
+                }
+                CRC32C crc = new CRC32C();
+                crc.update(buffer.duplicate().flip());
+                buffer.putInt((int) crc.getValue());
+                buffer.force();
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write checkpoint of " + checkpoint.getEngineName(), e);
+        }
+        log.info("Checkpointed {} books of {} at sequence {} in {} bytes, {} ms", books.size(),
+                checkpoint.getEngineName(), checkpoint.getSequence(), size, (System.nanoTime() - startTime) / 1_000_000);
+    }
+
+    /**
+     * @return the engine's latest checkpoint, null if it has none
+     * @throws IllegalStateException if the checkpoint file is damaged
+     */
+    public EngineCheckpoint read(String engineName) {
+        Path file = file(engineName);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < 4) {
+                throw new IllegalStateException("Checkpoint " + file + " is damaged");
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate().limit(buffer.limit() - 4));
+            if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+                throw new IllegalStateException("Checkpoint " + file + " is damaged");
+            }
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                throw new IllegalStateException("Not a checkpoint of a supported version: " + file);
+            }
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            long sequence = buffer.getLong();
+            int count = buffer.getInt();
+            List<OrderBookSnapshot> books = new ArrayList<>(count);
+            List<PairScale> scales = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                ByteBuffer book = buffer.slice(buffer.position(), length);
+                scales.add(SnapshotCodec.decodeScale(book));
+                books.add(SnapshotCodec.decode(book));
+                buffer.position(buffer.position() + length);
+            }
+            return new EngineCheckpoint(new String(name, StandardCharsets.UTF_8), sequence, books, scales);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read checkpoint " + file, e);
+        }
+    }
+
+    private Path file(String engineName) {
+        return directory.resolve(CommandJournal.fileName(engineName) + SUFFIX);
+    }
+}
@@ -0,0 +1,246 @@
+package com.phinity.matching.engine.journal;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.CommandType;
+import com.phinity.matching.engine.OrderEvent;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary form of a command that {@link CommandJournal#isJournaled(CommandType) is journaled}, shared by the
+ * journal and replication. Order types are written as their ordinal, so the reader has to map them with the
+ * writer's {@link OrderType} constants; times in force are written as fixed codes.
+ * <p>
+ * The layout below is version {@link CommandJournal#VERSION} of the journal, whose records replication sends as
+ * they are: the command type's ordinal and the symbol, followed by
+ * <ul>
+ * <li>NEW: order id, user id, side (0 buy, 1 sell), order type ordinal or -1, price ticks, quantity lots,
+ * timestamp, time in force code or -1</li>
+ * <li>CANCEL: order id</li>
+ * <li>MODIFY: order id, new price ticks and new quantity lots, {@link com.phinity.matching.engine.core.OrderBook#UNCHANGED}
+ * for a value kept</li>
+ * <li>MASS_CANCEL: user id, side ordinal or -1 for both</li>
+ * <li>RESTORE_BOOK: length and bytes of the encoded snapshot</li>
+ * <li>REMOVE_BOOK: nothing more</li>
+ * </ul>
+ * Strings are written by {@link #putString(ByteBuffer, String)}, numbers big-endian; a change of the layout
+ * needs a new version.
+ */
+public final class CommandCodec {
+
+    private CommandCodec() {
+    }
+
+    /**
+     * Writes the command at the buffer's position; the buffer needs {@link #maxSize(OrderEvent)} bytes left.
+     */
+    public static void write(OrderEvent event, ByteBuffer buffer) {
+        CommandType type = event.getType();
+        buffer.put((byte) type.ordinal());
+        putString(buffer, event.getSymbol());
+        switch (type) {
+            case NEW:
+                putString(buffer, event.getOrderId());
+                putString(buffer, event.getUserId());
+                buffer.put((byte) (event.getSide() == Side.SELL ? 1 : 0));
+                buffer.put((byte) (event.getOrderType() != null ? event.getOrderType().ordinal() : -1));
+                buffer.putLong(event.getPrice());
+                buffer.putLong(event.getQuantity());
+                buffer.putLong(event.getTimestamp());
+                buffer.put(timeInForceCode(event.getTimeInForce()));
+                break;
+            case CANCEL:
+                putString(buffer, event.getOrderId());
+                break;
+            case MODIFY:
+                putString(buffer, event.getOrderId());
+                buffer.putLong(event.getNewPrice());
+                buffer.putLong(event.getNewQuantity());
+                break;
+            case MASS_CANCEL:
+                putString(buffer, event.getUserId());
+                buffer.put((byte) (event.getSide() != null ? event.getSide().ordinal() : -1));
+                break;
+            case RESTORE_BOOK:
+                buffer.putInt(event.getPayload().length);
+                buffer.put(event.getPayload());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Reads a command written by {@link #write(OrderEvent, ByteBuffer)} into the event. The buffer has to end
+     * with the command.
+     *
+     * @param orderTypes the writer's order type constants, in ordinal order
+     * @throws IllegalStateException if the bytes are not a command
+     */
+    public static void read(ByteBuffer buffer, OrderType[] orderTypes, OrderEvent event) {
+        try {
+            CommandType type = CommandType.values()[buffer.get()];
+            String symbol = getString(buffer);
+            switch (type) {
+                case NEW: {
+                    String orderId = getString(buffer);
+                    String userId = getString(buffer);
+                    Side side = buffer.get() == 1 ? Side.SELL : Side.BUY;
+                    int orderType = buffer.get();
+                    long price = buffer.getLong();
+                    long quantity = buffer.getLong();
+                    long timestamp = buffer.getLong();
+                    TimeInForce timeInForce = timeInForce(buffer.get());
+                    event.setNew(orderId, userId, symbol, side, price, quantity,
+                            orderType >= 0 ? orderTypes[orderType] : null, timeInForce, null, null);
+                    event.setTimestamp(timestamp);
+                    break;
+                }
+                case CANCEL:
+                    event.setCancel(getString(buffer), symbol, null);
+                    break;
+                case MODIFY: {
+                    String orderId = getString(buffer);
+                    long newPrice = buffer.getLong();
+                    long newQuantity = buffer.getLong();
+                    event.setModify(orderId, symbol, newPrice, newQuantity, null);
+                    break;
+                }
+                case MASS_CANCEL: {
+                    String userId = getString(buffer);
+                    int side = buffer.get();
+                    event.setMassCancel(userId, side >= 0 ? Side.values()[side] : null, symbol, null);
+                    break;
+                }
+                case RESTORE_BOOK: {
+                    byte[] snapshot = new byte[buffer.getInt()];
+                    buffer.get(snapshot);
+                    event.setRestoreBook(symbol, snapshot);
+                    break;
+                }
+                case REMOVE_BOOK:
+                    event.setRemoveBook(symbol, null);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected command " + type);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Malformed command", e);
+        }
+    }
+
+    public static int maxSize(OrderEvent event) {
+        int size = 1 + maxStringSize(event.getSymbol());
+        switch (event.getType()) {
+            case NEW:
+                return size + maxStringSize(event.getOrderId()) + maxStringSize(event.getUserId()) + 2 + 24 + 1;
+            case CANCEL:
+                return size + maxStringSize(event.getOrderId());
+            case MODIFY:
+                return size + maxStringSize(event.getOrderId()) + 16;
+            case MASS_CANCEL:
+                return size + maxStringSize(event.getUserId()) + 1;
+            case RESTORE_BOOK:
+                return size + 4 + event.getPayload().length;
+            default:
+                return size;
+        }
+    }
+
+    private static byte timeInForceCode(TimeInForce timeInForce) {
+        if (timeInForce == null) {
+            return -1;
+        }
+        switch (timeInForce) {
+            case GTC:
+                return 0;
+            case IOC:
+                return 1;
+            case FOK:
+                return 2;
+            default:
+                throw new IllegalArgumentException("Cannot encode time in force " + timeInForce);
+        }
+    }
+
+    private static TimeInForce timeInForce(byte code) {
+        switch (code) {
+            case -1:
+                return null;
+            case 0:
+                return TimeInForce.GTC;
+            case 1:
+                return TimeInForce.IOC;
+            case 2:
+                return TimeInForce.FOK;
+            default:
+                throw new IllegalStateException("Unknown time in force " + code);
+        }
+    }
+
+    private static int maxStringSize(String value) {
+        return 2 + (value != null ? 3 * value.length() : 0);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes without allocating; null is written as length -1.
+     */
+    public static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        int length = utf8Length(value);
+        if (length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("String too long to encode: " + length + " bytes");
+        }
+        buffer.putShort((short) length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else {
+                // Surrogates are encoded one by one, which decodes back to the same chars
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        int count = 0;
+        int end = buffer.position() + length;
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) ((b & 0x1F) << 6 | buffer.get() & 0x3F);
+            } else {
+                chars[count++] = (char) ((b & 0x0F) << 12 | (buffer.get() & 0x3F) << 6 | buffer.get() & 0x3F);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
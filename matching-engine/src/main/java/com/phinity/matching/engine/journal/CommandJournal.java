@@ -0,0 +1,517 @@
+package com.phinity.matching.engine.journal;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.matching.engine.CommandType;
+import com.phinity.matching.engine.OrderEvent;
+import com.phinity.matching.engine.config.FsyncPolicy;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of the commands applied by one Disruptor engine, in ring sequence order. Records are
+ * written into memory-mapped segment files of a fixed size and the journal rolls to a new segment when the
+ * current one is full; replaying the segments in order rebuilds the engine's books.
+ * <p>
+ * Every journaled command gets the next sequence number, starting at 1. A segment starts with a header naming
+ * the engine, the sequence of its first record and the {@link OrderType} constants, so order types are
+ * journaled as one byte and still map to the right constant after a restart; segments whose records are all
+ * covered by a checkpoint can be {@link #truncate(long) truncated}. Each record is its length, a
+ * CRC32C of its body and the body; a zero length marks the end of the data and replay stops at the first
+ * record whose checksum does not match, i.e. a write torn by a crash.
+ * <p>
+ * Appending is not thread-safe; it is done by the engine's journal stage only. The writer hands each segment it
+ * rolls away from to the list of sealed segments, which is all {@link #truncate(long)} looks at, so truncating
+ * never reads the segment being written. {@link #forceIfDue()} may be called from any thread as well.
+ */
+@Slf4j
+public class CommandJournal implements AutoCloseable {
+    private static final int MAGIC = 0x50484A4C; // "PHJL"
+    // Version of the segment header and the record layout of CommandCodec
+    static final short VERSION = 1;
+    private static final String SUFFIX = ".journal";
+    private static final int RECORD_HEADER = 8;
+    private static final int END_OF_SEGMENT = -1;
+    private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+    private final Path directory;
+    private final String name;
+    private final String filePrefix;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final int segmentBytes;
+    private final CRC32C crc = new CRC32C();
+
+    // Segments the writer rolled away from, oldest first; guarded by itself
+    private final Deque<SealedSegment> sealedSegments = new ArrayDeque<>();
+
+    // Held while the segment is forced, swapped for the next one or closed, so forceIfDue can run on another
+    // thread than the writer
+    private final Object forceLock = new Object();
+
+    private FileChannel channel;
+    private Path segmentPath;
+    private MappedByteBuffer segment;
+    // View of the segment used to checksum record bodies without allocating
+    private ByteBuffer checksumView;
+    private long segmentIndex;
+    private int forcedPosition;
+    // End of the records of the last batch the writer completed, up to which forceIfDue forces
+    private volatile int batchEndPosition;
+    private volatile long lastForceNanos = System.nanoTime();
+    private boolean closed;
+    private long lastSequence;
+
+    /**
+     * Opens the engine's journal in the directory, continuing after the last intact record.
+     */
+    public CommandJournal(Path directory, String name, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, int segmentBytes) {
+        this.directory = directory;
+        this.name = name;
+        this.filePrefix = fileName(name) + "-";
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncIntervalMillis * 1_000_000L;
+        this.segmentBytes = segmentBytes;
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = segments();
+            if (segments.isEmpty()) {
+                openSegment(0, segmentBytes);
+            } else {
+                for (int i = 0; i + 1 < segments.size(); i++) {
+                    sealedSegments.addLast(new SealedSegment(segments.get(i), firstSequence(segments.get(i + 1)) - 1));
+                }
+                Path last = segments.get(segments.size() - 1);
+                openExisting(last, indexOf(last, filePrefix));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open journal " + name + " in " + directory, e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return sequence of the last record in the journal, 0 if there is none
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Commands that only read the books are not journaled and take no sequence number.
+     */
+    public static boolean isJournaled(CommandType type) {
+        return type != CommandType.SNAPSHOT && type != CommandType.CHECKPOINT && type != CommandType.ATTACH_FOLLOWER
+                && type != CommandType.CAPTURE_STEP && type != CommandType.CLOSE_CANDLES;
+    }
+
+    /**
+     * Appends a command that {@link #isJournaled(CommandType) is journaled}.
+     */
+    public void append(OrderEvent event) {
+        CommandType type = event.getType();
+        if (!isJournaled(type)) {
+            return;
+        }
+        int maxBody = CommandCodec.maxSize(event);
+        if (segment.position() + RECORD_HEADER + maxBody + 4 > segment.capacity()) {
+            roll(RECORD_HEADER + maxBody + 4);
+        }
+        int start = segment.position();
+        segment.position(start + RECORD_HEADER);
+        CommandCodec.write(event, segment);
+        int end = segment.position();
+        int bodyLength = end - start - RECORD_HEADER;
+        checksumView.limit(end).position(start + RECORD_HEADER);
+        crc.reset();
+        crc.update(checksumView);
+        segment.putInt(start + 4, (int) crc.getValue());
+        // The length goes last, so a reader never sees a record whose body is still being written
+        segment.putInt(start, bodyLength);
+        lastSequence++;
+    }
+
+    /**
+     * Called at the end of every Disruptor batch; forces the journal according to the fsync policy.
+     */
+    public void endOfBatch() {
+        batchEndPosition = segment.position();
+        if (fsyncPolicy == FsyncPolicy.PER_BATCH
+                || (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastForceNanos >= fsyncIntervalNanos)) {
+            force();
+        }
+    }
+
+    /**
+     * Under {@link FsyncPolicy#INTERVAL}, forces the records of the completed batches once the last force is older
+     * than the interval, so records are not left unforced while no later batch comes to force them. Meant to be
+     * called periodically from a thread other than the writer.
+     */
+    public void forceIfDue() {
+        if (fsyncPolicy != FsyncPolicy.INTERVAL || System.nanoTime() - lastForceNanos < fsyncIntervalNanos) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (!closed) {
+                force(batchEndPosition);
+            }
+        }
+    }
+
+    private void force() {
+        force(segment.position());
+    }
+
+    private void force(int position) {
+        synchronized (forceLock) {
+            if (position > forcedPosition) {
+                segment.force(forcedPosition, position - forcedPosition);
+                forcedPosition = position;
+            }
+            lastForceNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Reads every intact record after the given sequence, skipping the segments that hold none. The event
+     * handed to the consumer is reused between records.
+     *
+     * @param afterSequence sequence the books were checkpointed at, 0 to replay the whole journal
+     * @return the number of records replayed
+     * @throws IllegalStateException if the journal was truncated beyond the sequence
+     */
+    public long replay(long afterSequence, Consumer<OrderEvent> consumer) {
+        return read(directory, name, afterSequence, consumer);
+    }
+
+    /**
+     * Reads the journal of the named engine like {@link #replay(long, Consumer)} without opening it for
+     * writing, e.g. to replay a copy of a production journal offline.
+     */
+    public static long read(Path directory, String name, long afterSequence, Consumer<OrderEvent> consumer) {
+        String filePrefix = fileName(name) + "-";
+        long records = 0;
+        OrderEvent event = new OrderEvent();
+        try {
+            List<Path> segments = segments(directory, filePrefix);
+            int first = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                long firstSequence = firstSequence(segments.get(i));
+                if (i == 0 && firstSequence > afterSequence + 1) {
+                    throw new IllegalStateException("Journal " + name + " starts at sequence " + firstSequence
+                            + ", cannot replay it from " + (afterSequence + 1));
+                }
+                if (firstSequence <= afterSequence + 1) {
+                    first = i;
+                }
+            }
+            for (Path path : segments.subList(first, segments.size())) {
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                    ByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                    SegmentHeader header = readHeader(buffer, path);
+                    long sequence = header.firstSequence;
+                    for (int end = nextRecord(buffer, name); end >= 0; end = nextRecord(buffer, name), sequence++) {
+                        if (sequence > afterSequence) {
+                            readRecord(buffer, end, header.orderTypes, event);
+                            consumer.accept(event);
+                            records++;
+                        }
+                        buffer.position(end);
+                    }
+                    if (!rolled(buffer)) {
+                        // End of the data or a torn record, nothing after it was acknowledged
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replay journal " + name, e);
+        }
+        return records;
+    }
+
+    /**
+     * Deletes the sealed segments whose records all have a sequence up to the given one. The segment being
+     * written is never deleted. May be called while commands are being appended.
+     *
+     * @param sequence sequence the books were checkpointed at
+     * @return the number of segments deleted
+     */
+    public int truncate(long sequence) {
+        List<Path> covered = new ArrayList<>();
+        synchronized (sealedSegments) {
+            while (!sealedSegments.isEmpty() && sealedSegments.peekFirst().lastSequence <= sequence) {
+                covered.add(sealedSegments.pollFirst().path);
+            }
+        }
+        int deleted = 0;
+        try {
+            for (Path path : covered) {
+                Files.deleteIfExists(path);
+                deleted++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot truncate journal " + name, e);
+        }
+        if (deleted > 0) {
+            log.info("Truncated {} segments of journal {} up to sequence {}", deleted, name, sequence);
+        }
+        return deleted;
+    }
+
+    /**
+     * Names of the engines with a journal in the directory.
+     */
+    public static Set<String> journalNames(Path directory) {
+        Set<String> names = new LinkedHashSet<>();
+        if (!Files.isDirectory(directory)) {
+            return names;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                    ByteBuffer header = file.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(file.size(), 4096));
+                    if (header.getInt() == MAGIC && header.getShort() == VERSION) {
+                        names.add(CommandCodec.getString(header));
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Skipping unreadable journal segment {}", path, e);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list journals in " + directory, e);
+        }
+        return names;
+    }
+
+    @Override
+    public void close() {
+        synchronized (forceLock) {
+            try {
+                if (fsyncPolicy != FsyncPolicy.NONE) {
+                    force();
+                }
+                closed = true;
+                channel.close();
+            } catch (IOException e) {
+                log.error("Failed to close journal {}", name, e);
+            }
+        }
+    }
+
+    private void roll(int minimumBytes) {
+        if (segment.remaining() >= 4) {
+            segment.putInt(segment.position(), END_OF_SEGMENT);
+        }
+        synchronized (forceLock) {
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                segment.force();
+            }
+            try {
+                channel.close();
+                seal();
+                // A single oversized record, such as a large restored book, gets a segment of its own size
+                openSegment(segmentIndex + 1, Math.max(segmentBytes, minimumBytes + headerSize()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot roll journal " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Hands the segment being written, whose records are all written, to the sealed segments.
+     */
+    private void seal() {
+        synchronized (sealedSegments) {
+            sealedSegments.addLast(new SealedSegment(segmentPath, lastSequence));
+        }
+    }
+
+    private void openSegment(long index, int size) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", filePrefix, index, SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentPath = path;
+        map(index, size);
+        segment.putInt(MAGIC);
+        segment.putShort(VERSION);
+        CommandCodec.putString(segment, name);
+        segment.putLong(lastSequence + 1);
+        segment.put((byte) ORDER_TYPES.length);
+        for (OrderType orderType : ORDER_TYPES) {
+            CommandCodec.putString(segment, orderType.name());
+        }
+        forcedPosition = 0;
+        force();
+        batchEndPosition = segment.position();
+    }
+
+    private void openExisting(Path path, long index) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentPath = path;
+        map(index, (int) channel.size());
+        lastSequence = readHeader(segment, path).firstSequence - 1;
+        for (int end = nextRecord(segment, name); end >= 0; end = nextRecord(segment, name)) {
+            segment.position(end);
+            lastSequence++;
+        }
+        int position = segment.position();
+        if (rolled(segment)) {
+            channel.close();
+            seal();
+            openSegment(index + 1, segmentBytes);
+            return;
+        }
+        if (position + 4 <= segment.capacity() && segment.getInt(position) != 0) {
+            // Clear the rest of a torn write, so none of it can be mistaken for data once partly overwritten
+            log.warn("Discarding the torn tail of journal {} at {}", name, position);
+            for (int i = position; i < segment.capacity(); i++) {
+                segment.put(i, (byte) 0);
+            }
+            segment.force();
+        }
+        forcedPosition = position;
+        batchEndPosition = position;
+    }
+
+    /**
+     * @return whether the writer moved on to the next segment at the buffer's position
+     */
+    private static boolean rolled(ByteBuffer buffer) {
+        int position = buffer.position();
+        return position + RECORD_HEADER > buffer.limit() || buffer.getInt(position) == END_OF_SEGMENT;
+    }
+
+    private void map(long index, int size) throws IOException {
+        segmentIndex = index;
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        checksumView = segment.duplicate();
+    }
+
+    private static final class SealedSegment {
+        final Path path;
+        final long lastSequence;
+
+        SealedSegment(Path path, long lastSequence) {
+            this.path = path;
+            this.lastSequence = lastSequence;
+        }
+    }
+
+    private static final class SegmentHeader {
+        long firstSequence;
+        OrderType[] orderTypes;
+    }
+
+    private static SegmentHeader readHeader(ByteBuffer buffer, Path path) {
+        if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            throw new IllegalStateException("Not a journal segment of a supported version: " + path);
+        }
+        CommandCodec.getString(buffer);
+        SegmentHeader header = new SegmentHeader();
+        header.firstSequence = buffer.getLong();
+        int count = buffer.get();
+        header.orderTypes = new OrderType[count];
+        for (int i = 0; i < count; i++) {
+            header.orderTypes[i] = OrderType.valueOf(CommandCodec.getString(buffer));
+        }
+        return header;
+    }
+
+    private static long firstSequence(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(file.size(), 4096));
+            file.read(buffer, 0);
+            buffer.flip();
+            return readHeader(buffer, path).firstSequence;
+        }
+    }
+
+    /**
+     * @return the end of the intact record at the buffer's position, or -1 if there is none
+     */
+    private static int nextRecord(ByteBuffer buffer, String name) {
+        int start = buffer.position();
+        if (start + RECORD_HEADER > buffer.limit()) {
+            return -1;
+        }
+        int length = buffer.getInt(start);
+        if (length <= 0 || start + RECORD_HEADER + length > buffer.limit()) {
+            return -1;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.limit(start + RECORD_HEADER + length).position(start + RECORD_HEADER);
+        CRC32C check = new CRC32C();
+        check.update(body);
+        if ((int) check.getValue() != buffer.getInt(start + 4)) {
+            log.warn("Journal {} ends in a torn record at {}", name, start);
+            return -1;
+        }
+        return start + RECORD_HEADER + length;
+    }
+
+    private static void readRecord(ByteBuffer buffer, int end, OrderType[] orderTypes, OrderEvent event) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(end).position(buffer.position() + RECORD_HEADER);
+        CommandCodec.read(record, orderTypes, event);
+    }
+
+    private List<Path> segments() throws IOException {
+        return segments(directory, filePrefix);
+    }
+
+    private static List<Path> segments(Path directory, String filePrefix) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, filePrefix + "*" + SUFFIX)) {
+                for (Path path : stream) {
+                    if (indexOf(path, filePrefix) >= 0) {
+                        segments.add(path);
+                    }
+                }
+            }
+        }
+        // Zero-padded indexes sort in order
+        segments.sort(null);
+        return segments;
+    }
+
+    private static long indexOf(Path path, String filePrefix) {
+        String file = path.getFileName().toString();
+        String index = file.substring(filePrefix.length(), file.length() - SUFFIX.length());
+        if (index.length() != 20 || !index.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
+        return Long.parseLong(index);
+    }
+
+    private int headerSize() {
+        int size = 4 + 2 + 2 + CommandCodec.utf8Length(name) + 8 + 1;
+        for (OrderType orderType : ORDER_TYPES) {
+            size += 2 + CommandCodec.utf8Length(orderType.name());
+        }
+        return size;
+    }
+
+    static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,31 @@
+package com.phinity.matching.engine.journal;
+
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The books of one Disruptor engine as they were after the journal record with the given sequence. Each
+ * snapshot carries its book's trade id counter; recovery restores the books and replays the records after
+ * the sequence.
+ */
+@Getter
+public class EngineCheckpoint {
+    private final String engineName;
+    private final long sequence;
+    private final List<OrderBookSnapshot> books;
+    // Scale of each book, in the order of books
+    private final List<PairScale> scales;
+
+    public EngineCheckpoint(String engineName, long sequence, List<OrderBookSnapshot> books, List<PairScale> scales) {
+        if (books.size() != scales.size()) {
+            throw new IllegalArgumentException("Expected a scale for each of the " + books.size() + " books");
+        }
+        this.engineName = engineName;
+        this.sequence = sequence;
+        this.books = books;
+        this.scales = scales;
+    }
+}
@@ -2,65 +2,153 @@ package com.phinity.matching.engine.manager;
 
 import com.phinity.common.dto.enums.OrderType;
 import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
 import com.phinity.common.dto.models.PendingOrders;
 import com.phinity.matching.engine.EngineManager;
 import com.phinity.matching.engine.OptimizedDisruptorEngine;
+import com.phinity.matching.engine.ThreadAffinity;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.EngineProfile;
+import com.phinity.matching.engine.config.FsyncPolicy;
+import com.phinity.matching.engine.config.OverloadPolicy;
 import com.phinity.matching.engine.config.PairConfigurationManager;
-import com.phinity.matching.engine.core.MatchingEngine;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.core.Candle;
+import com.phinity.matching.engine.core.CandleInterval;
+import com.phinity.matching.engine.core.ConcurrentOrderBook;
+import com.phinity.matching.engine.core.LadderOrderBook;
 import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.OrderRejectedException;
+import com.phinity.matching.engine.core.Ticker;
 import com.phinity.matching.engine.core.Trade;
+import com.phinity.matching.engine.journal.CheckpointStore;
+import com.phinity.matching.engine.journal.CommandJournal;
+import com.phinity.matching.engine.journal.EngineCheckpoint;
 import com.phinity.matching.engine.metrics.MetricsCollector;
 import com.phinity.matching.engine.service.EventPublisher;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
+@Slf4j
 public class HybridEngineManager {
+    private static final String SHARD_PREFIX = "shard-";
+    private static final long CHECKPOINT_TIMEOUT_MS = 30_000;
+    private static final long CANDLE_CLOSE_INTERVAL_MS = 100;
+
     private final EngineManager standardManager;
+    // Engine of each high-volume pair; a shard appears once per pair it hosts
     private final ConcurrentHashMap<String, OptimizedDisruptorEngine> disruptorEngines;
     private final PairConfigurationManager configManager;
     private EventPublisher eventPublisher;
+    // Shared engines of the pairs without a profile of their own, created with the first such pair
+    private OptimizedDisruptorEngine[] shards;
+    private ThreadAffinity threadAffinity = ThreadAffinity.NONE;
+    private int[] shardCpus = new int[0];
+    // CPU of the matching thread of each pair with an engine of its own
+    private final ConcurrentHashMap<String, Integer> pairCpus = new ConcurrentHashMap<>();
+    // Commands route and submit under the read lock, migrating a pair between engines takes the write lock
+    private final ConcurrentHashMap<String, ReentrantReadWriteLock> pairGates = new ConcurrentHashMap<>();
+    private CheckpointStore checkpointStore;
+    private ScheduledExecutorService checkpointer;
+    private ScheduledExecutorService journalForcer;
+    // Tells the Disruptor engines to close the bars of their quiet pairs, the pools do it on their flush timer
+    private final ScheduledExecutorService candleCloser;
 
     public HybridEngineManager() {
-        this.standardManager = new EngineManager();
-        this.disruptorEngines = new ConcurrentHashMap<>();
         this.configManager = new PairConfigurationManager();
+        this.standardManager = new EngineManager(configManager);
+        this.disruptorEngines = new ConcurrentHashMap<>();
+        this.candleCloser = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CandleCloser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        candleCloser.scheduleWithFixedDelay(this::closeDueCandles, CANDLE_CLOSE_INTERVAL_MS, CANDLE_CLOSE_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
     }
 
     public void setEventPublisher(EventPublisher eventPublisher) {
         this.eventPublisher = eventPublisher;
         this.standardManager.setEventPublisher(eventPublisher);
         this.disruptorEngines.values().forEach(engine -> engine.setEventPublisher(eventPublisher));
+        synchronized (this) {
+            if (shards != null) {
+                for (OptimizedDisruptorEngine shard : shards) {
+                    shard.setEventPublisher(eventPublisher);
+                }
+            }
+        }
     }
 
     public CompletableFuture<List<Trade>> processOrder(String orderId, String symbol, Side side, BigDecimal price, BigDecimal quantity, OrderType orderType) {
+        return processOrder(orderId, null, symbol, side, price, quantity, orderType, null);
+    }
+
+    public CompletableFuture<List<Trade>> processOrder(String orderId, String symbol, Side side, BigDecimal price, BigDecimal quantity) {
+        return processOrder(orderId, symbol, side, price, quantity, OrderType.LIMIT);
+    }
+
+    /**
+     * Places an order on the pair's engine.
+     *
+     * @param userId owner of the order, matched by {@link #cancelAllOrders(String, String, Side)}
+     * @param timeInForce null for good till cancelled
+     */
+    public CompletableFuture<List<Trade>> processOrder(String orderId, String userId, String symbol, Side side, BigDecimal price,
+                                                       BigDecimal quantity, OrderType orderType, TimeInForce timeInForce) {
         long startTime = System.nanoTime();
+        Lock gate = gate(symbol).readLock();
+        gate.lock();
+        try {
+            return routeOrder(orderId, userId, symbol, side, price, quantity, orderType, timeInForce, startTime);
+        } finally {
+            gate.unlock();
+        }
+    }
 
+    private CompletableFuture<List<Trade>> routeOrder(String orderId, String userId, String symbol, Side side, BigDecimal price,
+                                                      BigDecimal quantity, OrderType orderType, TimeInForce timeInForce,
+                                                      long startTime) {
         if (configManager.isHighVolumePair(symbol)) {
             MetricsCollector.getInstance().recordEngineUsage("disruptor");
-            OptimizedDisruptorEngine engine = disruptorEngines.computeIfAbsent(symbol, s -> {
-                OptimizedDisruptorEngine newEngine = new OptimizedDisruptorEngine(s);
-                if (eventPublisher != null) {
-                    newEngine.setEventPublisher(eventPublisher);
-                }
-                return newEngine;
-            });
+            PairScale scale = configManager.getPairScale(symbol);
+            long priceTicks;
+            long quantityLots;
+            try {
+                priceTicks = price != null ? scale.toPriceTicks(price) : 0L;
+                quantityLots = scale.toQuantityLots(quantity);
+            } catch (ArithmeticException e) {
+                MetricsCollector.getInstance().recordRejectedOrder();
+                return CompletableFuture.failedFuture(new OrderRejectedException(
+                        "Order " + orderId + " is not representable at " + scale + " for " + symbol, e));
+            }
+            OptimizedDisruptorEngine engine = disruptorEngines.computeIfAbsent(symbol, this::createDisruptorEngine);
 
-            return engine.processOrder(orderId, symbol, side, price, quantity, orderType)
-                    .whenComplete((trades, ex) -> {
-                        long processingTime = System.nanoTime() - startTime;
-                        MetricsCollector.getInstance().recordOrderProcessed(symbol, processingTime);
-                        if (trades != null) {
-                            trades.forEach(trade -> MetricsCollector.getInstance().recordTradeExecuted(symbol, trade.getQuantity()));
-                        }
-                    });
+            // Latency and trade metrics are recorded by the engine's metrics stage
+            return engine.processOrder(symbol, orderId, userId, side, priceTicks, quantityLots, orderType, timeInForce);
         } else {
             MetricsCollector.getInstance().recordEngineUsage("standard");
             PendingOrders order = new PendingOrders(orderId, symbol, side, price, quantity);
+            order.setUserId(userId);
             order.setOrderType(orderType);
+            order.setTimeInForce(timeInForce);
 
             return standardManager.processOrder(order).thenApply(trades -> {
                 long processingTime = System.nanoTime() - startTime;
@@ -71,28 +159,397 @@ public class HybridEngineManager {
         }
     }
 
-    public CompletableFuture<List<Trade>> processOrder(String orderId, String symbol, Side side, BigDecimal price, BigDecimal quantity) {
-        return processOrder(orderId, symbol, side, price, quantity, OrderType.LIMIT);
+    public CompletableFuture<List<Trade>> processOrder(String orderId, String userId, String symbol, Side side, BigDecimal price, BigDecimal quantity) {
+        return processOrder(orderId, userId, symbol, side, price, quantity, OrderType.LIMIT, null);
     }
 
+    /**
+     * Moves a pair between the standard pools and a Disruptor engine, taking its resting orders, their queue
+     * order and the trade id counter along. New commands for the pair wait while the commands already submitted
+     * drain from the old engine and the book is copied into the new one; other pairs are not affected.
+     */
     public void configureHighVolumePair(String symbol, boolean isHighVolume) {
-        if (isHighVolume) {
-            configManager.addHighVolumePair(symbol);
-            disruptorEngines.computeIfAbsent(symbol, s -> {
-                OptimizedDisruptorEngine newEngine = new OptimizedDisruptorEngine(s);
-                if (eventPublisher != null) {
-                    newEngine.setEventPublisher(eventPublisher);
+        Lock gate = gate(symbol).writeLock();
+        gate.lock();
+        try {
+            long startTime = System.nanoTime();
+            if (isHighVolume == configManager.isHighVolumePair(symbol)) {
+                if (isHighVolume) {
+                    disruptorEngines.computeIfAbsent(symbol, this::createDisruptorEngine);
                 }
-                return newEngine;
+                return;
+            }
+            if (isHighVolume) {
+                OrderBookSnapshot state = standardManager.exportBook(symbol);
+                configManager.addHighVolumePair(symbol);
+                standardManager.configureHighVolumePair(symbol, true);
+                disruptorEngines.put(symbol, createDisruptorEngine(symbol, state));
+            } else {
+                OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
+                // Queued behind everything submitted before the gate closed
+                OrderBookSnapshot state = engine != null ? engine.snapshot(symbol).join() : null;
+                if (engine != null) {
+                    // Also journals the removal, so a restart does not bring the pair back to this engine
+                    engine.removeBook(symbol);
+                    disruptorEngines.remove(symbol);
+                    if (!isShard(engine)) {
+                        engine.shutdown();
+                    }
+                }
+                configManager.removeHighVolumePair(symbol);
+                standardManager.configureHighVolumePair(symbol, false);
+                if (state != null) {
+                    standardManager.importBook(state);
+                }
+            }
+            log.info("Migrated {} to the {} engine in {} us", symbol, isHighVolume ? "disruptor" : "standard",
+                    (System.nanoTime() - startTime) / 1_000);
+        } finally {
+            gate.unlock();
+        }
+    }
+
+    private ReentrantReadWriteLock gate(String symbol) {
+        return pairGates.computeIfAbsent(symbol, s -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Routes and submits a command under the pair's read gate, so it cannot reach an engine the pair is leaving.
+     */
+    private <T> CompletableFuture<T> submitGated(String symbol, Supplier<CompletableFuture<T>> command) {
+        Lock gate = gate(symbol).readLock();
+        gate.lock();
+        try {
+            return command.get();
+        } finally {
+            gate.unlock();
+        }
+    }
+
+    /**
+     * Gives a pair a Disruptor engine of its own with the given profile instead of a place on a shared shard.
+     * Takes effect when the pair's engine is next created.
+     */
+    public void configureEngineProfile(String symbol, EngineProfile profile) {
+        configManager.setEngineProfile(symbol, profile);
+    }
+
+    /**
+     * Sets how a pair handles commands arriving while its engine queue is full. Takes effect immediately.
+     * A shard is shared by several pairs and keeps the default policy; give the pair its own engine
+     * profile to apply a policy of its own.
+     */
+    public void configureOverloadPolicy(String symbol, OverloadPolicy policy) {
+        configManager.setOverloadPolicy(symbol, policy);
+        OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
+        if (engine != null && !isShard(engine)) {
+            engine.configureAdmission(policy, configManager.getAdmissionTimeoutMillis());
+        }
+    }
+
+    /**
+     * Configures the tick/lot scale of a pair. Has to happen before the pair receives its first order. High-volume
+     * pairs without a configured scale get a tree book instead of the price ladder.
+     */
+    public void configurePairScale(String symbol, int priceScale, int quantityScale) {
+        if (getOrderBook(symbol) != null) {
+            throw new IllegalStateException("Cannot change scale of active pair " + symbol);
+        }
+        configManager.setPairScale(symbol, priceScale, quantityScale);
+    }
+
+    /**
+     * Pins the matching threads of the shards, shard {@code i} to {@code cpus[i % cpus.length]}, and of the pairs
+     * given a CPU by {@link #configurePairCpu(String, int)}. Has to happen before the first high-volume pair is
+     * created; without it the matching threads are left to the OS scheduler.
+     */
+    public synchronized void configureThreadAffinity(ThreadAffinity affinity, int... cpus) {
+        if (shards != null) {
+            throw new IllegalStateException("Disruptor shards are already running");
+        }
+        this.threadAffinity = affinity;
+        this.shardCpus = cpus.clone();
+    }
+
+    /**
+     * Pins the matching thread of the pair's own engine to the CPU, through the affinity given to
+     * {@link #configureThreadAffinity(ThreadAffinity, int...)}. Only pairs with an engine profile of their own get
+     * an engine of their own, the others share the shards. Has to happen before the pair's engine is created.
+     */
+    public void configurePairCpu(String symbol, int cpu) {
+        if (cpu < 0) {
+            throw new IllegalArgumentException("CPU must not be negative: " + cpu);
+        }
+        if (disruptorEngines.containsKey(symbol)) {
+            throw new IllegalStateException("Cannot pin the engine of active pair " + symbol);
+        }
+        pairCpus.put(symbol, cpu);
+    }
+
+    /**
+     * Journals the commands of every Disruptor engine to the directory and recovers the high-volume pairs
+     * journaled there by a previous run, each on the engine that held it, from the engine's latest checkpoint
+     * and the journal records after it. Has to happen before the first high-volume pair is created. Pairs on
+     * the standard pools are not journaled.
+     * <p>
+     * The engines are then checkpointed every {@link PairConfigurationManager#getCheckpointIntervalMillis()} and
+     * the journal segments each checkpoint covers are deleted.
+     */
+    public synchronized void configureJournal(Path directory, FsyncPolicy fsyncPolicy) {
+        if (shards != null || !disruptorEngines.isEmpty()) {
+            throw new IllegalStateException("Disruptor engines are already running");
+        }
+        configManager.setJournalDirectory(directory);
+        configManager.setFsyncPolicy(fsyncPolicy);
+        checkpointStore = new CheckpointStore(directory);
+
+        long startTime = System.nanoTime();
+        int shardCount = configManager.getDisruptorShardCount();
+        Set<String> dedicated = new HashSet<>();
+        for (String name : CommandJournal.journalNames(directory)) {
+            if (name.startsWith(SHARD_PREFIX)) {
+                shardCount = Math.max(shardCount, Integer.parseInt(name.substring(SHARD_PREFIX.length())) + 1);
+            } else {
+                dedicated.add(name);
+            }
+        }
+        createShards(shardCount);
+        for (OptimizedDisruptorEngine shard : shards) {
+            shard.replayJournal(this::newBook, checkpointStore.read(shard.getName()));
+            shard.getSymbols().forEach(symbol -> recovered(symbol, shard));
+        }
+        for (String symbol : dedicated) {
+            OptimizedDisruptorEngine engine = newDedicatedEngine(symbol);
+            engine.replayJournal(this::newBook, checkpointStore.read(symbol));
+            if (engine.getOrderBook(symbol) != null) {
+                recovered(symbol, engine);
+            } else {
+                engine.shutdown();
+            }
+        }
+        log.info("Recovered {} high-volume pairs from {} in {} ms", disruptorEngines.size(), directory,
+                (System.nanoTime() - startTime) / 1_000_000);
+
+        long interval = configManager.getCheckpointIntervalMillis();
+        if (interval > 0) {
+            checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "JournalCheckpointer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpointer.scheduleWithFixedDelay(this::checkpointSafely, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            // Engines force at the end of a batch; this covers the last batch before a pause
+            long fsyncInterval = configManager.getFsyncIntervalMillis();
+            journalForcer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "JournalForcer");
+                thread.setDaemon(true);
+                return thread;
             });
+            journalForcer.scheduleWithFixedDelay(this::forceJournals, fsyncInterval, fsyncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void forceJournals() {
+        Set<OptimizedDisruptorEngine> engines = new HashSet<>(disruptorEngines.values());
+        synchronized (this) {
+            if (shards != null) {
+                engines.addAll(Arrays.asList(shards));
+            }
+        }
+        for (OptimizedDisruptorEngine engine : engines) {
+            try {
+                engine.forceJournalIfDue();
+            } catch (Exception e) {
+                log.error("Forcing the journal of engine {} failed", engine.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Checkpoints every journaled Disruptor engine and truncates its journal, e.g. ahead of a planned restart.
+     *
+     * @return the number of engines checkpointed
+     */
+    public int checkpoint() {
+        CheckpointStore store;
+        Set<OptimizedDisruptorEngine> engines = new HashSet<>(disruptorEngines.values());
+        synchronized (this) {
+            store = checkpointStore;
+            if (shards != null) {
+                engines.addAll(Arrays.asList(shards));
+            }
+        }
+        if (store == null) {
+            throw new IllegalStateException("No journal is configured");
+        }
+        for (OptimizedDisruptorEngine engine : engines) {
+            // The books are copied on the engine's handler thread, encoding and writing them happens here,
+            // and an engine shut down by a concurrent demotion never answers
+            EngineCheckpoint checkpoint = engine.checkpoint().orTimeout(CHECKPOINT_TIMEOUT_MS, TimeUnit.MILLISECONDS).join();
+            store.write(checkpoint);
+            engine.truncateJournal(checkpoint.getSequence());
+        }
+        return engines.size();
+    }
+
+    private void closeDueCandles() {
+        Set<OptimizedDisruptorEngine> engines = new HashSet<>(disruptorEngines.values());
+        synchronized (this) {
+            if (shards != null) {
+                engines.addAll(Arrays.asList(shards));
+            }
+        }
+        for (OptimizedDisruptorEngine engine : engines) {
+            try {
+                engine.closeDueCandles();
+            } catch (Exception e) {
+                log.error("Closing the candles of engine {} failed", engine.getName(), e);
+            }
+        }
+    }
+
+    private void checkpointSafely() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            log.error("Checkpointing the Disruptor engines failed", e);
+        }
+    }
+
+    private void recovered(String symbol, OptimizedDisruptorEngine engine) {
+        if (disruptorEngines.putIfAbsent(symbol, engine) != null) {
+            log.warn("{} was recovered from more than one journal, keeping the first", symbol);
+            return;
+        }
+        configManager.addHighVolumePair(symbol);
+        standardManager.configureHighVolumePair(symbol, true);
+    }
+
+    private CommandJournal newJournal(String name) {
+        Path directory = configManager.getJournalDirectory();
+        if (directory == null) {
+            return null;
+        }
+        return new CommandJournal(directory, name, configManager.getFsyncPolicy(),
+                configManager.getFsyncIntervalMillis(), configManager.getJournalSegmentBytes());
+    }
+
+    private OptimizedDisruptorEngine createDisruptorEngine(String symbol) {
+        return createDisruptorEngine(symbol, null);
+    }
+
+    /**
+     * @param state book to start from, null for an empty one
+     */
+    private OptimizedDisruptorEngine createDisruptorEngine(String symbol, OrderBookSnapshot state) {
+        OrderBook book = newBook(symbol);
+        if (state != null) {
+            // Not yet visible to any engine thread, adding it to the engine publishes it
+            book.restore(state);
+        }
+        if (!configManager.hasEngineProfile(symbol)) {
+            OptimizedDisruptorEngine shard = leastLoadedShard();
+            shard.addBook(book);
+            return shard;
+        }
+        OptimizedDisruptorEngine newEngine = newDedicatedEngine(symbol);
+        newEngine.addBook(book);
+        return newEngine;
+    }
+
+    private OrderBook newBook(String symbol) {
+        OrderBook book;
+        if (configManager.hasPairScale(symbol)) {
+            // The Disruptor handler is the only writer of the book, so it can use the lock-free ladder
+            book = new LadderOrderBook(symbol, configManager.getPairScale(symbol));
         } else {
-            configManager.removeHighVolumePair(symbol);
-            OptimizedDisruptorEngine engine = disruptorEngines.remove(symbol);
-            if (engine != null) {
-                engine.shutdown();
+            // The ladder spans a fixed number of ticks; at the default 8 decimals that is a tiny fraction of a quote
+            // unit, so nearly every level would overflow it and the ladder would keep re-centring
+            log.warn("No scale configured for high-volume pair {}, using a tree book instead of the price ladder", symbol);
+            book = new ConcurrentOrderBook(symbol, PairScale.DEFAULT);
+        }
+        // Updates are drained once per Disruptor batch and published by the engine's publisher stage
+        book.configurePublication(BookUpdateMode.CONFLATED, configManager.getBookFeed(),
+                configManager.getBookSnapshotIntervalMillis());
+        book.configureOrderIdWindow(configManager.getOrderIdWindowMillis(),
+                configManager.getMaxOrderIds());
+        return book;
+    }
+
+    private OptimizedDisruptorEngine newDedicatedEngine(String symbol) {
+        ThreadAffinity affinity;
+        synchronized (this) {
+            affinity = threadAffinity;
+        }
+        OptimizedDisruptorEngine newEngine = new OptimizedDisruptorEngine(symbol, configManager.getEngineProfile(symbol),
+                affinity, pairCpus.getOrDefault(symbol, -1), newJournal(symbol));
+        newEngine.configureAdmission(configManager.getOverloadPolicy(symbol), configManager.getAdmissionTimeoutMillis());
+        if (eventPublisher != null) {
+            newEngine.setEventPublisher(eventPublisher);
+        }
+        return newEngine;
+    }
+
+    /**
+     * Picks the shard whose pairs have seen the fewest orders, so a promoted pair does not land next to the
+     * busiest ones. Ties, such as at startup, go to the shard hosting the fewest pairs.
+     */
+    private synchronized OptimizedDisruptorEngine leastLoadedShard() {
+        if (shards == null) {
+            createShards(configManager.getDisruptorShardCount());
+        }
+        ConcurrentHashMap<String, LongAdder> ordersBySymbol = MetricsCollector.getInstance().getOrdersBySymbol();
+        OptimizedDisruptorEngine leastLoaded = null;
+        long leastLoad = Long.MAX_VALUE;
+        int leastPairs = Integer.MAX_VALUE;
+        for (OptimizedDisruptorEngine shard : shards) {
+            Set<String> hosted = shard.getSymbols();
+            long load = 0;
+            for (String pair : hosted) {
+                LongAdder orders = ordersBySymbol.get(pair);
+                load += orders != null ? orders.sum() : 0;
+            }
+            if (load < leastLoad || (load == leastLoad && hosted.size() < leastPairs)) {
+                leastLoad = load;
+                leastPairs = hosted.size();
+                leastLoaded = shard;
             }
         }
-        standardManager.configureHighVolumePair(symbol, isHighVolume);
+        return leastLoaded;
+    }
+
+    private synchronized void createShards(int count) {
+        shards = new OptimizedDisruptorEngine[count];
+        for (int i = 0; i < shards.length; i++) {
+            int cpu = shardCpus.length > 0 ? shardCpus[i % shardCpus.length] : -1;
+            shards[i] = new OptimizedDisruptorEngine(SHARD_PREFIX + i, configManager.getDefaultEngineProfile(),
+                    threadAffinity, cpu, newJournal(SHARD_PREFIX + i));
+            shards[i].configureAdmission(configManager.getDefaultOverloadPolicy(), configManager.getAdmissionTimeoutMillis());
+            if (eventPublisher != null) {
+                shards[i].setEventPublisher(eventPublisher);
+            }
+        }
+    }
+
+    private synchronized boolean isShard(OptimizedDisruptorEngine engine) {
+        if (shards != null) {
+            for (OptimizedDisruptorEngine shard : shards) {
+                if (shard == engine) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean isHighVolumePair(String symbol) {
+        return configManager.isHighVolumePair(symbol);
+    }
+
+    public Set<String> getHighVolumePairs() {
+        return configManager.getHighVolumePairs();
     }
 
     public Set<String> getAllActivePairs() {
@@ -101,26 +558,134 @@ public class HybridEngineManager {
         return allPairs;
     }
 
+    /**
+     * The book of a high-volume pair is owned by its Disruptor thread, so it is returned as a read-only view whose
+     * reads queue a snapshot behind the pair's commands; mutate it through this manager.
+     */
     public OrderBook getOrderBook(String symbol) {
         if (configManager.isHighVolumePair(symbol)) {
             OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
-            return engine != null ? engine.getOrderBook() : null;
+            return engine != null ? engine.getBookView(symbol) : null;
         } else {
             return standardManager.getOrderBook(symbol);
         }
     }
 
-    public PendingOrders modifyOrder(String orderId, String symbol, BigDecimal newPrice, BigDecimal newQuantity) {
-        OrderBook orderBook = getOrderBook(symbol);
-        if (orderBook != null) {
-            return orderBook.modifyOrder(orderId, newPrice, newQuantity);
+    /**
+     * Reads the pair's top of book and ticker without a trip through its engine or book lock, so it is cheap
+     * enough for market data endpoints polling every pair.
+     *
+     * @return the ticker, or null if the pair has no book
+     */
+    public Ticker getTicker(String symbol) {
+        if (configManager.isHighVolumePair(symbol)) {
+            OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
+            OrderBook book = engine != null ? engine.getOrderBook(symbol) : null;
+            return book != null ? book.getTicker() : null;
         }
-        return null;
+        return standardManager.getTicker(symbol);
+    }
+
+    /**
+     * Reads the pair's latest OHLCV bars the same way as {@link #getTicker(String)}.
+     *
+     * @return up to {@code limit} bars, oldest first, the last one possibly in progress; empty if the pair has no book
+     */
+    public List<Candle> getCandles(String symbol, CandleInterval interval, int limit) {
+        if (configManager.isHighVolumePair(symbol)) {
+            OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
+            OrderBook book = engine != null ? engine.getOrderBook(symbol) : null;
+            return book != null ? book.getCandles(interval, limit) : Collections.emptyList();
+        }
+        return standardManager.getCandles(symbol, interval, limit);
+    }
+
+    public PendingOrders modifyOrder(String orderId, String symbol, BigDecimal newPrice, BigDecimal newQuantity) {
+        return submitGated(symbol, () -> {
+            if (configManager.isHighVolumePair(symbol)) {
+                PairScale scale = configManager.getPairScale(symbol);
+                long priceTicks;
+                long quantityLots;
+                try {
+                    priceTicks = newPrice != null ? scale.toPriceTicks(newPrice) : OrderBook.UNCHANGED;
+                    quantityLots = newQuantity != null ? scale.toQuantityLots(newQuantity) : OrderBook.UNCHANGED;
+                } catch (ArithmeticException e) {
+                    return CompletableFuture.<PendingOrders>failedFuture(new OrderRejectedException(
+                            "Modification of " + orderId + " is not representable at " + scale + " for " + symbol, e));
+                }
+                OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
+                return engine != null ? engine.modifyOrder(symbol, orderId, priceTicks, quantityLots)
+                        : CompletableFuture.completedFuture(null);
+            }
+            return standardManager.modifyOrder(symbol, orderId, newPrice, newQuantity);
+        }).join();
+    }
+
+    public boolean cancelOrder(String orderId, String symbol) {
+        return submitGated(symbol, () -> {
+            if (configManager.isHighVolumePair(symbol)) {
+                OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
+                return engine != null ? engine.cancelOrder(symbol, orderId) : CompletableFuture.completedFuture(false);
+            }
+            return standardManager.cancelOrder(symbol, orderId);
+        }).join();
+    }
+
+    /**
+     * Cancels every resting order of the user on the pair, or all of the pair's orders if {@code userId} is null.
+     */
+    public int cancelAllOrders(String symbol, String userId) {
+        return cancelAllOrders(symbol, userId, null);
+    }
+
+    /**
+     * Cancels the user's resting orders on one side of the pair, or on both if {@code side} is null, in one
+     * command proportional to the user's order count, e.g. for a kill switch or a disconnected market maker.
+     * The cancelled order ids are published in one report.
+     */
+    public int cancelAllOrders(String symbol, String userId, Side side) {
+        return submitGated(symbol, () -> {
+            if (configManager.isHighVolumePair(symbol)) {
+                OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
+                return engine != null ? engine.cancelAllOrders(symbol, userId, side) : CompletableFuture.completedFuture(0);
+            }
+            return standardManager.cancelAllOrders(symbol, userId, side);
+        }).join();
+    }
+
+    public OrderBookSnapshot getSnapshot(String symbol) {
+        return submitGated(symbol, () -> {
+            if (configManager.isHighVolumePair(symbol)) {
+                OptimizedDisruptorEngine engine = disruptorEngines.get(symbol);
+                return engine != null ? engine.snapshot(symbol) : CompletableFuture.<OrderBookSnapshot>completedFuture(null);
+            }
+            OrderBook orderBook = standardManager.getOrderBook(symbol);
+            return CompletableFuture.completedFuture(orderBook != null ? orderBook.snapshot() : null);
+        }).join();
     }
 
     public void shutdown() {
+        candleCloser.shutdown();
+        synchronized (this) {
+            if (checkpointer != null) {
+                checkpointer.shutdown();
+                checkpointer = null;
+            }
+            if (journalForcer != null) {
+                journalForcer.shutdown();
+                journalForcer = null;
+            }
+        }
         standardManager.shutdown();
-        disruptorEngines.values().forEach(OptimizedDisruptorEngine::shutdown);
+        // A shard is in the map once per pair it hosts, or not at all once its pairs are demoted
+        Set<OptimizedDisruptorEngine> engines = new HashSet<>(disruptorEngines.values());
+        synchronized (this) {
+            if (shards != null) {
+                engines.addAll(Arrays.asList(shards));
+                shards = null;
+            }
+        }
+        engines.forEach(OptimizedDisruptorEngine::shutdown);
         disruptorEngines.clear();
     }
 }
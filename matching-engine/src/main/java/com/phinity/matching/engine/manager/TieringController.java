@@ -0,0 +1,182 @@
+package com.phinity.matching.engine.manager;
+
+import com.phinity.matching.engine.config.TieringPolicy;
+import com.phinity.matching.engine.metrics.MetricsCollector;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves pairs between the standard pools and the Disruptor tier as their load changes, using the per-pair order
+ * counts and processing times of {@link MetricsCollector}. Only pairs the controller promoted itself are demoted
+ * again; pairs configured as high-volume by hand stay where they are.
+ */
+@Slf4j
+public class TieringController {
+    private final HybridEngineManager engineManager;
+    private final TieringPolicy policy;
+    private final Map<String, PairLoad> loads = new HashMap<>();
+    private final Set<String> promotedPairs = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+
+    private static final class PairLoad {
+        long orders;
+        long processingNanos;
+        long sampledAtNanos;
+        long ordersPerSecond;
+        long averageLatencyMicros;
+        // Time of the pair's last tier change, 0 if the controller never moved it
+        long movedAtNanos;
+    }
+
+    public TieringController(HybridEngineManager engineManager, TieringPolicy policy) {
+        this.engineManager = engineManager;
+        this.policy = policy;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "TieringController");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = policy.getEvaluationIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::evaluateSafely, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Automatic tiering started with {}", policy);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    public Set<String> getPromotedPairs() {
+        return Set.copyOf(promotedPairs);
+    }
+
+    private void evaluateSafely() {
+        try {
+            evaluate();
+        } catch (Exception e) {
+            log.error("Tiering evaluation failed", e);
+        }
+    }
+
+    /**
+     * Samples the load of every pair since the previous call and promotes or demotes pairs accordingly.
+     */
+    public synchronized void evaluate() {
+        long now = System.nanoTime();
+        List<String> candidates = new ArrayList<>();
+        MetricsCollector metrics = MetricsCollector.getInstance();
+        for (Map.Entry<String, LongAdder> entry : metrics.getOrdersBySymbol().entrySet()) {
+            String symbol = entry.getKey();
+            LongAdder time = metrics.getProcessingTimeBySymbol().get(symbol);
+            if (sample(symbol, entry.getValue().sum(), time != null ? time.sum() : 0, now)) {
+                candidates.add(symbol);
+            }
+        }
+
+        for (String symbol : candidates) {
+            PairLoad load = loads.get(symbol);
+            if (promotedPairs.contains(symbol) && load.ordersPerSecond < policy.getDemoteOrdersPerSecond() && dwelled(load, now)) {
+                log.info("Demoting {}: {} orders/s below {}/s", symbol, load.ordersPerSecond, policy.getDemoteOrdersPerSecond());
+                move(symbol, false, now);
+            }
+        }
+
+        // Busiest pairs first, so they win the remaining hot slots
+        candidates.sort((a, b) -> Long.compare(loads.get(b).ordersPerSecond, loads.get(a).ordersPerSecond));
+        int hotPairs = engineManager.getHighVolumePairs().size();
+        for (String symbol : candidates) {
+            PairLoad load = loads.get(symbol);
+            if (engineManager.isHighVolumePair(symbol) || !dwelled(load, now)) {
+                continue;
+            }
+            String reason = promotionReason(load);
+            if (reason == null) {
+                continue;
+            }
+            if (hotPairs >= policy.getMaxHotPairs()) {
+                log.info("Not promoting {} ({}): {} high-volume pairs already", symbol, reason, hotPairs);
+                continue;
+            }
+            log.info("Promoting {}: {}", symbol, reason);
+            if (move(symbol, true, now)) {
+                hotPairs++;
+            }
+        }
+    }
+
+    /**
+     * @return true if the pair has a rate for the last interval
+     */
+    private boolean sample(String symbol, long orders, long processingNanos, long now) {
+        PairLoad load = loads.get(symbol);
+        if (load == null) {
+            load = new PairLoad();
+            loads.put(symbol, load);
+            load.orders = orders;
+            load.processingNanos = processingNanos;
+            load.sampledAtNanos = now;
+            return false;
+        }
+        long elapsed = now - load.sampledAtNanos;
+        if (elapsed <= 0) {
+            return false;
+        }
+        long newOrders = orders - load.orders;
+        load.ordersPerSecond = newOrders * 1_000_000_000L / elapsed;
+        load.averageLatencyMicros = newOrders > 0 ? (processingNanos - load.processingNanos) / newOrders / 1_000 : 0;
+        load.orders = orders;
+        load.processingNanos = processingNanos;
+        load.sampledAtNanos = now;
+        return true;
+    }
+
+    private String promotionReason(PairLoad load) {
+        if (load.ordersPerSecond >= policy.getPromoteOrdersPerSecond()) {
+            return load.ordersPerSecond + " orders/s reached " + policy.getPromoteOrdersPerSecond() + "/s";
+        }
+        if (load.ordersPerSecond >= policy.getDemoteOrdersPerSecond()
+                && load.averageLatencyMicros >= policy.getPromoteLatencyMicros()) {
+            return load.averageLatencyMicros + " us average latency reached " + policy.getPromoteLatencyMicros()
+                    + " us at " + load.ordersPerSecond + " orders/s";
+        }
+        return null;
+    }
+
+    private boolean dwelled(PairLoad load, long now) {
+        return load.movedAtNanos == 0 || now - load.movedAtNanos >= TimeUnit.MILLISECONDS.toNanos(policy.getMinDwellMillis());
+    }
+
+    private boolean move(String symbol, boolean promote, long now) {
+        try {
+            engineManager.configureHighVolumePair(symbol, promote);
+        } catch (RuntimeException e) {
+            log.error("Failed to {} {}", promote ? "promote" : "demote", symbol, e);
+            return false;
+        }
+        if (promote) {
+            promotedPairs.add(symbol);
+        } else {
+            promotedPairs.remove(symbol);
+        }
+        loads.get(symbol).movedAtNanos = now;
+        return true;
+    }
+}
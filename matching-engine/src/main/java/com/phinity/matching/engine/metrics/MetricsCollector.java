@@ -1,9 +1,12 @@
 package com.phinity.matching.engine.metrics;
 
 import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 public class MetricsCollector {
     private static final MetricsCollector INSTANCE = new MetricsCollector();
@@ -13,13 +16,28 @@ public class MetricsCollector {
     private final LongAdder totalTradesExecuted = new LongAdder();
     private final AtomicLong totalProcessingTimeNanos = new AtomicLong(0);
     private final ConcurrentHashMap<String, LongAdder> ordersBySymbol = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> processingTimeBySymbol = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, LongAdder> tradesBySymbol = new ConcurrentHashMap<>();
     
     // Business Metrics
     private final ConcurrentHashMap<String, AtomicLong> volumeBySymbol = new ConcurrentHashMap<>();
     private final LongAdder rejectedOrders = new LongAdder();
+    private final LongAdder orderIdsForgottenEarly = new LongAdder();
     private final ConcurrentHashMap<String, AtomicLong> engineUsage = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> queueDepthGauges = new ConcurrentHashMap<>();
+    private final LongAdder hibernatedBooks = new LongAdder();
+    private final LongAdder rehydrations = new LongAdder();
+    private final LongAdder rehydrationTimeNanos = new LongAdder();
+    private final ConcurrentHashMap<String, LongSupplier> replicationLagGauges = new ConcurrentHashMap<>();
+    private final LongAdder droppedFollowers = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    private volatile long lastFailoverTimeNanos;
     
+    private static final long[] LONG_POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L
+    };
+
     public static MetricsCollector getInstance() { return INSTANCE; }
     
     // Technical Metrics
@@ -27,6 +45,7 @@ public class MetricsCollector {
         totalOrdersProcessed.increment();
         totalProcessingTimeNanos.addAndGet(processingTimeNanos);
         ordersBySymbol.computeIfAbsent(symbol, k -> new LongAdder()).increment();
+        processingTimeBySymbol.computeIfAbsent(symbol, k -> new LongAdder()).add(processingTimeNanos);
     }
     
     public void recordTradeExecuted(String symbol, BigDecimal volume) {
@@ -36,14 +55,80 @@ public class MetricsCollector {
             .addAndGet(volume.multiply(BigDecimal.valueOf(1000000)).longValue()); // Store as micro-units
     }
     
+    /**
+     * Same as {@link #recordTradeExecuted(String, BigDecimal)} for a volume given in lots, without allocating.
+     */
+    public void recordTradeExecuted(String symbol, long quantityLots, int quantityScale) {
+        totalTradesExecuted.increment();
+        tradesBySymbol.computeIfAbsent(symbol, k -> new LongAdder()).increment();
+        long microUnits = quantityScale >= 6
+                ? quantityLots / LONG_POWERS_OF_TEN[quantityScale - 6]
+                : quantityLots * LONG_POWERS_OF_TEN[6 - quantityScale];
+        volumeBySymbol.computeIfAbsent(symbol, k -> new AtomicLong(0)).addAndGet(microUnits);
+    }
+
     public void recordRejectedOrder() {
         rejectedOrders.increment();
     }
     
+    /**
+     * Records an order id a book forgot before its window had passed, because the window was at its capacity.
+     */
+    public void recordOrderIdForgottenEarly() {
+        orderIdsForgottenEarly.increment();
+    }
+
     public void recordEngineUsage(String engineType) {
         engineUsage.computeIfAbsent(engineType, k -> new AtomicLong(0)).incrementAndGet();
     }
     
+    /**
+     * Registers a gauge reporting how many commands are waiting in an engine queue.
+     */
+    public void registerQueueDepthGauge(String queueName, LongSupplier depth) {
+        queueDepthGauges.put(queueName, depth);
+    }
+
+    public void unregisterQueueDepthGauge(String queueName) {
+        queueDepthGauges.remove(queueName);
+    }
+
+    public void recordBookHibernated() {
+        hibernatedBooks.increment();
+    }
+
+    /**
+     * Records a hibernated book brought back into memory and how long decoding and rebuilding it took.
+     */
+    public void recordBookRehydrated(long rehydrationTimeNanos) {
+        hibernatedBooks.decrement();
+        rehydrations.increment();
+        this.rehydrationTimeNanos.add(rehydrationTimeNanos);
+    }
+
+    /**
+     * Registers a gauge reporting how many replicated commands an engine's follower has not acknowledged yet.
+     */
+    public void registerReplicationLagGauge(String engineName, LongSupplier lag) {
+        replicationLagGauges.put(engineName, lag);
+    }
+
+    public void unregisterReplicationLagGauge(String engineName) {
+        replicationLagGauges.remove(engineName);
+    }
+
+    public void recordFollowerDropped() {
+        droppedFollowers.increment();
+    }
+
+    /**
+     * Records a follower promoted to primary and how long it took until it accepted commands.
+     */
+    public void recordFailover(long failoverTimeNanos) {
+        failovers.increment();
+        lastFailoverTimeNanos = failoverTimeNanos;
+    }
+
     // Getters
     public long getTotalOrdersProcessed() { return totalOrdersProcessed.sum(); }
     public long getTotalTradesExecuted() { return totalTradesExecuted.sum(); }
@@ -53,8 +138,30 @@ public class MetricsCollector {
     }
     public long getOrdersPerSecond() { return totalOrdersProcessed.sum(); } // Will be calculated by monitoring system
     public ConcurrentHashMap<String, LongAdder> getOrdersBySymbol() { return ordersBySymbol; }
+    /** Total processing time in nanoseconds of each pair's orders. */
+    public ConcurrentHashMap<String, LongAdder> getProcessingTimeBySymbol() { return processingTimeBySymbol; }
     public ConcurrentHashMap<String, LongAdder> getTradesBySymbol() { return tradesBySymbol; }
     public ConcurrentHashMap<String, AtomicLong> getVolumeBySymbol() { return volumeBySymbol; }
     public long getRejectedOrders() { return rejectedOrders.sum(); }
+    public long getOrderIdsForgottenEarly() { return orderIdsForgottenEarly.sum(); }
     public ConcurrentHashMap<String, AtomicLong> getEngineUsage() { return engineUsage; }
+    public long getHibernatedBooks() { return hibernatedBooks.sum(); }
+    public long getRehydrations() { return rehydrations.sum(); }
+    public double getAverageRehydrationTimeMs() {
+        long total = rehydrations.sum();
+        return total > 0 ? (rehydrationTimeNanos.sum() / 1_000_000.0) / total : 0;
+    }
+    public long getDroppedFollowers() { return droppedFollowers.sum(); }
+    public long getFailovers() { return failovers.sum(); }
+    public double getLastFailoverTimeMs() { return lastFailoverTimeNanos / 1_000_000.0; }
+    public Map<String, Long> getReplicationLags() {
+        Map<String, Long> lags = new TreeMap<>();
+        replicationLagGauges.forEach((name, lag) -> lags.put(name, lag.getAsLong()));
+        return lags;
+    }
+    public Map<String, Long> getQueueDepths() {
+        Map<String, Long> depths = new TreeMap<>();
+        queueDepthGauges.forEach((name, depth) -> depths.put(name, depth.getAsLong()));
+        return depths;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,321 @@
+package com.phinity.matching.engine.replay;
+
+import com.lmax.disruptor.dsl.ProducerType;
+import com.phinity.matching.engine.OptimizedDisruptorEngine;
+import com.phinity.matching.engine.OrderEvent;
+import com.phinity.matching.engine.OrderResultListener;
+import com.phinity.matching.engine.ThreadAffinity;
+import com.phinity.matching.engine.config.BookFeed;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.EngineProfile;
+import com.phinity.matching.engine.config.OverloadPolicy;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.config.WaitStrategyType;
+import com.phinity.matching.engine.core.LadderOrderBook;
+import com.phinity.matching.engine.core.MatchingEngine;
+import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.TradeBuffer;
+import com.phinity.matching.engine.journal.CommandJournal;
+import com.phinity.matching.engine.journal.EngineCheckpoint;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import com.phinity.matching.engine.snapshot.SnapshotCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Replays the command journal of a Disruptor engine through a chosen engine implementation and hashes the
+ * resulting state. Trade ids come from each book's counter and trade timestamps from the journaled command,
+ * so replaying the same journal always gives the same fills and books; two replays, or the standard and the
+ * Disruptor engine over the same journal, are equivalent when their checkpoint hashes match. Useful to check
+ * a change of the matching code against a production journal, and to measure its throughput on real flow.
+ * <p>
+ * Every {@code hashInterval} commands, and after the last one, the harness records a hash of every fill so
+ * far and of every book in symbol order.
+ */
+@Slf4j
+public class ReplayHarness {
+    private static final long DRAIN_TIMEOUT_MS = 60_000;
+
+    public enum Target {
+        // MatchingEngine over a ConcurrentOrderBook, applied on the calling thread
+        STANDARD,
+        // OptimizedDisruptorEngine over LadderOrderBooks, as hosted by the hybrid engine manager
+        DISRUPTOR
+    }
+
+    private final Path directory;
+    private final String engineName;
+    private final long hashInterval;
+
+    /**
+     * @param directory    journal directory, e.g. a copy of a production one
+     * @param engineName   name of the engine whose journal to replay
+     * @param hashInterval number of commands between two checkpoint hashes
+     */
+    public ReplayHarness(Path directory, String engineName, long hashInterval) {
+        if (hashInterval <= 0) {
+            throw new IllegalArgumentException("Hash interval must be positive: " + hashInterval);
+        }
+        this.directory = directory;
+        this.engineName = engineName;
+        this.hashInterval = hashInterval;
+    }
+
+    public ReplayReport run(Target target) {
+        return run(target, null);
+    }
+
+    /**
+     * @param startFrom checkpoint to start from, null to replay the whole journal
+     * @throws IllegalStateException if the journal does not reach back to the checkpoint
+     */
+    public ReplayReport run(Target target, EngineCheckpoint startFrom) {
+        Replay replay = target == Target.STANDARD ? new StandardReplay() : new DisruptorReplay();
+        long fromSequence = 0;
+        if (startFrom != null) {
+            for (int i = 0; i < startFrom.getBooks().size(); i++) {
+                replay.restore(startFrom.getBooks().get(i), startFrom.getScales().get(i));
+            }
+            fromSequence = startFrom.getSequence();
+        }
+        List<ReplayReport.Checkpoint> checkpoints = new ArrayList<>();
+        long[] sequence = {fromSequence};
+        long[] hashingNanos = {0};
+        long startTime = System.nanoTime();
+        try {
+            long commands = CommandJournal.read(directory, engineName, fromSequence, event -> {
+                replay.apply(event);
+                if (++sequence[0] % hashInterval == 0) {
+                    long hashStart = System.nanoTime();
+                    checkpoints.add(new ReplayReport.Checkpoint(sequence[0], replay.hash()));
+                    hashingNanos[0] += System.nanoTime() - hashStart;
+                }
+            });
+            if (checkpoints.isEmpty() || checkpoints.get(checkpoints.size() - 1).getSequence() != sequence[0]) {
+                long hashStart = System.nanoTime();
+                checkpoints.add(new ReplayReport.Checkpoint(sequence[0], replay.hash()));
+                hashingNanos[0] += System.nanoTime() - hashStart;
+            }
+            ReplayReport report = new ReplayReport(target, commands, replay.trades, System.nanoTime() - startTime,
+                    hashingNanos[0], checkpoints);
+            log.info("Journal {} {}", engineName, report);
+            return report;
+        } finally {
+            replay.close();
+        }
+    }
+
+    private abstract static class Replay {
+        final StateHasher tradeHash = new StateHasher();
+        long trades;
+
+        abstract void restore(OrderBookSnapshot snapshot, PairScale scale);
+
+        abstract void apply(OrderEvent event);
+
+        /**
+         * @return snapshots of every book in symbol order, once every command so far has been applied
+         */
+        abstract List<OrderBookSnapshot> snapshots();
+
+        long hash() {
+            List<OrderBookSnapshot> snapshots = snapshots();
+            StateHasher hasher = new StateHasher().update(tradeHash.getValue());
+            for (OrderBookSnapshot snapshot : snapshots) {
+                hasher.update(snapshot);
+            }
+            return hasher.getValue();
+        }
+
+        void recordFills(TradeBuffer fills) {
+            if (!fills.isEmpty()) {
+                tradeHash.update(fills);
+                trades += fills.size();
+            }
+        }
+
+        void close() {
+        }
+    }
+
+    private static class StandardReplay extends Replay {
+        private final Map<String, MatchingEngine> engines = new TreeMap<>();
+        private final TradeBuffer fills = new TradeBuffer();
+
+        @Override
+        void restore(OrderBookSnapshot snapshot, PairScale scale) {
+            MatchingEngine engine = new MatchingEngine(snapshot.getSymbol(), scale);
+            engine.getOrderBook().restore(snapshot);
+            engines.put(snapshot.getSymbol(), engine);
+        }
+
+        @Override
+        void apply(OrderEvent event) {
+            String symbol = event.getSymbol();
+            switch (event.getType()) {
+                case RESTORE_BOOK:
+                    restore(SnapshotCodec.decode(ByteBuffer.wrap(event.getPayload())),
+                            SnapshotCodec.decodeScale(ByteBuffer.wrap(event.getPayload())));
+                    return;
+                case REMOVE_BOOK:
+                    engines.remove(symbol);
+                    return;
+                default:
+                    break;
+            }
+            MatchingEngine engine = engines.get(symbol);
+            if (engine == null) {
+                // The Disruptor engine rejected the command too
+                return;
+            }
+            OrderBook book = engine.getOrderBook();
+            try {
+                switch (event.getType()) {
+                    case NEW:
+                        fills.setTimestamp(event.getTimestamp());
+                        book.matchOrder(event.getOrderId(), event.getUserId(), event.getSide(), event.getOrderType(),
+                                event.getTimeInForce(), event.getPrice(), event.getQuantity(), fills);
+                        recordFills(fills);
+                        break;
+                    case CANCEL:
+                        book.cancelOrder(event.getOrderId());
+                        break;
+                    case MODIFY:
+                        book.modifyOrder(event.getOrderId(), event.getNewPrice(), event.getNewQuantity());
+                        break;
+                    case MASS_CANCEL:
+                        book.cancelAllOrders(event.getUserId(), event.getSide(), null);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (Exception e) {
+                log.debug("Replayed command {} for {} failed: {}", event.getType(), symbol, e.getMessage());
+            }
+        }
+
+        @Override
+        List<OrderBookSnapshot> snapshots() {
+            List<OrderBookSnapshot> snapshots = new ArrayList<>(engines.size());
+            for (MatchingEngine engine : engines.values()) {
+                snapshots.add(engine.getOrderBook().snapshot());
+            }
+            return snapshots;
+        }
+    }
+
+    private class DisruptorReplay extends Replay implements OrderResultListener {
+        private final OptimizedDisruptorEngine engine;
+        // Timestamp of the command being submitted, read by the engine's clock on this thread
+        private long commandTimestamp;
+
+        DisruptorReplay() {
+            // This thread is the only producer
+            EngineProfile profile = new EngineProfile(ProducerType.SINGLE, EngineProfile.DEFAULT_RING_SIZE, WaitStrategyType.PHASED);
+            engine = new OptimizedDisruptorEngine("replay-" + engineName, profile, ThreadAffinity.NONE, -1);
+            engine.configureAdmission(OverloadPolicy.BLOCK_WITH_TIMEOUT, DRAIN_TIMEOUT_MS);
+            engine.setClock(() -> commandTimestamp);
+        }
+
+        @Override
+        void restore(OrderBookSnapshot snapshot, PairScale scale) {
+            LadderOrderBook book = new LadderOrderBook(snapshot.getSymbol(), scale);
+            book.configurePublication(BookUpdateMode.CONFLATED, BookFeed.FULL_DEPTH, 0);
+            book.restore(snapshot);
+            engine.addBook(book);
+        }
+
+        @Override
+        void apply(OrderEvent event) {
+            String symbol = event.getSymbol();
+            switch (event.getType()) {
+                case NEW:
+                    commandTimestamp = event.getTimestamp();
+                    engine.processOrder(symbol, event.getOrderId(), event.getUserId(), event.getSide(), event.getPrice(),
+                            event.getQuantity(), event.getOrderType(), event.getTimeInForce(), this);
+                    break;
+                case CANCEL:
+                    engine.cancelOrder(symbol, event.getOrderId());
+                    break;
+                case MODIFY:
+                    engine.modifyOrder(symbol, event.getOrderId(), event.getNewPrice(), event.getNewQuantity());
+                    break;
+                case MASS_CANCEL:
+                    engine.cancelAllOrders(symbol, event.getUserId(), event.getSide());
+                    break;
+                case RESTORE_BOOK:
+                    // Without a journal the engine hosts books immediately, so wait for the commands before it
+                    drain(symbol);
+                    restore(SnapshotCodec.decode(ByteBuffer.wrap(event.getPayload())),
+                            SnapshotCodec.decodeScale(ByteBuffer.wrap(event.getPayload())));
+                    break;
+                case REMOVE_BOOK:
+                    drain(symbol);
+                    engine.removeBook(symbol);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Waits until every command submitted so far is through the engine; the snapshot fails if the symbol
+         * is not hosted, but still only completes after them.
+         */
+        private void drain(String symbol) {
+            engine.snapshot(symbol).handle((snapshot, e) -> null).join();
+        }
+
+        @Override
+        List<OrderBookSnapshot> snapshots() {
+            List<OrderBookSnapshot> snapshots = new ArrayList<>();
+            for (String symbol : new TreeSet<>(engine.getSymbols())) {
+                snapshots.add(engine.snapshot(symbol).join());
+            }
+            if (snapshots.isEmpty()) {
+                drain(engineName);
+            }
+            return snapshots;
+        }
+
+        @Override
+        public void onOrderProcessed(String orderId, TradeBuffer fills, long remainingQuantity) {
+            recordFills(fills);
+        }
+
+        @Override
+        public void onOrderRejected(String orderId, Throwable cause) {
+            log.debug("Replayed order {} was rejected: {}", orderId, cause.getMessage());
+        }
+
+        @Override
+        void close() {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * Replays a journal offline: {@code <journal directory> <engine name> [STANDARD|DISRUPTOR] [hash interval]}.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ReplayHarness <journal directory> <engine name> [STANDARD|DISRUPTOR] [hash interval]");
+            System.exit(2);
+        }
+        Target target = args.length > 2 ? Target.valueOf(args[2]) : Target.DISRUPTOR;
+        long hashInterval = args.length > 3 ? Long.parseLong(args[3]) : 100_000;
+        ReplayReport report = new ReplayHarness(Paths.get(args[0]), args[1], hashInterval).run(target);
+        System.out.println(report);
+        for (ReplayReport.Checkpoint checkpoint : report.getCheckpoints()) {
+            System.out.println(checkpoint);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.phinity.matching.engine.replay;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Outcome of a {@link ReplayHarness} run. Two runs over the same input are equivalent when their
+ * checkpoint hashes are equal.
+ */
+@Getter
+public class ReplayReport {
+    private final ReplayHarness.Target target;
+    private final long commands;
+    private final long trades;
+    private final long elapsedNanos;
+    // Time spent hashing state at the checkpoints, not counted towards throughput
+    private final long hashingNanos;
+    private final List<Checkpoint> checkpoints;
+
+    /**
+     * Rolling hash of the fills so far and the state of every book, after the command with the given
+     * journal sequence.
+     */
+    @Getter
+    public static class Checkpoint {
+        private final long sequence;
+        private final long hash;
+
+        public Checkpoint(long sequence, long hash) {
+            this.sequence = sequence;
+            this.hash = hash;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + ":" + Long.toHexString(hash);
+        }
+    }
+
+    public ReplayReport(ReplayHarness.Target target, long commands, long trades, long elapsedNanos, long hashingNanos,
+                        List<Checkpoint> checkpoints) {
+        this.target = target;
+        this.commands = commands;
+        this.trades = trades;
+        this.elapsedNanos = elapsedNanos;
+        this.hashingNanos = hashingNanos;
+        this.checkpoints = checkpoints;
+    }
+
+    public double getCommandsPerSecond() {
+        long matchingNanos = Math.max(1, elapsedNanos - hashingNanos);
+        return commands * 1_000_000_000.0 / matchingNanos;
+    }
+
+    /**
+     * @return the hash of the last checkpoint, taken after the last command
+     */
+    public long getFinalHash() {
+        return checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size() - 1).getHash();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s replayed %d commands and %d trades at %.0f commands/s, final hash %016x",
+                target, commands, trades, getCommandsPerSecond(), getFinalHash());
+    }
+}
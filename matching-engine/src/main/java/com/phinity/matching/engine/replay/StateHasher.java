@@ -0,0 +1,96 @@
+package com.phinity.matching.engine.replay;
+
+import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.core.TradeBuffer;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 64-bit FNV-1a hash over book state and fills. Only the content counts, not how it is held: decimals are
+ * hashed by value and snapshots by their orders in priority order, so books of different implementations
+ * hash the same when they hold the same orders.
+ */
+public final class StateHasher {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private long hash = OFFSET_BASIS;
+
+    public long getValue() {
+        return hash;
+    }
+
+    public StateHasher update(long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * PRIME;
+        }
+        return this;
+    }
+
+    public StateHasher update(String value) {
+        if (value == null) {
+            return update(-1L);
+        }
+        update(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * PRIME;
+            hash = (hash ^ (c >>> 8)) * PRIME;
+        }
+        return this;
+    }
+
+    public StateHasher update(BigDecimal value) {
+        return update(value != null ? value.stripTrailingZeros().toPlainString() : null);
+    }
+
+    public StateHasher update(Enum<?> value) {
+        return update(value != null ? value.name() : null);
+    }
+
+    /**
+     * Hashes the resting orders and the last trade id; the snapshot time and sequence are left out.
+     */
+    public StateHasher update(OrderBookSnapshot snapshot) {
+        update(snapshot.getSymbol());
+        update(snapshot.getLastTradeId());
+        updateOrders(snapshot.getBids());
+        updateOrders(snapshot.getAsks());
+        return this;
+    }
+
+    private void updateOrders(List<PendingOrders> orders) {
+        update(orders.size());
+        for (PendingOrders order : orders) {
+            update(order.getOrderId());
+            update(order.getUserId());
+            update(order.getSide());
+            update(order.getOrderType());
+            update(order.getTimeInForce());
+            update(order.getPrice());
+            update(order.getQuantity());
+            update(order.getRemainingQuantity());
+        }
+    }
+
+    /**
+     * Hashes every fill of a command together with its taker and timestamp.
+     */
+    public StateHasher update(TradeBuffer fills) {
+        update(fills.getTakerOrderId());
+        update(fills.getTakerUserId());
+        update(fills.isTakerBuy() ? 1 : 0);
+        update(fills.getTimestamp());
+        update(fills.size());
+        for (int i = 0; i < fills.size(); i++) {
+            update(fills.tradeId(i));
+            update(fills.makerOrderId(i));
+            update(fills.makerUserId(i));
+            update(fills.price(i));
+            update(fills.quantity(i));
+        }
+        return this;
+    }
+}
@@ -0,0 +1,151 @@
+package com.phinity.matching.engine.replication;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.matching.engine.OrderEvent;
+import com.phinity.matching.engine.journal.CommandCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replication between a primary and a follower in the same JVM over a bounded queue of encoded commands,
+ * mostly for tests. Commands are encoded as they would be over the network, so the follower never shares
+ * state with the primary's ring. The primary blocks while the queue is full.
+ */
+public class InProcessReplication {
+    private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+    private final BlockingQueue<byte[]> frames;
+    private final Object ackLock = new Object();
+    private final Link link = new Link();
+    private final Source source = new Source();
+    private volatile long sentSequence;
+    private volatile long ackedSequence;
+    private volatile boolean linkClosed;
+    private volatile boolean sourceClosed;
+
+    /**
+     * @param capacity number of commands the follower may fall behind before the primary blocks
+     */
+    public InProcessReplication(int capacity) {
+        this.frames = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public ReplicationLink link() {
+        return link;
+    }
+
+    public ReplicationSource source() {
+        return source;
+    }
+
+    private final class Link implements ReplicationLink {
+        private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+        @Override
+        public void send(long sequence, OrderEvent event) {
+            int size = 8 + CommandCodec.maxSize(event);
+            if (scratch.capacity() < size) {
+                scratch = ByteBuffer.allocate(Math.max(size, 2 * scratch.capacity()));
+            }
+            scratch.clear();
+            scratch.putLong(sequence);
+            CommandCodec.write(event, scratch);
+            byte[] frame = new byte[scratch.position()];
+            scratch.flip().get(frame);
+            try {
+                while (!frames.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+                    if (sourceClosed || linkClosed) {
+                        throw new UncheckedIOException(new IOException("Follower is closed"));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("Interrupted while sending to the follower"));
+            }
+            sentSequence = sequence;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public boolean awaitAck(long sequence, long timeoutNanos) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            synchronized (ackLock) {
+                while (ackedSequence < sequence) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || sourceClosed || linkClosed) {
+                        return false;
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(ackLock, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public long getSentSequence() {
+            return sentSequence;
+        }
+
+        @Override
+        public long getAckedSequence() {
+            return ackedSequence;
+        }
+
+        @Override
+        public void close() {
+            linkClosed = true;
+        }
+    }
+
+    private final class Source implements ReplicationSource {
+
+        @Override
+        public long poll(OrderEvent event, long timeoutMillis) {
+            // Read the flag first: once the link is closed nothing more is queued
+            boolean closed = linkClosed;
+            byte[] frame;
+            try {
+                frame = timeoutMillis > 0 ? frames.poll(timeoutMillis, TimeUnit.MILLISECONDS) : frames.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return NONE;
+            }
+            if (frame == null) {
+                return closed ? CLOSED : NONE;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            long sequence = buffer.getLong();
+            CommandCodec.read(buffer, ORDER_TYPES, event);
+            return sequence;
+        }
+
+        @Override
+        public void acknowledge(long sequence) {
+            synchronized (ackLock) {
+                ackedSequence = sequence;
+                ackLock.notifyAll();
+            }
+        }
+
+        @Override
+        public void close() {
+            sourceClosed = true;
+            synchronized (ackLock) {
+                ackLock.notifyAll();
+            }
+        }
+    }
+}
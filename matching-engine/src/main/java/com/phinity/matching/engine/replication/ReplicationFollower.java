@@ -0,0 +1,225 @@
+package com.phinity.matching.engine.replication;
+
+import com.phinity.matching.engine.OptimizedDisruptorEngine;
+import com.phinity.matching.engine.OrderEvent;
+import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.TradeBuffer;
+import com.phinity.matching.engine.metrics.MetricsCollector;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import com.phinity.matching.engine.snapshot.SnapshotCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Hot-standby copy of a primary Disruptor engine. A thread of its own applies the primary's commands to the
+ * follower's books in the primary's order, exactly as the primary's matching stage applied them, and
+ * acknowledges them whenever it has caught up with what arrived. Fills are recomputed rather than shipped;
+ * trade ids come from the books and timestamps from the commands, so they equal the primary's.
+ * <p>
+ * When the primary is lost the follower is {@link #promote(OptimizedDisruptorEngine) promoted}: its books
+ * move to a new engine that takes over, with their state already current.
+ */
+@Slf4j
+public class ReplicationFollower {
+    private static final long POLL_TIMEOUT_MS = 50;
+
+    private final String name;
+    private final ReplicationSource source;
+    private final Function<String, OrderBook> bookFactory;
+    // Only touched by the follower thread until it stops
+    private final Map<String, OrderBook> books = new HashMap<>();
+    private final TradeBuffer fills = new TradeBuffer();
+    private final Thread thread;
+    private volatile boolean draining;
+    private volatile boolean promoted;
+    private volatile boolean primaryLost;
+    private volatile Throwable failure;
+    private volatile long appliedSequence;
+    private volatile long lastReceivedMillis;
+
+    /**
+     * @param bookFactory creates the follower's books, configured as the engine it is promoted to expects
+     */
+    public ReplicationFollower(String name, ReplicationSource source, Function<String, OrderBook> bookFactory) {
+        this.name = name;
+        this.source = source;
+        this.bookFactory = bookFactory;
+        this.thread = new Thread(this::run, "Replication-follower-" + name);
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    private void run() {
+        OrderEvent event = new OrderEvent();
+        long acknowledged = 0;
+        try {
+            while (true) {
+                long applied = appliedSequence;
+                // Only wait for more once everything applied is acknowledged
+                long sequence = source.poll(event, applied > acknowledged || draining ? 0 : POLL_TIMEOUT_MS);
+                if (sequence == ReplicationSource.NONE) {
+                    if (applied > acknowledged) {
+                        source.acknowledge(applied);
+                        acknowledged = applied;
+                    } else if (draining) {
+                        return;
+                    }
+                    continue;
+                }
+                if (sequence == ReplicationSource.CLOSED) {
+                    primaryLost = true;
+                    log.warn("Follower {} lost its primary at sequence {}", name, applied);
+                    return;
+                }
+                if (sequence == 1) {
+                    // A new stream starts from the primary's books
+                    books.clear();
+                    acknowledged = 0;
+                } else if (sequence != applied + 1) {
+                    throw new IllegalStateException("Follower " + name + " expected sequence " + (applied + 1)
+                            + " but received " + sequence);
+                }
+                apply(event);
+                lastReceivedMillis = System.currentTimeMillis();
+                appliedSequence = sequence;
+            }
+        } catch (RuntimeException e) {
+            // Its books can no longer be trusted to match the primary's
+            failure = e;
+            log.error("Follower {} stopped", name, e);
+        }
+    }
+
+    private void apply(OrderEvent event) {
+        String symbol = event.getSymbol();
+        switch (event.getType()) {
+            case RESTORE_BOOK:
+                OrderBook restored = bookFactory.apply(symbol);
+                restored.restore(SnapshotCodec.decode(ByteBuffer.wrap(event.getPayload())));
+                books.put(symbol, restored);
+                return;
+            case REMOVE_BOOK:
+                books.remove(symbol);
+                return;
+            default:
+                break;
+        }
+        OrderBook book = books.get(symbol);
+        if (book == null) {
+            // The primary did not host it either
+            return;
+        }
+        try {
+            switch (event.getType()) {
+                case NEW:
+                    fills.setTimestamp(event.getTimestamp());
+                    book.matchOrder(event.getOrderId(), event.getUserId(), event.getSide(), event.getOrderType(),
+                            event.getTimeInForce(), event.getPrice(), event.getQuantity(), fills);
+                    break;
+                case CANCEL:
+                    book.cancelOrder(event.getOrderId());
+                    break;
+                case MODIFY:
+                    book.modifyOrder(event.getOrderId(), event.getNewPrice(), event.getNewQuantity());
+                    break;
+                case MASS_CANCEL:
+                    book.cancelAllOrders(event.getUserId(), event.getSide(), null);
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            // The command failed the same way on the primary
+            log.debug("Replicated command {} for {} failed: {}", event.getType(), symbol, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops following once every command already received is applied, and hosts the books on the engine,
+     * which from then on takes the primary's place. Records the failover time.
+     *
+     * @param engine new engine without books, e.g. created with the primary's configuration
+     * @return the engine
+     * @throws IllegalStateException if the follower failed and its books may differ from the primary's
+     */
+    public synchronized OptimizedDisruptorEngine promote(OptimizedDisruptorEngine engine) {
+        if (promoted) {
+            throw new IllegalStateException("Follower " + name + " was already promoted");
+        }
+        long startTime = System.nanoTime();
+        draining = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while promoting follower " + name, e);
+        }
+        source.close();
+        if (failure != null) {
+            throw new IllegalStateException("Follower " + name + " failed and cannot be promoted", failure);
+        }
+        for (OrderBook book : books.values()) {
+            engine.addBook(book);
+        }
+        promoted = true;
+        long failoverNanos = System.nanoTime() - startTime;
+        MetricsCollector.getInstance().recordFailover(failoverNanos);
+        log.info("Promoted follower {} at sequence {} with {} books in {} ms", name, appliedSequence, books.size(),
+                failoverNanos / 1_000_000);
+        return engine;
+    }
+
+    /**
+     * Copies a book; only for checks once the follower stopped and before it is promoted.
+     */
+    public OrderBookSnapshot snapshot(String symbol) {
+        checkStopped();
+        OrderBook book = books.get(symbol);
+        return book != null ? book.snapshot() : null;
+    }
+
+    public Set<String> getSymbols() {
+        checkStopped();
+        return Set.copyOf(books.keySet());
+    }
+
+    private void checkStopped() {
+        if (thread.isAlive() || promoted) {
+            throw new IllegalStateException("Books of follower " + name + " are in use");
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return replication sequence of the last command applied
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * @return epoch millis of the last command received, for detecting a silent primary
+     */
+    public long getLastReceivedMillis() {
+        return lastReceivedMillis;
+    }
+
+    public boolean isPrimaryLost() {
+        return primaryLost;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+}
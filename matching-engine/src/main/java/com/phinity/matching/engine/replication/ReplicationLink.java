@@ -0,0 +1,34 @@
+package com.phinity.matching.engine.replication;
+
+import com.phinity.matching.engine.OrderEvent;
+
+/**
+ * Primary end of a replication transport. Used by the engine's replication stage only, apart from the
+ * sequence getters.
+ */
+public interface ReplicationLink extends AutoCloseable {
+
+    /**
+     * Sends a journaled command; may buffer it until {@link #flush()}. Sequences start at 1 and have no gaps,
+     * sequence 1 starts a new stream that the follower applies to empty books.
+     *
+     * @throws java.io.UncheckedIOException if the follower can no longer be reached
+     */
+    void send(long sequence, OrderEvent event);
+
+    void flush();
+
+    /**
+     * Waits until the follower has applied every command up to the sequence.
+     *
+     * @return false if it did not within the timeout or the link is closed
+     */
+    boolean awaitAck(long sequence, long timeoutNanos);
+
+    long getSentSequence();
+
+    long getAckedSequence();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,29 @@
+package com.phinity.matching.engine.replication;
+
+import com.phinity.matching.engine.OrderEvent;
+
+/**
+ * Follower end of a replication transport, read by the follower's thread only.
+ */
+public interface ReplicationSource extends AutoCloseable {
+    /** Returned by {@link #poll(OrderEvent, long)} when no command arrived within the timeout. */
+    long NONE = 0;
+    /** Returned by {@link #poll(OrderEvent, long)} once the primary closed the stream or was lost. */
+    long CLOSED = -1;
+
+    /**
+     * Reads the next command into the event.
+     *
+     * @param timeoutMillis how long to wait for a command, 0 to only take one that already arrived
+     * @return the command's sequence, {@link #NONE} or {@link #CLOSED}
+     */
+    long poll(OrderEvent event, long timeoutMillis);
+
+    /**
+     * Tells the primary that every command up to the sequence has been applied.
+     */
+    void acknowledge(long sequence);
+
+    @Override
+    void close();
+}
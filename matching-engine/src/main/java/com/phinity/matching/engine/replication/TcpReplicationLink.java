@@ -0,0 +1,171 @@
+package com.phinity.matching.engine.replication;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.matching.engine.OrderEvent;
+import com.phinity.matching.engine.journal.CommandCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primary end of replication over TCP. Commands are framed as their length, sequence and
+ * {@link CommandCodec} body and written out when the engine's replication stage flushes at the end of a
+ * batch; a reader thread collects the follower's acknowledgements, each the sequence it has applied up to.
+ * The stream opens with the primary's {@link OrderType} constants, so order types are sent as one byte.
+ */
+@Slf4j
+public class TcpReplicationLink implements ReplicationLink {
+    static final int MAGIC = 0x50485250; // "PHRP"
+    static final short VERSION = 1;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int FRAME_HEADER = 4 + 8;
+
+    private final InetSocketAddress follower;
+    private final SocketChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final Object ackLock = new Object();
+    private final Thread ackReader;
+    private volatile long sentSequence;
+    private volatile long ackedSequence;
+    private volatile boolean closed;
+
+    /**
+     * Connects to a follower listening with {@link TcpReplicationSource}.
+     */
+    public TcpReplicationLink(InetSocketAddress follower) {
+        this.follower = follower;
+        try {
+            this.channel = SocketChannel.open(follower);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot connect to follower " + follower, e);
+        }
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        OrderType[] orderTypes = OrderType.values();
+        buffer.put((byte) orderTypes.length);
+        for (OrderType orderType : orderTypes) {
+            CommandCodec.putString(buffer, orderType.name());
+        }
+        flush();
+        this.ackReader = new Thread(this::readAcks, "Replication-ack-" + follower);
+        ackReader.setDaemon(true);
+        ackReader.start();
+    }
+
+    @Override
+    public void send(long sequence, OrderEvent event) {
+        int size = FRAME_HEADER + CommandCodec.maxSize(event);
+        if (size > buffer.remaining()) {
+            flush();
+        }
+        ByteBuffer target = size <= buffer.capacity() ? buffer : ByteBuffer.allocate(size);
+        int start = target.position();
+        target.position(start + 4);
+        target.putLong(sequence);
+        CommandCodec.write(event, target);
+        target.putInt(start, target.position() - start - 4);
+        if (target != buffer) {
+            write(target.flip());
+        }
+        sentSequence = sequence;
+    }
+
+    @Override
+    public void flush() {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer data) {
+        if (closed) {
+            throw new UncheckedIOException(new IOException("Link to follower " + follower + " is closed"));
+        }
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException("Cannot send to follower " + follower, e);
+        }
+    }
+
+    private void readAcks() {
+        ByteBuffer ack = ByteBuffer.allocate(8);
+        try {
+            while (!closed) {
+                ack.clear();
+                while (ack.hasRemaining()) {
+                    if (channel.read(ack) < 0) {
+                        throw new EOFException("Follower closed the connection");
+                    }
+                }
+                synchronized (ackLock) {
+                    ackedSequence = ack.getLong(0);
+                    ackLock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.warn("Lost follower {}: {}", follower, e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public boolean awaitAck(long sequence, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (ackLock) {
+            while (ackedSequence < sequence) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(ackLock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long getSentSequence() {
+        return sentSequence;
+    }
+
+    @Override
+    public long getAckedSequence() {
+        return ackedSequence;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (ackLock) {
+            ackLock.notifyAll();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Failed to close link to follower {}", follower, e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.phinity.matching.engine.replication;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.matching.engine.OrderEvent;
+import com.phinity.matching.engine.journal.CommandCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Follower end of replication over TCP, see {@link TcpReplicationLink}. Listens from construction and
+ * accepts a single primary; once that connection is lost the source reports {@link #CLOSED}.
+ */
+@Slf4j
+public class TcpReplicationSource implements ReplicationSource {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final ServerSocket server;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private OrderType[] orderTypes;
+    private byte[] frame = new byte[1024];
+    private boolean lost;
+
+    /**
+     * @param address address to listen on, port 0 for any free port
+     */
+    public TcpReplicationSource(InetSocketAddress address) {
+        try {
+            this.server = new ServerSocket();
+            server.bind(address);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot listen for a primary on " + address, e);
+        }
+    }
+
+    public int getLocalPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public long poll(OrderEvent event, long timeoutMillis) {
+        if (lost) {
+            return CLOSED;
+        }
+        try {
+            if (socket == null && !accept(timeoutMillis)) {
+                return NONE;
+            }
+            if (timeoutMillis == 0 && in.available() < 4) {
+                return NONE;
+            }
+            socket.setSoTimeout((int) Math.max(1, timeoutMillis));
+            int length;
+            // A timeout while waiting for the next frame leaves the stream where it was
+            in.mark(4);
+            try {
+                length = in.readInt();
+            } catch (SocketTimeoutException e) {
+                in.reset();
+                return NONE;
+            }
+            if (length < 8) {
+                throw new IOException("Malformed frame of " + length + " bytes");
+            }
+            if (frame.length < length) {
+                frame = new byte[Math.max(length, 2 * frame.length)];
+            }
+            // The primary writes whole frames, the rest of this one is on its way
+            socket.setSoTimeout(0);
+            in.readFully(frame, 0, length);
+            ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+            long sequence = buffer.getLong();
+            CommandCodec.read(buffer, orderTypes, event);
+            return sequence;
+        } catch (IOException e) {
+            log.warn("Lost primary on port {}: {}", getLocalPort(), e.getMessage());
+            lost = true;
+            closeSocket();
+            return CLOSED;
+        }
+    }
+
+    private boolean accept(long timeoutMillis) throws IOException {
+        if (timeoutMillis == 0) {
+            return false;
+        }
+        server.setSoTimeout((int) timeoutMillis);
+        Socket accepted;
+        try {
+            accepted = server.accept();
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        accepted.setTcpNoDelay(true);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(accepted.getInputStream(), BUFFER_BYTES));
+        if (input.readInt() != TcpReplicationLink.MAGIC || input.readShort() != TcpReplicationLink.VERSION) {
+            accepted.close();
+            throw new IOException("Not a replication stream of a supported version from " + accepted.getRemoteSocketAddress());
+        }
+        OrderType[] types = new OrderType[input.readByte()];
+        for (int i = 0; i < types.length; i++) {
+            byte[] name = new byte[input.readShort()];
+            input.readFully(name);
+            types[i] = OrderType.valueOf(new String(name, StandardCharsets.UTF_8));
+        }
+        socket = accepted;
+        in = input;
+        out = new DataOutputStream(new BufferedOutputStream(accepted.getOutputStream(), 64));
+        orderTypes = types;
+        log.info("Primary {} connected on port {}", accepted.getRemoteSocketAddress(), getLocalPort());
+        return true;
+    }
+
+    @Override
+    public void acknowledge(long sequence) {
+        if (lost || out == null) {
+            return;
+        }
+        try {
+            out.writeLong(sequence);
+            out.flush();
+        } catch (IOException e) {
+            log.warn("Lost primary on port {}: {}", getLocalPort(), e.getMessage());
+            lost = true;
+            closeSocket();
+        }
+    }
+
+    private void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Failed to close replication socket", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        lost = true;
+        closeSocket();
+        try {
+            server.close();
+        } catch (IOException e) {
+            log.debug("Failed to close replication listener", e);
+        }
+    }
+}
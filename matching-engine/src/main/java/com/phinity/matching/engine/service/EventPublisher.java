@@ -5,14 +5,27 @@ import com.phinity.common.dto.enums.Side;
 import com.phinity.common.dto.models.OrderBookUpdateEvent;
 import com.phinity.common.dto.models.TradeExecutionEvent;
 import com.phinity.kafka.producer.KafkaMessageProducer;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.core.BookUpdate;
+import com.phinity.matching.engine.core.Candle;
 import com.phinity.matching.engine.core.OrderBook;
 import com.phinity.matching.engine.core.Trade;
+import com.phinity.matching.engine.core.TradeBuffer;
+import com.phinity.matching.engine.events.CandleClosedEvent;
+import com.phinity.matching.engine.events.OrderBookDeltaEvent;
+import com.phinity.matching.engine.events.OrderBookSnapshotEvent;
+import com.phinity.matching.engine.events.OrderRejectedEvent;
+import com.phinity.matching.engine.events.OrdersCancelledEvent;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class EventPublisher {
     private final KafkaMessageProducer kafkaProducer;
-    private static final int ORDER_BOOK_DEPTH = 50; // Standard depth for broadcast
+    public static final int ORDER_BOOK_DEPTH = 50; // Standard depth for broadcast
+    public static final String ORDER_REJECTED_TOPIC = "order-rejected";
+    public static final String CANDLE_CLOSED_TOPIC = "candle-closed";
+    public static final String ORDERS_CANCELLED_TOPIC = "orders-cancelled";
 
     public EventPublisher(KafkaMessageProducer kafkaProducer) {
         this.kafkaProducer = kafkaProducer;
@@ -43,6 +56,51 @@ public class EventPublisher {
         kafkaProducer.send(KafkaTopic.TRADE_EXECUTED, symbol, event);
     }
 
+    /**
+     * Publishes fills captured in raw ticks and lots, converting them with the pair's scale.
+     */
+    public void publishTradeExecution(String symbol, PairScale scale, TradeBuffer fills) {
+        if (fills.isEmpty()) return;
+
+        boolean takerBuys = fills.isTakerBuy();
+        List<TradeExecutionEvent.TradeInfo> tradeInfos = new ArrayList<>(fills.size());
+        for (int i = 0; i < fills.size(); i++) {
+            TradeExecutionEvent.TradeInfo tradeInfo = new TradeExecutionEvent.TradeInfo(
+                    String.valueOf(fills.tradeId(i)),
+                    takerBuys ? fills.getTakerOrderId() : fills.makerOrderId(i),
+                    takerBuys ? fills.makerOrderId(i) : fills.getTakerOrderId(),
+                    scale.toPrice(fills.price(i)),
+                    scale.toQuantity(fills.quantity(i))
+            );
+            tradeInfo.setMakerOrderId(fills.makerOrderId(i));
+            tradeInfo.setTakerOrderId(fills.getTakerOrderId());
+            tradeInfo.setBuyerUserId(takerBuys ? fills.getTakerUserId() : fills.makerUserId(i));
+            tradeInfo.setSellerUserId(takerBuys ? fills.makerUserId(i) : fills.getTakerUserId());
+            tradeInfo.setBuyerMaker(!takerBuys);
+            tradeInfos.add(tradeInfo);
+        }
+
+        TradeExecutionEvent event = new TradeExecutionEvent(symbol, tradeInfos);
+        kafkaProducer.send(KafkaTopic.TRADE_EXECUTED, symbol, event);
+    }
+
+    public void publishCandles(String symbol, List<Candle> candles) {
+        for (Candle candle : candles) {
+            CandleClosedEvent event = new CandleClosedEvent(symbol, candle.getInterval().getLabel(), candle.getOpenTimeMillis(),
+                    candle.getOpen(), candle.getHigh(), candle.getLow(), candle.getClose(), candle.getVolume(),
+                    candle.getTradeCount());
+            kafkaProducer.send(CANDLE_CLOSED_TOPIC, symbol, event);
+        }
+    }
+
+    public void publishOrderRejected(OrderRejectedEvent event) {
+        kafkaProducer.send(ORDER_REJECTED_TOPIC, event.getSymbol(), event);
+    }
+
+    public void publishOrdersCancelled(OrdersCancelledEvent event) {
+        kafkaProducer.send(ORDERS_CANCELLED_TOPIC, event.getSymbol(), event);
+    }
+
     public void publishOrderBookUpdate(String symbol, OrderBook orderBook) {
         // Get aggregated, depth-limited view of the order book
         List<OrderBookUpdateEvent.OrderLevel> bids = orderBook.getAggregatedDepth(Side.BUY, ORDER_BOOK_DEPTH);
@@ -54,4 +112,47 @@ public class EventPublisher {
         // Send the much smaller event to Kafka
         kafkaProducer.send(KafkaTopic.ORDERBOOK_UPDATE, symbol, event);
     }
+
+    /**
+     * Publishes a book update captured in raw ticks and lots, converting it with the pair's scale.
+     */
+    public void publishBookUpdate(String symbol, PairScale scale, BookUpdate update) {
+        BookUpdate.Levels levels = update.getLevels();
+        if (update.getType() == BookUpdate.Type.DEPTH) {
+            List<OrderBookUpdateEvent.OrderLevel> bids = new ArrayList<>();
+            List<OrderBookUpdateEvent.OrderLevel> asks = new ArrayList<>();
+            splitLevels(levels, scale, bids, asks);
+            kafkaProducer.send(KafkaTopic.ORDERBOOK_UPDATE, symbol, new OrderBookUpdateEvent(symbol, bids, asks));
+        } else if (update.getType() == BookUpdate.Type.DELTA) {
+            List<OrderBookDeltaEvent.LevelChange> changes = new ArrayList<>(levels.size());
+            for (int i = 0; i < levels.size(); i++) {
+                changes.add(new OrderBookDeltaEvent.LevelChange(levels.side(i), scale.toPrice(levels.price(i)),
+                        scale.toQuantity(levels.quantity(i)), levels.orderCount(i)));
+            }
+            publishOrderBookDelta(new OrderBookDeltaEvent(symbol, update.getSequence(), changes));
+        }
+        if (update.hasSnapshot()) {
+            List<OrderBookUpdateEvent.OrderLevel> bids = new ArrayList<>();
+            List<OrderBookUpdateEvent.OrderLevel> asks = new ArrayList<>();
+            splitLevels(update.getSnapshotLevels(), scale, bids, asks);
+            publishOrderBookSnapshot(new OrderBookSnapshotEvent(symbol, update.getSequence(), bids, asks));
+        }
+    }
+
+    private static void splitLevels(BookUpdate.Levels levels, PairScale scale,
+                                    List<OrderBookUpdateEvent.OrderLevel> bids, List<OrderBookUpdateEvent.OrderLevel> asks) {
+        for (int i = 0; i < levels.size(); i++) {
+            OrderBookUpdateEvent.OrderLevel level = new OrderBookUpdateEvent.OrderLevel(
+                    scale.toPrice(levels.price(i)), scale.toQuantity(levels.quantity(i)), levels.orderCount(i));
+            (levels.side(i) == Side.BUY ? bids : asks).add(level);
+        }
+    }
+
+    public void publishOrderBookDelta(OrderBookDeltaEvent event) {
+        kafkaProducer.send(KafkaTopic.ORDERBOOK_UPDATE, event.getSymbol(), event);
+    }
+
+    public void publishOrderBookSnapshot(OrderBookSnapshotEvent event) {
+        kafkaProducer.send(KafkaTopic.ORDERBOOK_UPDATE, event.getSymbol(), event);
+    }
 }
@@ -1,27 +1,110 @@
 package com.phinity.matching.engine.snapshot;
 
 import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.core.CandleStore;
+import com.phinity.matching.engine.core.TradeStatistics;
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 
+/**
+ * Resting orders of a book at one point in time, tagged with the book's command sequence at that point.
+ */
 public class OrderBookSnapshot {
     private final String symbol;
     private final LocalDateTime timestamp;
-    private final List<PendingOrders> bids;
-    private final List<PendingOrders> asks;
+    private List<PendingOrders> bids;
+    private List<PendingOrders> asks;
+    // Build the order lists on first access, from a copy taken when the snapshot was
+    private Supplier<List<PendingOrders>> bidSource;
+    private Supplier<List<PendingOrders>> askSource;
     private final long lastTradeId;
-    
+    private final long sequence;
+    private volatile List<String> recentOrderIds = Collections.emptyList();
+    private volatile long[] recentOrderIdTimes;
+    // Not encoded, only carried when a book moves within the process
+    private volatile TradeStatistics tradeStatistics;
+    private volatile CandleStore candles;
+
     public OrderBookSnapshot(String symbol, List<PendingOrders> bids, List<PendingOrders> asks, long lastTradeId) {
+        this(symbol, bids, asks, lastTradeId, 0);
+    }
+
+    public OrderBookSnapshot(String symbol, List<PendingOrders> bids, List<PendingOrders> asks, long lastTradeId, long sequence) {
         this.symbol = symbol;
         this.timestamp = LocalDateTime.now();
         this.bids = bids;
         this.asks = asks;
         this.lastTradeId = lastTradeId;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Snapshot whose order lists are built by the sources when first read, on the reading thread. The sources
+     * must only read state that no longer changes.
+     */
+    public OrderBookSnapshot(String symbol, Supplier<List<PendingOrders>> bidSource, Supplier<List<PendingOrders>> askSource,
+                             long lastTradeId, long sequence) {
+        this(symbol, (List<PendingOrders>) null, null, lastTradeId, sequence);
+        this.bidSource = bidSource;
+        this.askSource = askSource;
     }
-    
+
     public String getSymbol() { return symbol; }
     public LocalDateTime getTimestamp() { return timestamp; }
-    public List<PendingOrders> getBids() { return bids; }
-    public List<PendingOrders> getAsks() { return asks; }
+
+    public synchronized List<PendingOrders> getBids() {
+        if (bidSource != null) {
+            bids = bidSource.get();
+            bidSource = null;
+        }
+        return bids;
+    }
+
+    public synchronized List<PendingOrders> getAsks() {
+        if (askSource != null) {
+            asks = askSource.get();
+            askSource = null;
+        }
+        return asks;
+    }
+
     public long getLastTradeId() { return lastTradeId; }
-}
\ No newline at end of file
+
+    /**
+     * @return number of commands the book had applied when the snapshot was taken
+     */
+    public long getSequence() { return sequence; }
+
+    /**
+     * @return ids of the last orders the book took, oldest first, which the restored book keeps refusing
+     */
+    public List<String> getRecentOrderIds() { return recentOrderIds; }
+
+    public void setRecentOrderIds(List<String> recentOrderIds) { this.recentOrderIds = recentOrderIds; }
+
+    /**
+     * @return times in epoch millis the recent order ids were taken, in the same order, or null if the snapshot
+     * does not know them and the restored book starts their window over
+     */
+    public long[] getRecentOrderIdTimes() { return recentOrderIdTimes; }
+
+    public void setRecentOrderIdTimes(long[] recentOrderIdTimes) { this.recentOrderIdTimes = recentOrderIdTimes; }
+
+    public TradeStatistics getTradeStatistics() { return tradeStatistics; }
+
+    /**
+     * Attaches the ticker's trade statistics, which a book restored from the snapshot continues from. They
+     * are not part of the encoded snapshot, so books restored from the codec start them over.
+     */
+    public void setTradeStatistics(TradeStatistics tradeStatistics) { this.tradeStatistics = tradeStatistics; }
+
+    public CandleStore getCandles() { return candles; }
+
+    /**
+     * Attaches the book's candles, which a book restored from the snapshot continues from. Like the trade
+     * statistics they are not part of the encoded snapshot.
+     */
+    public void setCandles(CandleStore candles) { this.candles = candles; }
+}
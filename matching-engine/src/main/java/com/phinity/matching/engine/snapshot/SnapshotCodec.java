@@ -0,0 +1,219 @@
+package com.phinity.matching.engine.snapshot;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.PairScale;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary form of an {@link OrderBookSnapshot}. Prices and quantities are stored as variable-length ticks
+ * and lots of the pair's scale, which is written into the header, and enum values are only spelled out when they
+ * differ from the common LIMIT / GTC case, so a resting order typically takes its two ids plus a dozen bytes.
+ */
+public final class SnapshotCodec {
+    private static final int MAGIC = 0x50484F42; // "PHOB"
+    // Header, last trade id, book sequence, bids, asks, recent order ids and, if known, the times they were taken
+    private static final byte VERSION = 1;
+
+    private static final int SELL = 1;
+    private static final int HAS_USER = 1 << 1;
+    private static final int CUSTOM_ORDER_TYPE = 1 << 2;
+    private static final int CUSTOM_TIME_IN_FORCE = 1 << 3;
+
+    private SnapshotCodec() {
+    }
+
+    /**
+     * @param scale scale of the pair, every price and quantity of the snapshot has to be representable at it
+     */
+    public static byte[] encode(OrderBookSnapshot snapshot, PairScale scale) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + 32 * (snapshot.getBids().size() + snapshot.getAsks().size())
+                + 16 * snapshot.getRecentOrderIds().size());
+        writeInt(out, MAGIC);
+        out.write(VERSION);
+        writeString(out, snapshot.getSymbol());
+        out.write(scale.getPriceScale());
+        out.write(scale.getQuantityScale());
+        writeVarLong(out, snapshot.getLastTradeId());
+        writeVarLong(out, snapshot.getSequence());
+        writeOrders(out, snapshot.getBids(), scale);
+        writeOrders(out, snapshot.getAsks(), scale);
+        List<String> recentOrderIds = snapshot.getRecentOrderIds();
+        writeVarLong(out, recentOrderIds.size());
+        for (String orderId : recentOrderIds) {
+            writeString(out, orderId);
+        }
+        long[] times = snapshot.getRecentOrderIdTimes();
+        out.write(times != null && times.length == recentOrderIds.size() ? 1 : 0);
+        if (times != null && times.length == recentOrderIds.size()) {
+            for (long time : times) {
+                writeVarLong(out, time);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a snapshot from the buffer's position onwards, advancing it past the snapshot.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a snapshot in this format
+     */
+    public static OrderBookSnapshot decode(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not an order book snapshot");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version " + version);
+            }
+            String symbol = readString(buffer);
+            PairScale scale = new PairScale(buffer.get(), buffer.get());
+            long lastTradeId = readVarLong(buffer);
+            long sequence = readVarLong(buffer);
+            List<PendingOrders> bids = readOrders(buffer, symbol, scale);
+            List<PendingOrders> asks = readOrders(buffer, symbol, scale);
+            OrderBookSnapshot snapshot = new OrderBookSnapshot(symbol, bids, asks, lastTradeId, sequence);
+            int count = (int) readVarLong(buffer);
+            List<String> recentOrderIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                recentOrderIds.add(readString(buffer));
+            }
+            snapshot.setRecentOrderIds(recentOrderIds);
+            if (buffer.get() != 0) {
+                long[] times = new long[count];
+                for (int i = 0; i < count; i++) {
+                    times[i] = readVarLong(buffer);
+                }
+                snapshot.setRecentOrderIdTimes(times);
+            }
+            return snapshot;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated order book snapshot", e);
+        }
+    }
+
+    /**
+     * Reads only the scale the snapshot at the buffer's position was encoded at, leaving the buffer untouched.
+     */
+    public static PairScale decodeScale(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate();
+        try {
+            if (header.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not an order book snapshot");
+            }
+            byte version = header.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version " + version);
+            }
+            readString(header);
+            return new PairScale(header.get(), header.get());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated order book snapshot", e);
+        }
+    }
+
+    private static void writeOrders(ByteArrayOutputStream out, List<PendingOrders> orders, PairScale scale) {
+        writeVarLong(out, orders.size());
+        for (PendingOrders order : orders) {
+            OrderType orderType = order.getOrderType() != null ? order.getOrderType() : OrderType.LIMIT;
+            TimeInForce timeInForce = order.getTimeInForce() != null ? order.getTimeInForce() : TimeInForce.GTC;
+            int flags = (order.getSide() == Side.SELL ? SELL : 0)
+                    | (order.getUserId() != null ? HAS_USER : 0)
+                    | (orderType != OrderType.LIMIT ? CUSTOM_ORDER_TYPE : 0)
+                    | (timeInForce != TimeInForce.GTC ? CUSTOM_TIME_IN_FORCE : 0);
+            out.write(flags);
+            writeString(out, order.getOrderId());
+            if (order.getUserId() != null) {
+                writeString(out, order.getUserId());
+            }
+            // Names rather than ordinals, so the format survives reordered enum constants
+            if ((flags & CUSTOM_ORDER_TYPE) != 0) {
+                writeString(out, orderType.name());
+            }
+            if ((flags & CUSTOM_TIME_IN_FORCE) != 0) {
+                writeString(out, timeInForce.name());
+            }
+            writeVarLong(out, scale.toPriceTicks(order.getPrice()));
+            writeVarLong(out, scale.toQuantityLots(order.getQuantity()));
+            writeVarLong(out, scale.toQuantityLots(order.getRemainingQuantity()));
+        }
+    }
+
+    private static List<PendingOrders> readOrders(ByteBuffer buffer, String symbol, PairScale scale) {
+        int count = (int) readVarLong(buffer);
+        List<PendingOrders> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int flags = buffer.get();
+            String orderId = readString(buffer);
+            String userId = (flags & HAS_USER) != 0 ? readString(buffer) : null;
+            OrderType orderType = (flags & CUSTOM_ORDER_TYPE) != 0 ? OrderType.valueOf(readString(buffer)) : OrderType.LIMIT;
+            TimeInForce timeInForce = (flags & CUSTOM_TIME_IN_FORCE) != 0 ? TimeInForce.valueOf(readString(buffer)) : TimeInForce.GTC;
+            long price = readVarLong(buffer);
+            long quantity = readVarLong(buffer);
+            long remaining = readVarLong(buffer);
+
+            PendingOrders order = new PendingOrders(orderId, symbol, (flags & SELL) != 0 ? Side.SELL : Side.BUY,
+                    scale.toPrice(price), scale.toQuantity(quantity));
+            order.setOrderType(orderType);
+            order.setTimeInForce(timeInForce);
+            order.setUserId(userId);
+            if (remaining < quantity) {
+                order.reduceQuantity(scale.toQuantity(quantity - remaining));
+            }
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value in snapshot: " + value);
+        }
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable-length value in snapshot");
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = (int) readVarLong(buffer);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
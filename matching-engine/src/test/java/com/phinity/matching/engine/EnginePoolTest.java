@@ -0,0 +1,80 @@
+package com.phinity.matching.engine;
+
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.PairConfigurationManager;
+import com.phinity.matching.engine.metrics.MetricsCollector;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hibernates a pair between bursts of commands from several threads, so commands race with the hibernation of
+ * the book and its rehydration, and none of them may be applied to a book that is being dropped.
+ */
+class EnginePoolTest {
+    private static final String SYMBOL = "ETH-USDT";
+    private static final int THREADS = 4;
+    private static final int ORDERS = 600;
+
+    @Test
+    void commandsRacingWithHibernationAreNotLost() throws Exception {
+        PairConfigurationManager config = new PairConfigurationManager();
+        config.setEngineIdleTimeoutMillis(1);
+        EnginePool pool = new EnginePool("hibernation-test", THREADS, Set.of(), config);
+        long rehydrationsBefore = MetricsCollector.getInstance().getRehydrations();
+        ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier pause = new CyclicBarrier(THREADS);
+        try {
+            List<Future<Integer>> resting = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int client = t;
+                resting.add(clients.submit(() -> placeAndCancel(pool, pause, client)));
+            }
+            int expected = 0;
+            for (Future<Integer> count : resting) {
+                expected += count.get();
+            }
+
+            assertTrue(MetricsCollector.getInstance().getRehydrations() > rehydrationsBefore);
+            assertEquals(expected, pool.getEngine(SYMBOL).getOrderBook().getBids().size());
+        } finally {
+            clients.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of orders the client left resting
+     */
+    private static int placeAndCancel(EnginePool pool, CyclicBarrier pause, int client) throws Exception {
+        int resting = 0;
+        for (int i = 0; i < ORDERS; i++) {
+            String orderId = client + "-" + i;
+            BigDecimal price = BigDecimal.valueOf(1 + client * 10_000L + i);
+            pool.processOrder(new PendingOrders(orderId, SYMBOL, Side.BUY, price, BigDecimal.ONE)).join();
+            if (i % 3 == 0) {
+                assertTrue(pool.cancelOrder(SYMBOL, orderId).join());
+            } else {
+                resting++;
+            }
+            if (i % 20 == 0) {
+                // All clients pause together, long enough for the sweep to find the pair idle, and resume together
+                // while it may be hibernating the book
+                pause.await();
+                Thread.sleep(3);
+            }
+        }
+        return resting;
+    }
+}
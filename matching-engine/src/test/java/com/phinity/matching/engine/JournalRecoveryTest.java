@@ -0,0 +1,159 @@
+package com.phinity.matching.engine;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.config.BookFeed;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.EngineProfile;
+import com.phinity.matching.engine.config.FsyncPolicy;
+import com.phinity.matching.engine.config.PairConfigurationManager;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.core.LadderOrderBook;
+import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.journal.CheckpointStore;
+import com.phinity.matching.engine.journal.CommandJournal;
+import com.phinity.matching.engine.journal.EngineCheckpoint;
+import com.phinity.matching.engine.replay.StateHasher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stops a journaled engine after a random flow of commands, books joining and leaving, and checks the books a new
+ * engine recovers, from the whole journal or from a checkpoint and the journal after it, hash the same as the ones
+ * it stopped with.
+ */
+class JournalRecoveryTest {
+    private static final String NAME = "shard-0";
+    private static final PairScale SCALE = new PairScale(0, 0);
+    private static final int SEGMENT_BYTES = 16 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restartReplaysTheJournalIntoTheSameBooks() {
+        OptimizedDisruptorEngine engine = newEngine();
+        engine.addBook(newBook("BTC-USDT"));
+        engine.addBook(newBook("ETH-USDT"));
+        trade(engine, new Random(17), "a", 3_000);
+        // Books joining with resting orders and books leaving are journaled as well
+        OrderBook joining = newBook("SOL-USDT");
+        joining.matchOrder("resting", "u-0", Side.BUY, OrderType.LIMIT, TimeInForce.GTC, 99, 5);
+        engine.addBook(joining);
+        trade(engine, new Random(18), "b", 3_000);
+        engine.removeBook("ETH-USDT");
+        trade(engine, new Random(19), "c", 1_000);
+        Set<String> symbols = engine.getSymbols();
+        long hash = hash(engine);
+        engine.shutdown();
+
+        OptimizedDisruptorEngine recovered = newEngine();
+        try {
+            assertTrue(recovered.replayJournal(JournalRecoveryTest::newBook) > 0);
+            assertEquals(symbols, recovered.getSymbols());
+            assertEquals(hash, hash(recovered));
+        } finally {
+            recovered.shutdown();
+        }
+    }
+
+    @Test
+    void restartRestoresTheCheckpointAndReplaysTheTail() {
+        OptimizedDisruptorEngine engine = newEngine();
+        engine.addBook(newBook("BTC-USDT"));
+        engine.addBook(newBook("ETH-USDT"));
+        trade(engine, new Random(23), "a", 3_000);
+        EngineCheckpoint checkpoint = engine.checkpoint().join();
+        CheckpointStore checkpoints = new CheckpointStore(directory);
+        checkpoints.write(checkpoint);
+        trade(engine, new Random(24), "b", 3_000);
+        // The segments before the checkpoint are no longer needed
+        assertTrue(engine.truncateJournal(checkpoint.getSequence()) > 0);
+        long hash = hash(engine);
+        engine.shutdown();
+
+        assertThrows(IllegalStateException.class, () -> CommandJournal.read(directory, NAME, 0, event -> {
+        }));
+        OptimizedDisruptorEngine recovered = newEngine();
+        try {
+            EngineCheckpoint stored = checkpoints.read(NAME);
+            assertEquals(checkpoint.getSequence(), stored.getSequence());
+            long replayed = recovered.replayJournal(JournalRecoveryTest::newBook, stored);
+            assertTrue(replayed > 0);
+            assertEquals(replayed, CommandJournal.read(directory, NAME, checkpoint.getSequence(), event -> {
+            }));
+            assertEquals(hash, hash(recovered));
+        } finally {
+            recovered.shutdown();
+        }
+    }
+
+    private OptimizedDisruptorEngine newEngine() {
+        CommandJournal journal = new CommandJournal(directory, NAME, FsyncPolicy.NONE, 0, SEGMENT_BYTES);
+        return new OptimizedDisruptorEngine(NAME, EngineProfile.DEFAULT, ThreadAffinity.NONE, -1, journal);
+    }
+
+    private static OrderBook newBook(String symbol) {
+        OrderBook book = new LadderOrderBook(symbol, SCALE);
+        book.configurePublication(BookUpdateMode.CONFLATED, BookFeed.FULL_DEPTH,
+                PairConfigurationManager.DEFAULT_BOOK_SNAPSHOT_INTERVAL_MS);
+        return book;
+    }
+
+    /**
+     * Places, cancels and modifies orders of a few users around a common price on every hosted book, and waits
+     * for the results. Cancels and modifications may hit orders that already left the book.
+     */
+    private static void trade(OptimizedDisruptorEngine engine, Random random, String prefix, int commands) {
+        List<String> symbols = new ArrayList<>(new TreeSet<>(engine.getSymbols()));
+        Map<String, List<String>> placed = new HashMap<>();
+        List<CompletableFuture<?>> results = new ArrayList<>(commands);
+        for (int i = 0; i < commands; i++) {
+            String symbol = symbols.get(random.nextInt(symbols.size()));
+            List<String> orderIds = placed.computeIfAbsent(symbol, s -> new ArrayList<>());
+            String userId = "u-" + random.nextInt(4);
+            int command = random.nextInt(100);
+            CompletableFuture<?> result;
+            if (command < 65 || orderIds.isEmpty()) {
+                String orderId = prefix + "-" + i;
+                orderIds.add(orderId);
+                result = engine.processOrder(symbol, orderId, userId, random.nextBoolean() ? Side.BUY : Side.SELL,
+                        95 + random.nextInt(11), 1 + random.nextInt(10), OrderType.LIMIT,
+                        random.nextInt(10) == 0 ? TimeInForce.IOC : TimeInForce.GTC);
+            } else if (command < 80) {
+                result = engine.cancelOrder(symbol, orderIds.get(random.nextInt(orderIds.size())));
+            } else if (command < 95) {
+                long newPrice = random.nextBoolean() ? OrderBook.UNCHANGED : 95 + random.nextInt(11);
+                result = engine.modifyOrder(symbol, orderIds.get(random.nextInt(orderIds.size())), newPrice,
+                        1 + random.nextInt(10));
+            } else {
+                result = engine.cancelAllOrders(symbol, userId, random.nextBoolean() ? Side.BUY : Side.SELL);
+            }
+            results.add(result.handle((value, failure) -> null));
+        }
+        results.forEach(CompletableFuture::join);
+    }
+
+    private static long hash(OptimizedDisruptorEngine engine) {
+        StateHasher hasher = new StateHasher();
+        for (String symbol : new TreeSet<>(engine.getSymbols())) {
+            hasher.update(engine.snapshot(symbol).join());
+        }
+        return hasher.getValue();
+    }
+}
@@ -0,0 +1,155 @@
+package com.phinity.matching.engine;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.core.LadderOrderBook;
+import com.phinity.matching.engine.core.TradeBuffer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Counts the bytes the matching path allocates once it is warm. Orders alternate sides at one price, so half of
+ * them trade and the book stays small; their ids are built up front so the loops themselves allocate nothing.
+ * The commands are a millisecond apart, so the order id window holds the same number of ids throughout.
+ */
+class SteadyStateAllocationTest {
+    private static final String SYMBOL = "BTC-USDT";
+    private static final int WARMUP = 200_000;
+    private static final int MEASURED = 200_000;
+    // Under a byte per command; a single allocation per command would be at least 16
+    private static final long MAX_BYTES = MEASURED;
+    private static final int MAX_IN_FLIGHT = 1024;
+    private static final long ORDER_ID_WINDOW_MS = 10_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @BeforeAll
+    static void allocationCounting() {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    void matchingThroughTradeBufferDoesNotAllocate() {
+        LadderOrderBook book = new LadderOrderBook(SYMBOL, new PairScale(2, 4));
+        book.configureOrderIdWindow(ORDER_ID_WINDOW_MS, WARMUP + MEASURED);
+        TradeBuffer fills = new TradeBuffer();
+        String[] orderIds = orderIds(WARMUP + MEASURED);
+
+        long filled = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            filled += match(book, fills, orderIds[i], i);
+        }
+        long before = THREADS.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        for (int i = WARMUP; i < WARMUP + MEASURED; i++) {
+            filled += match(book, fills, orderIds[i], i);
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().threadId()) - before;
+
+        assertEquals((WARMUP + MEASURED) / 2, filled);
+        assertTrue(allocated < MAX_BYTES, allocated + " bytes allocated over " + MEASURED + " commands");
+    }
+
+    @Test
+    void disruptorIngressDoesNotAllocate() {
+        OptimizedDisruptorEngine engine = new OptimizedDisruptorEngine(SYMBOL, new PairScale(2, 4));
+        engine.getOrderBook(SYMBOL).configureOrderIdWindow(ORDER_ID_WINDOW_MS, WARMUP + MEASURED);
+        long[] commands = {0};
+        engine.setClock(() -> ++commands[0]);
+        try {
+            CountingListener listener = new CountingListener();
+            String[] orderIds = orderIds(WARMUP + MEASURED);
+
+            submit(engine, listener, orderIds, 0, WARMUP);
+            long[] threadIds = engineThreadIds(engine.getName());
+            long before = allocatedBytes(threadIds);
+            submit(engine, listener, orderIds, WARMUP, WARMUP + MEASURED);
+            long allocated = allocatedBytes(threadIds) - before;
+
+            assertEquals(0, listener.rejected);
+            assertEquals((WARMUP + MEASURED) / 2, listener.filled);
+            assertTrue(allocated < MAX_BYTES, allocated + " bytes allocated over " + MEASURED + " commands by the "
+                    + "submitting thread and " + (threadIds.length - 1) + " engine threads");
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    private static long match(LadderOrderBook book, TradeBuffer fills, String orderId, int i) {
+        fills.setTimestamp(i + 1);
+        book.matchOrder(orderId, "u", side(i), OrderType.LIMIT, TimeInForce.GTC, 100_00, 1, fills);
+        return fills.totalQuantity();
+    }
+
+    private static void submit(OptimizedDisruptorEngine engine, CountingListener listener, String[] orderIds,
+                               int from, int to) {
+        for (int i = from; i < to; i++) {
+            // Stays well inside the ring, so no order is refused for overload
+            while (i - listener.completed > MAX_IN_FLIGHT) {
+                Thread.yield();
+            }
+            engine.processOrder(SYMBOL, orderIds[i], "u", side(i), 100_00, 1, OrderType.LIMIT, TimeInForce.GTC, listener);
+        }
+        while (listener.completed < to) {
+            Thread.yield();
+        }
+    }
+
+    private static Side side(int i) {
+        return i % 2 == 0 ? Side.BUY : Side.SELL;
+    }
+
+    private static String[] orderIds(int count) {
+        String[] orderIds = new String[count];
+        for (int i = 0; i < count; i++) {
+            orderIds[i] = "order-" + i;
+        }
+        return orderIds;
+    }
+
+    /**
+     * @return the calling thread followed by the engine's stage threads
+     */
+    private static long[] engineThreadIds(String name) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread == Thread.currentThread() || thread.getName().startsWith("Disruptor-" + name + "-"))
+                .mapToLong(Thread::threadId)
+                .toArray();
+    }
+
+    private static long allocatedBytes(long[] threadIds) {
+        long total = 0;
+        for (long threadId : threadIds) {
+            total += THREADS.getThreadAllocatedBytes(threadId);
+        }
+        return total;
+    }
+
+    private static final class CountingListener implements OrderResultListener {
+        // Only written by the completion thread
+        volatile int completed;
+        volatile long filled;
+        volatile int rejected;
+
+        @Override
+        public void onOrderProcessed(String orderId, TradeBuffer fills, long remainingQuantity) {
+            filled += fills.totalQuantity();
+            completed++;
+        }
+
+        @Override
+        public void onOrderRejected(String orderId, Throwable cause) {
+            rejected++;
+            completed++;
+        }
+    }
+}
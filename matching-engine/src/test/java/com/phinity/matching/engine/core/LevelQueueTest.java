@@ -0,0 +1,119 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.config.PairScale;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cancels and modifies orders in the middle of a single price level. Orders are unlinked from the level's FIFO
+ * through their index entry, so an operation only touches the order's neighbours and never walks the queue.
+ */
+class LevelQueueTest {
+    private static final PairScale SCALE = new PairScale(0, 0);
+    private static final int DEPTH = 10_000;
+    private static final int OPERATIONS = 100;
+
+    @Test
+    void cancelDoesNotWalkTheLevelOnTreeBook() {
+        assertUnlinkedInPlace(new ConcurrentOrderBook("TREE", SCALE), LevelQueueTest::cancel);
+    }
+
+    @Test
+    void cancelDoesNotWalkTheLevelOnLadderBook() {
+        assertUnlinkedInPlace(new LadderOrderBook("LADDER", SCALE), LevelQueueTest::cancel);
+    }
+
+    @Test
+    void modifyDoesNotWalkTheLevelOnTreeBook() {
+        assertUnlinkedInPlace(new ConcurrentOrderBook("TREE", SCALE), LevelQueueTest::reduce);
+        assertUnlinkedInPlace(new ConcurrentOrderBook("TREE", SCALE), LevelQueueTest::reprice);
+    }
+
+    @Test
+    void modifyDoesNotWalkTheLevelOnLadderBook() {
+        assertUnlinkedInPlace(new LadderOrderBook("LADDER", SCALE), LevelQueueTest::reduce);
+        assertUnlinkedInPlace(new LadderOrderBook("LADDER", SCALE), LevelQueueTest::reprice);
+    }
+
+    private interface Operation {
+        void apply(AbstractOrderBook book, String orderId);
+    }
+
+    private static void cancel(AbstractOrderBook book, String orderId) {
+        assertTrue(book.cancelOrder(orderId));
+    }
+
+    /**
+     * Reduces the quantity in place, keeping the order's place in the queue.
+     */
+    private static void reduce(AbstractOrderBook book, String orderId) {
+        assertNotNull(book.modifyOrder(orderId, BigDecimal.valueOf(100), BigDecimal.ONE));
+        assertEquals(1, book.restingOrder(orderId).remaining);
+    }
+
+    /**
+     * Moves the order to another price, taking it out of the middle of its queue.
+     */
+    private static void reprice(AbstractOrderBook book, String orderId) {
+        assertNotNull(book.modifyOrder(orderId, BigDecimal.valueOf(101), BigDecimal.ONE));
+        assertEquals(101, book.restingOrder(orderId).level.price);
+    }
+
+    private static void assertUnlinkedInPlace(AbstractOrderBook book, Operation operation) {
+        for (int i = 0; i < DEPTH; i++) {
+            book.matchOrder("o" + i, "u", Side.SELL, OrderType.LIMIT, TimeInForce.GTC, 100, 2);
+        }
+        PriceLevel level = book.restingOrder("o0").level;
+        assertEquals(DEPTH, level.orderCount);
+
+        // Cut the middle of the queue off both of its ends: an operation that looked for the order by walking
+        // the level would not reach it, and one that relinked anything beyond its neighbours would show below
+        BookOrder second = level.head.next;
+        BookOrder secondToLast = level.tail.prev;
+        level.head.next = null;
+        level.tail.prev = null;
+        for (int i = 0; i < OPERATIONS; i++) {
+            operation.apply(book, "o" + (DEPTH / 2 + (i % 2 == 0 ? i / 2 : -1 - i / 2)));
+        }
+        level.head.next = second;
+        level.tail.prev = secondToLast;
+
+        assertQueueIntact(book, level);
+    }
+
+    /**
+     * Walks the level and checks it holds exactly the orders the index places at it, in arrival order, with
+     * consistent links and totals.
+     */
+    private static void assertQueueIntact(AbstractOrderBook book, PriceLevel level) {
+        BookOrder expectedPrev = null;
+        BookOrder current = level.head;
+        long quantity = 0;
+        int count = 0;
+        for (int i = 0; i < DEPTH; i++) {
+            BookOrder order = book.restingOrder("o" + i);
+            if (order == null || order.level != level) {
+                continue;
+            }
+            assertSame(order, current, "o" + i + " is not at its place in the queue");
+            assertSame(expectedPrev, current.prev);
+            quantity += current.remaining;
+            count++;
+            expectedPrev = current;
+            current = current.next;
+        }
+        assertSame(null, current, "The queue holds orders the index does not place at the level");
+        assertSame(expectedPrev, level.tail);
+        assertEquals(count, level.orderCount);
+        assertEquals(quantity, level.totalQuantity);
+    }
+}
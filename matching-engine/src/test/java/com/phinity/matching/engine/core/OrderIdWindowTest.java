@@ -0,0 +1,73 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import com.phinity.matching.engine.snapshot.SnapshotCodec;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Takes filled orders at given command times, so only the window decides whether an id delivered again is
+ * refused: within the window it is, after the window it is a new order.
+ */
+class OrderIdWindowTest {
+    private static final PairScale SCALE = new PairScale(0, 0);
+    private static final long WINDOW_MS = 60_000;
+
+    @Test
+    void idIsRefusedWithinTheWindowAndTakenAfterIt() {
+        OrderBook book = newBook(1_000);
+        take(book, "a", 1_000);
+
+        assertThrows(IllegalArgumentException.class, () -> take(book, "a", 1_000 + WINDOW_MS));
+        assertDoesNotThrow(() -> take(book, "a", 1_001 + WINDOW_MS));
+    }
+
+    @Test
+    void burstAboveTheOldCountStaysRefusedForTheWindow() {
+        OrderBook book = newBook(100_000);
+        for (int i = 0; i < 50_000; i++) {
+            take(book, "o" + i, 1_000 + i / 10);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> take(book, "o0", 1_000 + WINDOW_MS));
+    }
+
+    @Test
+    void restoredBookKeepsTheTimesOfTheIds() {
+        OrderBook book = newBook(1_000);
+        take(book, "a", 1_000);
+        take(book, "b", 30_000);
+
+        byte[] encoded = SnapshotCodec.encode(book.snapshot(), SCALE);
+        OrderBookSnapshot decoded = SnapshotCodec.decode(ByteBuffer.wrap(encoded));
+        OrderBook restored = newBook(1_000);
+        restored.restore(decoded);
+
+        assertThrows(IllegalArgumentException.class, () -> take(restored, "b", 1_001 + WINDOW_MS));
+        assertDoesNotThrow(() -> take(restored, "a", 1_001 + WINDOW_MS));
+    }
+
+    private static OrderBook newBook(int maxOrderIds) {
+        OrderBook book = new LadderOrderBook("S", SCALE);
+        book.configureOrderIdWindow(WINDOW_MS, maxOrderIds);
+        return book;
+    }
+
+    /**
+     * Takes an order that rests and cancels it, so only the window remembers its id.
+     */
+    private static void take(OrderBook book, String orderId, long timeMillis) {
+        TradeBuffer fills = new TradeBuffer();
+        fills.setTimestamp(timeMillis);
+        book.matchOrder(orderId, "u", Side.BUY, OrderType.LIMIT, TimeInForce.GTC, 100, 1, fills);
+        book.cancelOrder(orderId);
+    }
+}
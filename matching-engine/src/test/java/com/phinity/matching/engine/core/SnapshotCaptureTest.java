@@ -0,0 +1,105 @@
+package com.phinity.matching.engine.core;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.common.dto.models.PendingOrders;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fills, cancels, reduces and reprices orders between the steps of a capture, which must still give the book as
+ * it was when the capture began: the same as a snapshot of a second book that saw only the commands before it.
+ */
+class SnapshotCaptureTest {
+    private static final PairScale SCALE = new PairScale(0, 0);
+    private static final int ORDERS = 3 * SnapshotCapture.STEP_ORDERS;
+    private static final int ROUNDS = 20;
+
+    @Test
+    void captureIsPointInTimeOnTreeBook() {
+        assertPointInTime(symbol -> new ConcurrentOrderBook(symbol, SCALE));
+    }
+
+    @Test
+    void captureIsPointInTimeOnLadderBook() {
+        assertPointInTime(symbol -> new LadderOrderBook(symbol, SCALE));
+    }
+
+    private static void assertPointInTime(Function<String, OrderBook> newBook) {
+        for (int round = 0; round < ROUNDS; round++) {
+            Random random = new Random(round);
+            OrderBook book = newBook.apply("S");
+            OrderBook reference = newBook.apply("S");
+            int ids = 0;
+            for (int i = 0; i < ORDERS; i++, ids++) {
+                Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+                long price = side == Side.BUY ? 900 + random.nextInt(100) : 1001 + random.nextInt(100);
+                long quantity = 1 + random.nextInt(9);
+                book.matchOrder("o" + ids, "u" + (ids % 4), side, OrderType.LIMIT, TimeInForce.GTC, price, quantity);
+                reference.matchOrder("o" + ids, "u" + (ids % 4), side, OrderType.LIMIT, TimeInForce.GTC, price, quantity);
+            }
+
+            SnapshotCapture capture = book.beginSnapshot();
+            OrderBookSnapshot expected = reference.snapshot();
+            int steps = 0;
+            while (!capture.step()) {
+                for (int i = 0; i < 20; i++, ids++) {
+                    change(book, random, ids);
+                }
+                steps++;
+            }
+
+            OrderBookSnapshot captured = capture.getSnapshot();
+            assertTrue(steps > 1, "the capture should have taken several steps");
+            assertEquals(expected.getSequence(), captured.getSequence());
+            assertEquals(describe(expected.getBids()), describe(captured.getBids()));
+            assertEquals(describe(expected.getAsks()), describe(captured.getAsks()));
+        }
+    }
+
+    private static void change(OrderBook book, Random random, int ids) {
+        String target = "o" + random.nextInt(ids);
+        switch (random.nextInt(5)) {
+            case 0:
+                // Crosses the spread, filling resting orders
+                Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+                book.matchOrder("o" + ids, "u", side, OrderType.LIMIT, TimeInForce.GTC, 950 + random.nextInt(100),
+                        1 + random.nextInt(20));
+                break;
+            case 1:
+                book.cancelOrder(target);
+                break;
+            case 2:
+                book.modifyOrder(target, null, BigDecimal.ONE);
+                break;
+            case 3:
+                book.modifyOrder(target, BigDecimal.valueOf(900 + random.nextInt(200)), null);
+                break;
+            default:
+                if (random.nextInt(100) == 0) {
+                    book.cancelAllOrders("u" + random.nextInt(4));
+                }
+                break;
+        }
+    }
+
+    private static String describe(List<PendingOrders> orders) {
+        StringBuilder description = new StringBuilder();
+        for (PendingOrders order : orders) {
+            description.append(order.getOrderId()).append(' ').append(order.getUserId()).append(' ')
+                    .append(order.getPrice()).append(' ').append(order.getQuantity()).append(' ')
+                    .append(order.getRemainingQuantity()).append('\n');
+        }
+        return description.toString();
+    }
+}
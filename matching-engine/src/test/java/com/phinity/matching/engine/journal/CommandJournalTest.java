@@ -0,0 +1,220 @@
+package com.phinity.matching.engine.journal;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.CommandType;
+import com.phinity.matching.engine.OrderEvent;
+import com.phinity.matching.engine.config.FsyncPolicy;
+import com.phinity.matching.engine.core.OrderBook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes commands to a journal and reads them back: every journaled command type, records spread over rolled
+ * segments, and a journal whose last record was torn by a crash.
+ */
+class CommandJournalTest {
+    private static final String NAME = "shard-0";
+    private static final String SYMBOL = "BTC-USDT";
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void everyJournaledCommandRoundTrips() {
+        List<OrderEvent> commands = new ArrayList<>();
+        commands.add(newOrder("o-1", "u-1", Side.BUY, OrderType.LIMIT, TimeInForce.GTC, 100, 5));
+        commands.add(newOrder("o-2", null, Side.SELL, OrderType.MARKET, TimeInForce.IOC, 0, 7));
+        // Strings are written as UTF-8 without allocating, so ids outside ASCII have to come back whole
+        commands.add(newOrder("\u00e9-\u20ac-\ud83d\ude00", "\u00fc", Side.SELL, null, null, Long.MAX_VALUE, 1));
+        commands.add(cancel("o-1"));
+        commands.add(command(event -> event.setModify("o-2", SYMBOL, 101, OrderBook.UNCHANGED, null)));
+        commands.add(command(event -> event.setModify("o-2", SYMBOL, OrderBook.UNCHANGED, 3, null)));
+        commands.add(command(event -> event.setMassCancel("u-1", Side.SELL, SYMBOL, null)));
+        commands.add(command(event -> event.setMassCancel(null, null, SYMBOL, null)));
+        commands.add(command(event -> event.setRestoreBook(SYMBOL, new byte[]{1, 2, 3, 4})));
+        commands.add(command(event -> event.setRemoveBook(SYMBOL, null)));
+
+        try (CommandJournal journal = open()) {
+            commands.forEach(journal::append);
+            // Commands that only read the books take no sequence
+            journal.append(command(event -> event.setSnapshot(SYMBOL, null)));
+            journal.endOfBatch();
+            assertEquals(commands.size(), journal.getLastSequence());
+        }
+
+        List<OrderEvent> replayed = readAll(0);
+        assertEquals(commands.size(), replayed.size());
+        for (int i = 0; i < commands.size(); i++) {
+            assertSameCommand(commands.get(i), replayed.get(i));
+        }
+    }
+
+    @Test
+    void replaySpansRolledSegments() throws IOException {
+        int count = 1_000;
+        try (CommandJournal journal = open()) {
+            for (int i = 0; i < count; i++) {
+                journal.append(newOrder("o-" + i, "u", Side.BUY, OrderType.LIMIT, TimeInForce.GTC, 100 + i, 1));
+            }
+            journal.endOfBatch();
+        }
+        assertTrue(segmentFiles().size() > 1);
+
+        List<OrderEvent> replayed = readAll(0);
+        assertEquals(count, replayed.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("o-" + i, replayed.get(i).getOrderId());
+        }
+        List<OrderEvent> tail = readAll(count / 2);
+        assertEquals(count / 2, tail.size());
+        assertEquals("o-" + count / 2, tail.get(0).getOrderId());
+
+        // Reopening continues after the last record, in the last segment
+        try (CommandJournal journal = open()) {
+            assertEquals(count, journal.getLastSequence());
+            journal.append(cancel("o-0"));
+        }
+        List<OrderEvent> continued = readAll(count);
+        assertEquals(1, continued.size());
+        assertEquals(CommandType.CANCEL, continued.get(0).getType());
+    }
+
+    @Test
+    void replayStopsAtTornRecord() throws IOException {
+        try (CommandJournal journal = open()) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(cancel("o-" + i));
+            }
+        }
+        // The last byte of data is the end of the last order id: corrupting it leaves a record whose checksum no
+        // longer matches, as a write torn by a crash would
+        Path segment = segmentFiles().get(0);
+        try (FileChannel file = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate((int) file.size());
+            file.read(bytes, 0);
+            int last = bytes.capacity() - 1;
+            while (bytes.get(last) == 0) {
+                last--;
+            }
+            file.write(ByteBuffer.wrap(new byte[]{(byte) (bytes.get(last) ^ 0x7F)}), last);
+        }
+        assertEquals(9, readAll(0).size());
+
+        // The writer discards the torn record and continues at its place
+        try (CommandJournal journal = open()) {
+            assertEquals(9, journal.getLastSequence());
+            journal.append(cancel("after-restart"));
+        }
+        List<OrderEvent> replayed = readAll(0);
+        assertEquals(10, replayed.size());
+        assertEquals("after-restart", replayed.get(9).getOrderId());
+    }
+
+    @Test
+    void replayBeyondTruncationFails() {
+        try (CommandJournal journal = open()) {
+            for (int i = 0; i < 1_000; i++) {
+                journal.append(cancel("o-" + i));
+            }
+            assertTrue(journal.truncate(500) > 0);
+        }
+        assertThrows(IllegalStateException.class, () -> readAll(0));
+        assertEquals(500, readAll(500).size());
+    }
+
+    private CommandJournal open() {
+        return new CommandJournal(directory, NAME, FsyncPolicy.NONE, 0, SEGMENT_BYTES);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    /**
+     * @return copies of the records after the sequence, since replay reuses its event
+     */
+    private List<OrderEvent> readAll(long afterSequence) {
+        List<OrderEvent> events = new ArrayList<>();
+        CommandJournal.read(directory, NAME, afterSequence, event -> {
+            ByteBuffer buffer = ByteBuffer.allocate(CommandCodec.maxSize(event));
+            CommandCodec.write(event, buffer);
+            OrderEvent copy = new OrderEvent();
+            CommandCodec.read(buffer.flip(), OrderType.values(), copy);
+            events.add(copy);
+        });
+        return events;
+    }
+
+    private static OrderEvent newOrder(String orderId, String userId, Side side, OrderType orderType,
+                                       TimeInForce timeInForce, long price, long quantity) {
+        return command(event -> {
+            event.setNew(orderId, userId, SYMBOL, side, price, quantity, orderType, timeInForce, null, null);
+            event.setTimestamp(1_700_000_000_000L + quantity);
+        });
+    }
+
+    private static OrderEvent cancel(String orderId) {
+        return command(event -> event.setCancel(orderId, SYMBOL, null));
+    }
+
+    private static OrderEvent command(Consumer<OrderEvent> setter) {
+        OrderEvent event = new OrderEvent();
+        setter.accept(event);
+        return event;
+    }
+
+    private static void assertSameCommand(OrderEvent expected, OrderEvent actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSymbol(), actual.getSymbol());
+        switch (expected.getType()) {
+            case NEW:
+                assertEquals(expected.getOrderId(), actual.getOrderId());
+                assertEquals(expected.getUserId(), actual.getUserId());
+                assertEquals(expected.getSide(), actual.getSide());
+                assertEquals(expected.getOrderType(), actual.getOrderType());
+                assertEquals(expected.getTimeInForce(), actual.getTimeInForce());
+                assertEquals(expected.getPrice(), actual.getPrice());
+                assertEquals(expected.getQuantity(), actual.getQuantity());
+                assertEquals(expected.getTimestamp(), actual.getTimestamp());
+                break;
+            case CANCEL:
+                assertEquals(expected.getOrderId(), actual.getOrderId());
+                break;
+            case MODIFY:
+                assertEquals(expected.getOrderId(), actual.getOrderId());
+                assertEquals(expected.getNewPrice(), actual.getNewPrice());
+                assertEquals(expected.getNewQuantity(), actual.getNewQuantity());
+                break;
+            case MASS_CANCEL:
+                assertEquals(expected.getUserId(), actual.getUserId());
+                assertEquals(expected.getSide(), actual.getSide());
+                break;
+            case RESTORE_BOOK:
+                assertArrayEquals(expected.getPayload(), actual.getPayload());
+                break;
+            default:
+                break;
+        }
+    }
+}
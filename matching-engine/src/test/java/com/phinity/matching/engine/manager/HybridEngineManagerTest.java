@@ -0,0 +1,162 @@
+package com.phinity.matching.engine.manager;
+
+import com.lmax.disruptor.dsl.ProducerType;
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.config.EngineProfile;
+import com.phinity.matching.engine.config.WaitStrategyType;
+import com.phinity.matching.engine.core.Candle;
+import com.phinity.matching.engine.core.CandleInterval;
+import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.snapshot.OrderBookSnapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Places orders through the manager on a pair of the standard pools and on a high-volume pair, so the owner and
+ * time in force have to survive the routing to either engine, and a pair that goes quiet still closes its bars.
+ */
+class HybridEngineManagerTest {
+    private static final String STANDARD = "ETH-USDT";
+    private static final String HIGH_VOLUME = "BTC-USDT";
+
+    private HybridEngineManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = new HybridEngineManager();
+        manager.configurePairScale(HIGH_VOLUME, 2, 4);
+        manager.configureHighVolumePair(HIGH_VOLUME, true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    void massCancelFindsTheUsersOrdersOnStandardPair() {
+        assertMassCancel(STANDARD);
+    }
+
+    @Test
+    void massCancelFindsTheUsersOrdersOnHighVolumePair() {
+        assertMassCancel(HIGH_VOLUME);
+    }
+
+    @Test
+    void immediateOrCancelDoesNotRestOnStandardPair() {
+        assertNothingRests(STANDARD);
+    }
+
+    @Test
+    void immediateOrCancelDoesNotRestOnHighVolumePair() {
+        assertNothingRests(HIGH_VOLUME);
+    }
+
+    @Test
+    void quietStandardPairClosesItsBar() throws InterruptedException {
+        assertBarCloses(STANDARD);
+    }
+
+    @Test
+    void quietHighVolumePairClosesItsBar() throws InterruptedException {
+        assertBarCloses(HIGH_VOLUME);
+    }
+
+    @Test
+    void pairWithItsOwnEngineIsPinnedToItsCpu() {
+        // The affinity has to be set before the first high-volume pair, which the shared manager already has
+        HybridEngineManager pinned = new HybridEngineManager();
+        try {
+            List<Integer> bound = new CopyOnWriteArrayList<>();
+            pinned.configureThreadAffinity(bound::add);
+            pinned.configurePairScale(HIGH_VOLUME, 2, 4);
+            pinned.configureEngineProfile(HIGH_VOLUME, EngineProfile.DEFAULT);
+            pinned.configurePairCpu(HIGH_VOLUME, 3);
+            pinned.configureHighVolumePair(HIGH_VOLUME, true);
+
+            pinned.processOrder("bid", "alice", HIGH_VOLUME, Side.BUY, new BigDecimal("100"), BigDecimal.ONE).join();
+
+            assertEquals(List.of(3), bound);
+        } finally {
+            pinned.shutdown();
+        }
+    }
+
+    @Test
+    void bookOfHighVolumePairIsReadThroughItsEngine() {
+        place(HIGH_VOLUME, "bid-1", "alice", Side.BUY, "100", TimeInForce.GTC);
+        place(HIGH_VOLUME, "bid-2", "bob", Side.BUY, "100", TimeInForce.GTC);
+        place(HIGH_VOLUME, "bid-3", "bob", Side.BUY, "99", TimeInForce.GTC);
+
+        OrderBook book = manager.getOrderBook(HIGH_VOLUME);
+
+        assertEquals(3, book.getBids().size());
+        assertEquals(2, book.getAggregatedDepth(Side.BUY, 10).size());
+        assertThrows(UnsupportedOperationException.class, () -> book.cancelOrder("bid-1"));
+    }
+
+    @Test
+    void pairCannotGetSingleProducerEngine() {
+        // The timer closing quiet bars is a producer of the pair's ring besides the callers
+        EngineProfile single = new EngineProfile(ProducerType.SINGLE, EngineProfile.DEFAULT_RING_SIZE, WaitStrategyType.PHASED);
+
+        assertThrows(IllegalArgumentException.class, () -> manager.configureEngineProfile(HIGH_VOLUME, single));
+    }
+
+    private void assertBarCloses(String symbol) throws InterruptedException {
+        place(symbol, "bid", "alice", Side.BUY, "100", TimeInForce.GTC);
+        place(symbol, "ask", "bob", Side.SELL, "100", TimeInForce.GTC);
+
+        // No further command, only the timers can close the one second bar of the trade
+        long deadline = System.currentTimeMillis() + 5_000;
+        List<Candle> bars = manager.getCandles(symbol, CandleInterval.ONE_SECOND, 1);
+        while (!bars.get(0).isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            bars = manager.getCandles(symbol, CandleInterval.ONE_SECOND, 1);
+        }
+        assertEquals(1, bars.get(0).getTradeCount());
+        assertTrue(bars.get(0).isClosed());
+    }
+
+    private void assertMassCancel(String symbol) {
+        for (int i = 0; i < 5; i++) {
+            place(symbol, "a" + i, "alice", Side.BUY, "100." + i, TimeInForce.GTC);
+            place(symbol, "b" + i, "bob", Side.BUY, "99." + i, TimeInForce.GTC);
+        }
+        place(symbol, "a-ask", "alice", Side.SELL, "110", null);
+
+        assertEquals(5, manager.cancelAllOrders(symbol, "alice", Side.BUY));
+        assertEquals(1, manager.cancelAllOrders(symbol, "alice"));
+        assertEquals(0, manager.cancelAllOrders(symbol, "alice"));
+
+        OrderBookSnapshot snapshot = manager.getSnapshot(symbol);
+        assertEquals(5, snapshot.getBids().size());
+        assertTrue(snapshot.getAsks().isEmpty());
+        assertEquals(5, manager.cancelAllOrders(symbol, "bob"));
+    }
+
+    private void assertNothingRests(String symbol) {
+        place(symbol, "ioc", "alice", Side.BUY, "100", TimeInForce.IOC);
+
+        OrderBookSnapshot snapshot = manager.getSnapshot(symbol);
+        assertTrue(snapshot.getBids().isEmpty());
+        assertEquals(0, manager.cancelAllOrders(symbol, "alice"));
+    }
+
+    private void place(String symbol, String orderId, String userId, Side side, String price, TimeInForce timeInForce) {
+        manager.processOrder(orderId, userId, symbol, side, new BigDecimal(price), BigDecimal.ONE, OrderType.LIMIT,
+                timeInForce).join();
+    }
+}
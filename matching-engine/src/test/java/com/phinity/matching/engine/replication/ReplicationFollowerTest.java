@@ -0,0 +1,133 @@
+package com.phinity.matching.engine.replication;
+
+import com.phinity.common.dto.enums.OrderType;
+import com.phinity.common.dto.enums.Side;
+import com.phinity.common.dto.enums.TimeInForce;
+import com.phinity.matching.engine.OptimizedDisruptorEngine;
+import com.phinity.matching.engine.ThreadAffinity;
+import com.phinity.matching.engine.config.BookFeed;
+import com.phinity.matching.engine.config.BookUpdateMode;
+import com.phinity.matching.engine.config.EngineProfile;
+import com.phinity.matching.engine.config.PairConfigurationManager;
+import com.phinity.matching.engine.config.PairScale;
+import com.phinity.matching.engine.config.ReplicationMode;
+import com.phinity.matching.engine.core.LadderOrderBook;
+import com.phinity.matching.engine.core.OrderBook;
+import com.phinity.matching.engine.core.Trade;
+import com.phinity.matching.engine.replay.StateHasher;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replicates a primary to a follower over each transport, loses the primary and promotes the follower, whose books
+ * have to hash the same as the primary's and keep matching on the new engine.
+ */
+class ReplicationFollowerTest {
+    private static final PairScale SCALE = new PairScale(0, 0);
+    private static final long ACK_TIMEOUT_MS = 10_000;
+
+    @Test
+    void followerInProcessTakesOverThePrimarysBooks() throws InterruptedException {
+        InProcessReplication replication = new InProcessReplication(1024);
+        ReplicationFollower follower = new ReplicationFollower("follower", replication.source(),
+                ReplicationFollowerTest::newBook);
+        follower.start();
+        assertTakesOver(follower, replication.link());
+    }
+
+    @Test
+    void followerOverTcpTakesOverThePrimarysBooks() throws InterruptedException {
+        TcpReplicationSource source = new TcpReplicationSource(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        ReplicationFollower follower = new ReplicationFollower("follower", source, ReplicationFollowerTest::newBook);
+        follower.start();
+        assertTakesOver(follower, new TcpReplicationLink(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), source.getLocalPort())));
+    }
+
+    private static void assertTakesOver(ReplicationFollower follower, ReplicationLink link) throws InterruptedException {
+        OptimizedDisruptorEngine primary = new OptimizedDisruptorEngine("primary", EngineProfile.DEFAULT,
+                ThreadAffinity.NONE, -1, null, ReplicationMode.ACK_BEFORE_PUBLISH);
+        primary.addBook(newBook("BTC-USDT"));
+        primary.addBook(newBook("ETH-USDT"));
+        // The follower starts from a copy of the books as they are when it attaches
+        trade(primary, new Random(31), "a", 1_000);
+        assertEquals(2L, primary.attachFollower(link, ACK_TIMEOUT_MS).join());
+        trade(primary, new Random(32), "b", 3_000);
+        primary.removeBook("ETH-USDT");
+        primary.addBook(newBook("SOL-USDT"));
+        trade(primary, new Random(33), "c", 1_000);
+        primary.processOrder("BTC-USDT", "last-ask", "maker", Side.SELL, 200, 1, OrderType.LIMIT, TimeInForce.GTC)
+                .join();
+        // Every result was acknowledged by the follower before it was published
+        Set<String> symbols = primary.getSymbols();
+        long hash = hash(primary);
+        primary.shutdown();
+
+        long deadline = System.currentTimeMillis() + ACK_TIMEOUT_MS;
+        while (!follower.isPrimaryLost()) {
+            assertTrue(System.currentTimeMillis() < deadline, "The follower did not notice the primary was lost");
+            Thread.sleep(1);
+        }
+        OptimizedDisruptorEngine promoted = follower.promote(new OptimizedDisruptorEngine("promoted",
+                EngineProfile.DEFAULT, ThreadAffinity.NONE, -1));
+        try {
+            assertFalse(follower.isFailed());
+            assertEquals(symbols, promoted.getSymbols());
+            assertEquals(hash, hash(promoted));
+            List<Trade> trades = promoted.processOrder("BTC-USDT", "taker", "u-9", Side.BUY, 200, 1,
+                    OrderType.LIMIT, TimeInForce.IOC).join();
+            assertFalse(trades.isEmpty());
+        } finally {
+            promoted.shutdown();
+        }
+    }
+
+    private static OrderBook newBook(String symbol) {
+        OrderBook book = new LadderOrderBook(symbol, SCALE);
+        book.configurePublication(BookUpdateMode.CONFLATED, BookFeed.FULL_DEPTH,
+                PairConfigurationManager.DEFAULT_BOOK_SNAPSHOT_INTERVAL_MS);
+        return book;
+    }
+
+    /**
+     * Places and cancels orders of a few users around a common price on every hosted book, and waits for the
+     * results.
+     */
+    private static void trade(OptimizedDisruptorEngine engine, Random random, String prefix, int commands) {
+        List<String> symbols = new ArrayList<>(new TreeSet<>(engine.getSymbols()));
+        List<CompletableFuture<?>> results = new ArrayList<>(commands);
+        for (int i = 0; i < commands; i++) {
+            String symbol = symbols.get(random.nextInt(symbols.size()));
+            CompletableFuture<?> result;
+            if (i > 0 && random.nextInt(4) == 0) {
+                result = engine.cancelOrder(symbol, prefix + "-" + random.nextInt(i));
+            } else {
+                result = engine.processOrder(symbol, prefix + "-" + i, "u-" + random.nextInt(4),
+                        random.nextBoolean() ? Side.BUY : Side.SELL, 95 + random.nextInt(11), 1 + random.nextInt(10),
+                        OrderType.LIMIT, TimeInForce.GTC);
+            }
+            results.add(result.handle((value, failure) -> null));
+        }
+        results.forEach(CompletableFuture::join);
+    }
+
+    private static long hash(OptimizedDisruptorEngine engine) {
+        StateHasher hasher = new StateHasher();
+        for (String symbol : new TreeSet<>(engine.getSymbols())) {
+            hasher.update(engine.snapshot(symbol).join());
+        }
+        return hasher.getValue();
+    }
+}